@@ -0,0 +1,64 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.beans.PropertyDescriptor;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Extraction of every displayed cell of a catalog, thru the PropertyDescriptor reflection or the compiled columns
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CellExtractionBenchmark {
+
+    private List<SonarRule> rules;
+
+    private List<String> headers;
+
+    @Setup
+    public void setUp(){
+        rules = SyntheticCatalog.rules(1000);
+        final RulesExtractor extractor = new RulesExtractor();
+        extractor.tryInitDefaultHeaders();
+        headers = extractor.getHeaders();
+    }
+
+    @Benchmark
+    public void propertyDescriptors(Blackhole blackhole) throws Exception{
+        final Map<String, PropertyDescriptor> properties = RulesExtractor.getProperties(SonarRule.class);
+        for(SonarRule rule : rules){
+            for(String header : headers){
+                blackhole.consume(RulesExtractor.getBeanProperty(rule, properties, header));
+            }
+        }
+    }
+
+    @Benchmark
+    public void compiledColumns(Blackhole blackhole){
+        final List<Bean2Excel.Column<SonarRule>> columns = Bean2Excel.of(SonarRule.class).select(headers);
+        for(SonarRule rule : rules){
+            for(Bean2Excel.Column<SonarRule> column : columns){
+                blackhole.consume(column.get(rule));
+            }
+        }
+    }
+}
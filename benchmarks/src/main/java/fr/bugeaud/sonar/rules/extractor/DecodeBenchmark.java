@@ -0,0 +1,55 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.RulesExtract;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding of a search page, thru a String bound to RulesExtract as Unirest did, or streamed rule by rule
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"100", "500"})
+    private int pageSize;
+
+    private byte[] page;
+
+    @Setup
+    public void setUp(){
+        page = SyntheticCatalog.page(pageSize);
+    }
+
+    @Benchmark
+    public RulesExtract stringToRulesExtract() throws IOException{
+        final String body = new String(page, StandardCharsets.UTF_8);
+        return RulesPageDecoder.MAPPER.readValue(body, RulesExtract.class);
+    }
+
+    @Benchmark
+    public RulesPageDecoder.PageInfo streamedRules(Blackhole blackhole) throws IOException{
+        return RulesPageDecoder.decode(new ByteArrayInputStream(page), (SonarRule rule) -> blackhole.consume(rule));
+    }
+}
@@ -0,0 +1,62 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.mashape.unirest.http.exceptions.UnirestException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End to end extraction of a whole catalog from the local search stub, with a server latency,
+ * thru the asynchronous transport or the blocking Unirest one
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    @Param({"1", "4", "16"})
+    private int concurrency;
+
+    @Param({"40"})
+    private int latency;
+
+    @Param({"async", "unirest"})
+    private String transport;
+
+    private SonarSearchStub stub;
+
+    @Setup
+    public void setUp() throws IOException{
+        stub = new SonarSearchStub().catalogSize(40000).latency(latency, latency / 2).start();
+        final RulesTransport pages = RulesTransport.Kind.parse(transport).create();
+        pages.configure(Math.max(RulesExtractor.DEFAULT_MAX_PER_ROUTE, concurrency), RulesTransport.DEFAULT_TIMEOUT_SECONDS);
+        RulesExtractor.setTransport(pages);
+    }
+
+    @TearDown
+    public void tearDown(){
+        stub.close();
+    }
+
+    @Benchmark
+    public int streamRules(Blackhole blackhole) throws UnirestException{
+        return RulesExtractor.streamRules(stub.getSearchUri(), "java,cpp", null, concurrency, blackhole::consume);
+    }
+}
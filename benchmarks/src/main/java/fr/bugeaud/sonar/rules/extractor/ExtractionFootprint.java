@@ -0,0 +1,166 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compare the wall clock time and the peak heap of whole extractions from a local stub, each run in a new JVM.
+ * The peak heap is the one sampled by the -metrics report of the extractor. A preset gives the compared modes,
+ * each mode being the extractor options added to the same extraction of every language of the stub.
+ * Their median and best over the runs are printed for each mode, after a few runs warming the file system caches.
+ * <p>
+ * Usage : java -cp benchmarks.jar fr.bugeaud.sonar.rules.extractor.ExtractionFootprint -extractor rules-extractor.jar [-preset workbook|pipeline]
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class ExtractionFootprint {
+
+    /**
+     * The compared modes
+     */
+    enum Preset {
+        /**
+         * The workbook built in memory against the streamed one
+         */
+        WORKBOOK(new Mode("in-memory", "xlsx"), new Mode("streamed", "xlsx", "-w", "500")),
+        /**
+         * The whole catalog fetched before writing against the rules written thru the queue as they are fetched,
+         * the workbook being streamed in both cases
+         */
+        PIPELINE(new Mode("two-phase", "xlsx", "-w", "500"), new Mode("pipelined", "xlsx", "-w", "500", "-q", "5000"));
+
+        private final List<Mode> modes;
+
+        Preset(Mode... modes){
+            this.modes = Arrays.asList(modes);
+        }
+
+        List<Mode> getModes(){
+            return modes;
+        }
+    }
+
+    /**
+     * The options of a compared mode and its output format
+     */
+    static class Mode {
+        private final String name;
+        private final String format;
+        private final List<String> options;
+
+        Mode(String name, String format, String... options){
+            this.name = name;
+            this.format = format;
+            this.options = Arrays.asList(options);
+        }
+    }
+
+    @Parameter(names = "-extractor", description = "The extractor jar, with its dependencies", required = true)
+    private String extractorJar;
+
+    @Parameter(names = "-preset", description = "The compared modes : workbook or pipeline")
+    private String preset = "workbook";
+
+    @Parameter(names = "-runs", description = "Number of timed runs per mode")
+    private int runs = 5;
+
+    @Parameter(names = "-warmup", description = "Number of runs per mode before the timed ones")
+    private int warmup = 1;
+
+    @Parameter(names = "-rules", description = "Number of rules of the stub catalog, every one of them being extracted")
+    private int catalogSize = 50000;
+
+    @Parameter(names = "-latency", description = "Latency of each search page of the stub, in milliseconds")
+    private int latency = 0;
+
+    @Parameter(names = "-heap", description = "Maximum heap of the extractor JVMs, as given to -Xmx")
+    private String heap = "2g";
+
+    @Parameter(names = "-help", help = true, description = "Shows this help")
+    private boolean help = false;
+
+    /**
+     * Run an extraction in a new JVM
+     * @param stub the stub serving the catalog
+     * @param mode the compared mode
+     * @param output the output file
+     * @param metrics the directory of the metrics report
+     * @return the milliseconds until the exit and the peak heap in bytes
+     */
+    long[] measure(SonarSearchStub stub, Mode mode, Path output, Path metrics) throws IOException, InterruptedException{
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + heap);
+        command.addAll(Arrays.asList("-jar", extractorJar, "-s", stub.getSearchUri(), "-l", String.join(",", SyntheticCatalog.LANGUAGES),
+                "-c", "4", "-metrics", metrics.toString(), "-o", output.toString()));
+        command.addAll(mode.options);
+
+        final long started = System.nanoTime();
+        final Process extraction = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(output + ".log"))
+                .start();
+        final int exitCode = extraction.waitFor();
+        final long ended = System.nanoTime();
+        if(exitCode != 0){
+            throw new IOException(String.format("The extraction has failed with exit code %s, see %s.log", exitCode, output));
+        }
+        final JsonNode report = RulesPageDecoder.MAPPER.readTree(metrics.resolve(ExtractionMetrics.JSON_REPORT).toFile());
+        return new long[]{(ended - started) / 1000000L, report.get("heapPeakBytes").asLong()};
+    }
+
+    void run() throws IOException, InterruptedException{
+        final Path directory = Files.createTempDirectory("footprint-");
+        final Path metrics = directory.resolve("metrics");
+        try(SonarSearchStub stub = new SonarSearchStub().catalogSize(catalogSize).latency(latency, 0).start()){
+            for(Mode mode : Preset.valueOf(preset.toUpperCase(Locale.ROOT)).getModes()){
+                final Path output = directory.resolve("rules." + mode.format);
+                final List<Long> times = new ArrayList<>();
+                final List<Long> peaks = new ArrayList<>();
+                for(int run = -warmup; run < runs; run++){
+                    final long[] measures = measure(stub, mode, output, metrics);
+                    if(run >= 0){
+                        times.add(measures[0]);
+                        peaks.add(measures[1]);
+                    }
+                }
+                System.out.printf("%-12s total %6d ms median %6d ms best, peak heap %5d MB median %5d MB best%n", mode.name,
+                        median(times), Collections.min(times), median(peaks) >> 20, Collections.min(peaks) >> 20);
+                Files.deleteIfExists(output);
+                Files.deleteIfExists(Paths.get(output + ".log"));
+            }
+        }finally{
+            Files.deleteIfExists(metrics.resolve(ExtractionMetrics.JSON_REPORT));
+            Files.deleteIfExists(metrics.resolve(ExtractionMetrics.PROMETHEUS_REPORT));
+            Files.deleteIfExists(metrics);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static long median(List<Long> values){
+        final List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    public static void main(String[] args) throws Exception{
+        final ExtractionFootprint footprint = new ExtractionFootprint();
+        final JCommander commander = new JCommander(footprint, args);
+        if(footprint.help || footprint.runs < 1){
+            commander.usage();
+            return;
+        }
+        footprint.run();
+    }
+}
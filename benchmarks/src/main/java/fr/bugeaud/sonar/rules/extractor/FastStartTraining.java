@@ -0,0 +1,107 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Build the AppCDS archive of the extractor from a training run against a local stub.
+ * The extractor jar is run once by a new JVM dumping the classes it loaded on exit, the training jobs
+ * fetching from a SonarSearchStub and writing every output format, so the archived classes cover a short run
+ * whatever its format. The training JVM only has the extractor jar on its class path, as the JVMs using the
+ * archive must have.
+ * <p>
+ * Usage : java -cp benchmarks.jar fr.bugeaud.sonar.rules.extractor.FastStartTraining rules-extractor.jar rules-extractor.jsa
+ * <p>
+ * The archive needs JDK 13 or later, and is only used by the very JDK that built it :
+ * java -XX:SharedArchiveFile=rules-extractor.jsa -jar rules-extractor.jar ...
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class FastStartTraining {
+
+    protected static final Logger LOGGER = Logger.getLogger(FastStartTraining.class.getName());
+
+    /**
+     * The catalog served to the training run, a few pages of each language
+     */
+    public static final int TRAINING_CATALOG_SIZE = 4000;
+
+    private FastStartTraining(){
+    }
+
+    /**
+     * Give the training jobs, one per output format and layout
+     * @param searchUri the search URI of the stub
+     * @param directory the directory of the outputs
+     * @return the lines of the job file
+     */
+    static List<String> jobs(String searchUri, Path directory){
+        final String output = directory.toAbsolutePath().toString();
+        return Arrays.asList(
+                String.format("-s %s -l java -o %s/java.xlsx", searchUri, output),
+                String.format("-s %s -l java -w 100 -e key,name,severity,type,createdAt,htmlDesc -o %s/java-streamed.xlsx", searchUri, output),
+                String.format("-s %s -l cpp -o %s/cpp.csv", searchUri, output),
+                String.format("-s %s -l cpp -descriptionText -o %s/cpp.ndjson", searchUri, output),
+                String.format("-s %s -l java,cpp -split -o %s/split.xlsx", searchUri, output));
+    }
+
+    /**
+     * Run the training and dump the archive
+     * @param extractorJar the extractor jar, with its dependencies
+     * @param archive the archive to write
+     * @throws IOException if the training could not be run
+     * @throws InterruptedException if interrupted while waiting for the training run
+     */
+    public static void train(Path extractorJar, Path archive) throws IOException, InterruptedException{
+        if(!Files.isRegularFile(extractorJar)){
+            throw new IOException(String.format("There is no extractor jar %s, package the extractor with the fast-start profile first", extractorJar));
+        }
+        final Path directory = Files.createTempDirectory("fast-start-");
+        try(SonarSearchStub stub = new SonarSearchStub().catalogSize(TRAINING_CATALOG_SIZE).start()){
+            final Path jobs = Files.write(directory.resolve("training.jobs"), jobs(stub.getSearchUri(), directory), StandardCharsets.UTF_8);
+            Files.deleteIfExists(archive);
+
+            final Process training = new ProcessBuilder(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-XX:ArchiveClassesAtExit=" + archive.toAbsolutePath(),
+                    // XMLBeans and Commons Logging are compiled for Java 1.4, their classes are left out with a warning each
+                    "-Xlog:cds=off",
+                    "-cp", extractorJar.toAbsolutePath().toString(),
+                    BatchRunner.class.getName(),
+                    "-jobs", jobs.toString())
+                    .inheritIO()
+                    .start();
+            final int exitCode = training.waitFor();
+            if(exitCode != 0 || !Files.isRegularFile(archive)){
+                throw new IOException(String.format("The training run has failed with exit code %s, no archive was dumped to %s", exitCode, archive));
+            }
+        }finally{
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(directory)){
+                for(Path file : files){
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+        LOGGER.info(String.format("Archived the classes of the training run in %s (%s KB)", archive, Files.size(archive) / 1024));
+    }
+
+    public static void main(String[] args) throws Exception{
+        if(args.length != 2){
+            System.err.println("Usage : FastStartTraining <extractor jar> <archive>");
+            System.exit(RulesExtractor.USAGE_EXIT_CODE);
+        }
+        final String version = System.getProperty("java.specification.version");
+        if(version.startsWith("1.") || Integer.parseInt(version) < 13){
+            throw new IllegalStateException(String.format("A dynamic AppCDS archive needs JDK 13 or later, this is %s", version));
+        }
+        train(Paths.get(args[0]), Paths.get(args[1]));
+    }
+}
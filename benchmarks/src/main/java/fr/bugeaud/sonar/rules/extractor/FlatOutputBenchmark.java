@@ -0,0 +1,58 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.beust.jcommander.JCommander;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing of a whole catalog as CSV or NDJSON thru the sink of the format, with the default headers
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FlatOutputBenchmark {
+
+    @Param({"10000", "100000"})
+    private int rules;
+
+    @Param({"csv", "ndjson"})
+    private String format;
+
+    private List<SonarRule> catalog;
+
+    private RulesExtractor extractor;
+
+    @Setup
+    public void setUp(){
+        catalog = SyntheticCatalog.rules(rules);
+        extractor = new RulesExtractor();
+        new JCommander(extractor, "-o", "benchmark." + format);
+        extractor.tryInitDefaultHeaders();
+    }
+
+    @Benchmark
+    public void write() throws Exception{
+        try(RuleSink sink = extractor.createSink(new WorkbookBenchmark.NullOutputStream())){
+            for(SonarRule rule : catalog){
+                sink.accept(rule);
+            }
+        }
+    }
+}
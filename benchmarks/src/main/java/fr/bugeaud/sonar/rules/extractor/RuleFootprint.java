@@ -0,0 +1,38 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+
+/**
+ * Measure the heap retained by a synthetic catalog, as decoded and once compacted by RuleStore.
+ * The retained heap is the used heap after a full collection, with and without the catalog.
+ * Usage : java -cp benchmarks.jar fr.bugeaud.sonar.rules.extractor.RuleFootprint [rules, 10000 by default]
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RuleFootprint {
+
+    public static void main(String[] args){
+        final int total = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        final long empty = retainedHeap(memory);
+        final List<SonarRule> rules = SyntheticCatalog.rules(total);
+        final long decoded = retainedHeap(memory) - empty;
+        rules.forEach(RuleStore::compact);
+        final long compacted = retainedHeap(memory) - empty;
+
+        System.out.printf("%s rules : %s KB decoded, %s KB compacted, per 10k rules %s KB -> %s KB (%.0f%% saved)%n",
+                rules.size(), decoded / 1024, compacted / 1024, decoded * 10000L / total / 1024, compacted * 10000L / total / 1024,
+                100d * (decoded - compacted) / decoded);
+    }
+
+    private static long retainedHeap(MemoryMXBean memory){
+        for(int collection = 0; collection < 3; collection++){
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
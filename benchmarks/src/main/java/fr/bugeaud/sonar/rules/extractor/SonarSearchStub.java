@@ -0,0 +1,267 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the SonarQube /api/rules/search web service, serving a synthetic catalog.
+ * It honours the languages, ps, p and available_since parameters and can add latency, jitter and errors,
+ * so the extractor can be load tested and benchmarked without any network.
+ * It can be embedded or started on its own, then used as the search URI of the extractor.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class SonarSearchStub implements AutoCloseable {
+
+    protected static final Logger LOGGER = Logger.getLogger(SonarSearchStub.class.getName());
+
+    public static final String SEARCH_PATH = "/api/rules/search";
+
+    /**
+     * The largest page size SonarQube accepts
+     */
+    public static final int MAX_PAGE_SIZE = 500;
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * The arrival of the first request when none was received yet
+     */
+    public static final long NO_REQUEST = Long.MIN_VALUE;
+
+    @Parameter(names = "-port", description = "Port to listen to, 0 picks a free one")
+    private int port = 0;
+
+    @Parameter(names = "-rules", description = "Number of rules of the whole catalog, all languages included")
+    private int catalogSize = 5000;
+
+    @Parameter(names = "-latency", description = "Base latency added to every response, in milliseconds")
+    private int latency = 0;
+
+    @Parameter(names = "-jitter", description = "Random latency added on top of the base one, up to the given milliseconds")
+    private int jitter = 0;
+
+    @Parameter(names = "-errorRate", description = "Share of the requests answered with a 503 error, between 0 and 1")
+    private double errorRate = 0;
+
+    @Parameter(names = "-retryAfter", description = "Retry-After header sent with the 503 errors, in seconds. By default, none is sent.")
+    private int retryAfter = 0;
+
+    @Parameter(names = "-help", help = true, description = "Shows this help")
+    private boolean help = false;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicLong firstRequest = new AtomicLong(NO_REQUEST);
+
+    /**
+     * @param catalogSize the number of rules of the whole catalog
+     * @return this stub
+     */
+    public SonarSearchStub catalogSize(int catalogSize){
+        this.catalogSize = catalogSize;
+        return this;
+    }
+
+    /**
+     * @param latency the base latency in milliseconds
+     * @param jitter the maximum random latency added on top, in milliseconds
+     * @return this stub
+     */
+    public SonarSearchStub latency(int latency, int jitter){
+        this.latency = latency;
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * @param errorRate the share of requests answered with an error
+     * @return this stub
+     */
+    public SonarSearchStub errorRate(double errorRate){
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param retryAfter the Retry-After seconds sent with the errors, 0 for none
+     * @return this stub
+     */
+    public SonarSearchStub retryAfter(int retryAfter){
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    /**
+     * @param port the port to listen to, 0 picks a free one
+     * @return this stub
+     */
+    public SonarSearchStub port(int port){
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * Start listening on the loopback interface
+     * @return this stub
+     * @throws IOException if the server could not be bound
+     */
+    public SonarSearchStub start() throws IOException{
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(SEARCH_PATH, this::handle);
+        // Every request gets its own thread, so the latency does not serialise them
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    /**
+     * @return the search URI to give to the extractor
+     */
+    public String getSearchUri(){
+        return String.format("http://localhost:%s%s", server.getAddress().getPort(), SEARCH_PATH);
+    }
+
+    @Override
+    public void close(){
+        if(server != null){
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * @return the System.nanoTime() at which the first request arrived since the last reset, or NO_REQUEST
+     */
+    public long getFirstRequestNanos(){
+        return firstRequest.get();
+    }
+
+    /**
+     * Forget the first request, so the next one is timed
+     */
+    public void resetFirstRequest(){
+        firstRequest.set(NO_REQUEST);
+    }
+
+    void handle(HttpExchange exchange) throws IOException{
+        firstRequest.compareAndSet(NO_REQUEST, System.nanoTime());
+        try{
+            final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            pause();
+
+            if(errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate){
+                if(retryAfter > 0){
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfter));
+                }
+                respond(exchange, 503, "{\"errors\":[{\"msg\":\"Service unavailable\"}]}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            final int pageSize = Integer.parseInt(query.getOrDefault("ps", String.valueOf(DEFAULT_PAGE_SIZE)));
+            final int page = Integer.parseInt(query.getOrDefault("p", "1"));
+            if(pageSize < 1 || pageSize > MAX_PAGE_SIZE || page < 1){
+                respond(exchange, 400, "{\"errors\":[{\"msg\":\"Invalid page\"}]}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            final Set<String> languages = query.containsKey("languages") ? new HashSet<>(Arrays.asList(query.get("languages").split(","))) : null;
+            final long since = query.containsKey("available_since")
+                    ? LocalDate.parse(query.get("available_since")).atStartOfDay(ZoneId.of("UTC")).toInstant().toEpochMilli()
+                    : 0L;
+
+            final ByteArrayOutputStream body = new ByteArrayOutputStream(pageSize * 4096);
+            SyntheticCatalog.writePage(body, catalogSize, page, pageSize, languages, since);
+            respond(exchange, 200, body.toByteArray());
+        }catch(NumberFormatException | DateTimeParseException e){
+            respond(exchange, 400, "{\"errors\":[{\"msg\":\"Invalid parameter\"}]}".getBytes(StandardCharsets.UTF_8));
+        }finally{
+            exchange.close();
+        }
+    }
+
+    private void pause(){
+        final long delay = latency + (jitter > 0 ? ThreadLocalRandom.current().nextInt(jitter + 1) : 0);
+        if(delay > 0){
+            try{
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException{
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+        final String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if(encoding == null || !encoding.toLowerCase(Locale.ROOT).contains("gzip")){
+            exchange.sendResponseHeaders(status, body.length);
+            try(OutputStream out = exchange.getResponseBody()){
+                out.write(body);
+            }
+            return;
+        }
+        // Gzipped as a real server would when asked
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream(body.length / 4 + 64);
+        try(GZIPOutputStream out = new GZIPOutputStream(gzipped)){
+            out.write(body);
+        }
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(status, gzipped.size());
+        try(OutputStream out = exchange.getResponseBody()){
+            gzipped.writeTo(out);
+        }
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException{
+        final Map<String, String> query = new HashMap<>();
+        if(rawQuery == null){
+            return query;
+        }
+        for(String parameter : rawQuery.split("&")){
+            final int equal = parameter.indexOf('=');
+            if(equal > 0){
+                query.put(URLDecoder.decode(parameter.substring(0, equal), "UTF-8"), URLDecoder.decode(parameter.substring(equal + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    public static void main(String[] args) throws Exception{
+        final SonarSearchStub stub = new SonarSearchStub();
+        final JCommander commander = new JCommander(stub, args);
+        if(stub.help){
+            commander.usage();
+            return;
+        }
+        stub.start();
+        LOGGER.info(String.format("Serving %s synthetic rules on %s", stub.catalogSize, stub.getSearchUri()));
+    }
+}
@@ -0,0 +1,122 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time short command line extractions from a local stub, each run in a new JVM.
+ * Two times are given per run : until the stub receives the first search request, which is the startup of the
+ * extractor, and until the JVM has exited with the output written. Their median and best over the runs are printed
+ * for each format, after a few runs warming the file system caches.
+ * <p>
+ * Usage : java -cp benchmarks.jar fr.bugeaud.sonar.rules.extractor.StartupTiming -extractor rules-extractor.jar [-archive rules-extractor.jsa]
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class StartupTiming {
+
+    @Parameter(names = "-extractor", description = "The extractor jar, with its dependencies", required = true)
+    private String extractorJar;
+
+    @Parameter(names = "-archive", description = "The AppCDS archive given to the extractor JVMs. By default, none.")
+    private String archive;
+
+    @Parameter(names = "-runs", description = "Number of timed runs per format")
+    private int runs = 10;
+
+    @Parameter(names = "-warmup", description = "Number of runs per format before the timed ones")
+    private int warmup = 2;
+
+    @Parameter(names = "-rules", description = "Number of rules of the stub catalog, all languages included")
+    private int catalogSize = 5000;
+
+    @Parameter(names = "-l", description = "The extracted language")
+    private String language = "cpp";
+
+    @Parameter(names = "-formats", description = "The timed output formats")
+    private List<String> formats = Arrays.asList("xlsx", "csv");
+
+    @Parameter(names = "-help", help = true, description = "Shows this help")
+    private boolean help = false;
+
+    /**
+     * Run an extraction in a new JVM
+     * @param stub the stub serving the catalog
+     * @param output the output file
+     * @return the milliseconds until the first request and until the exit
+     */
+    long[] time(SonarSearchStub stub, Path output) throws IOException, InterruptedException{
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if(archive != null){
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.addAll(Arrays.asList("-jar", extractorJar, "-s", stub.getSearchUri(), "-l", language,
+                "-e", "key,name,severity,type,createdAt,htmlDesc", "-o", output.toString()));
+
+        stub.resetFirstRequest();
+        final long started = System.nanoTime();
+        final Process extraction = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(output + ".log"))
+                .start();
+        final int exitCode = extraction.waitFor();
+        final long ended = System.nanoTime();
+        if(exitCode != 0){
+            throw new IOException(String.format("The extraction has failed with exit code %s, see %s.log", exitCode, output));
+        }
+        return new long[]{
+            TimeUnit.NANOSECONDS.toMillis(stub.getFirstRequestNanos() - started),
+            TimeUnit.NANOSECONDS.toMillis(ended - started)};
+    }
+
+    void run() throws IOException, InterruptedException{
+        final Path directory = Files.createTempDirectory("startup-");
+        try(SonarSearchStub stub = new SonarSearchStub().catalogSize(catalogSize).start()){
+            for(String format : formats){
+                final Path output = directory.resolve("rules." + format);
+                final List<Long> firstRequest = new ArrayList<>();
+                final List<Long> total = new ArrayList<>();
+                for(int run = -warmup; run < runs; run++){
+                    final long[] times = time(stub, output);
+                    if(run >= 0){
+                        firstRequest.add(times[0]);
+                        total.add(times[1]);
+                    }
+                }
+                System.out.printf("%-5s first request %5d ms median %5d ms best, total %5d ms median %5d ms best%n", format,
+                        median(firstRequest), Collections.min(firstRequest), median(total), Collections.min(total));
+                Files.deleteIfExists(output);
+                Files.deleteIfExists(Paths.get(output + ".log"));
+            }
+        }finally{
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static long median(List<Long> times){
+        final List<Long> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    public static void main(String[] args) throws Exception{
+        final StartupTiming timing = new StartupTiming();
+        final JCommander commander = new JCommander(timing, args);
+        if(timing.help || timing.runs < 1){
+            commander.usage();
+            return;
+        }
+        timing.run();
+    }
+}
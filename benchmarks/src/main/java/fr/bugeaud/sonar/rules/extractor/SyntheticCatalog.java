@@ -0,0 +1,167 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generate synthetic rules search pages, shaped as the SonarQube ones.
+ * Every rule is derived from its index only, so a page gives the same rules whatever the page size
+ * and whoever asks for it. The descriptions follow the sizes seen on real catalogs, mostly a few
+ * kilobytes with a tail of much larger ones.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public final class SyntheticCatalog {
+
+    static final String[] SEVERITIES = {"INFO", "MINOR", "MAJOR", "CRITICAL", "BLOCKER"};
+    static final String[] TYPES = {"CODE_SMELL", "BUG", "VULNERABILITY"};
+    static final String[] STATUSES = {"READY", "READY", "READY", "BETA", "DEPRECATED"};
+    static final String[] LANGUAGES = {"java", "cpp", "js", "cs", "py", "abap", "cobol", "plsql"};
+    static final String[] LANGUAGE_NAMES = {"Java", "C++", "JavaScript", "C#", "Python", "ABAP", "COBOL", "PL/SQL"};
+    static final String[] TAGS = {"cwe", "cert", "misra", "owasp-a1", "pitfall", "convention", "brain-overload", "performance"};
+
+    private static final long SEED = 0x50AA_2017L;
+
+    private static final String PARAGRAPH = "<p>This rule raises an issue when the code does not follow the expected pattern. "
+            + "Such code is harder to read, to maintain and may hide a real defect at runtime.</p>\n";
+    private static final String EXAMPLE = "<h2>Noncompliant Code Example</h2>\n<pre>\nif (a == b) {\n  doSomething();\n}\n</pre>\n"
+            + "<h2>Compliant Solution</h2>\n<pre>\nif (a.equals(b)) {\n  doSomething();\n}\n</pre>\n";
+
+    private SyntheticCatalog(){
+    }
+
+    /**
+     * Write a search page
+     * @param output the target stream
+     * @param total the number of rules of the whole catalog
+     * @param page the page number, starting at 1
+     * @param pageSize the number of rules per page
+     * @throws IOException if the page could not be written
+     */
+    public static void writePage(OutputStream output, int total, int page, int pageSize) throws IOException{
+        writePage(output, total, page, pageSize, null, 0L);
+    }
+
+    /**
+     * Write a search page of the rules of some languages created on or after a given time
+     * @param output the target stream
+     * @param total the number of rules of the whole catalog before filtering
+     * @param page the page number, starting at 1
+     * @param pageSize the number of rules per page
+     * @param languages the language codes to keep, null to keep them all
+     * @param since the epoch milliseconds under which rules are filtered out
+     * @throws IOException if the page could not be written
+     */
+    public static void writePage(OutputStream output, int total, int page, int pageSize, Set<String> languages, long since) throws IOException{
+        final boolean[] kept = new boolean[LANGUAGES.length];
+        for(int language = 0; language < LANGUAGES.length; language++){
+            kept[language] = languages == null || languages.contains(LANGUAGES[language]);
+        }
+        final int from = (page - 1) * pageSize;
+
+        try(JsonGenerator generator = RulesPageDecoder.MAPPER.getFactory().createGenerator(output)){
+            generator.writeStartObject();
+            generator.writeFieldName("rules");
+            generator.writeStartArray();
+            int matching = 0;
+            for(int index = 0; index < total; index++){
+                if(!kept[index % LANGUAGES.length] || createdAt(index) < since){
+                    continue;
+                }
+                if(matching >= from && matching < from + pageSize){
+                    writeRule(generator, index);
+                }
+                matching++;
+            }
+            generator.writeEndArray();
+            // The total is only known once filtered, the decoder accepts it after the rules
+            generator.writeNumberField("total", matching);
+            generator.writeNumberField("p", page);
+            generator.writeNumberField("ps", pageSize);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * @param total the number of rules
+     * @return a single page holding the whole catalog
+     */
+    public static byte[] page(int total){
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(total * 4096);
+        try{
+            writePage(output, total, 1, total);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * @param total the number of rules
+     * @return the rules of the catalog, bound as the extractor would
+     */
+    public static List<SonarRule> rules(int total){
+        final List<SonarRule> rules = new ArrayList<>(total);
+        try{
+            RulesPageDecoder.decode(new ByteArrayInputStream(page(total)), rules::add);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return rules;
+    }
+
+    /**
+     * @param index the rule index
+     * @return the creation time of the rule, in epoch milliseconds
+     */
+    static long createdAt(int index){
+        // One rule every six hours from mid 2008
+        return 1214870400000L + index * 21600000L;
+    }
+
+    static void writeRule(JsonGenerator generator, int index) throws IOException{
+        final Random random = new Random(SEED ^ index);
+        final int language = index % LANGUAGES.length;
+        final String repo = "squid-" + LANGUAGES[language];
+
+        generator.writeStartObject();
+        generator.writeNumberField("id", index + 1);
+        generator.writeStringField("key", repo + ":S" + (100 + index));
+        generator.writeStringField("repo", repo);
+        generator.writeStringField("name", "Synthetic rule " + index + " should be respected");
+        generator.writeNumberField("createdAt", createdAt(index));
+        generator.writeStringField("htmlDesc", description(random));
+        generator.writeStringField("severity", SEVERITIES[random.nextInt(SEVERITIES.length)]);
+        generator.writeStringField("status", STATUSES[random.nextInt(STATUSES.length)]);
+        generator.writeStringField("langName", LANGUAGE_NAMES[language]);
+        generator.writeStringField("type", TYPES[random.nextInt(TYPES.length)]);
+        generator.writeFieldName("sysTags");
+        generator.writeStartArray();
+        for(int tag = random.nextInt(3); tag > 0; tag--){
+            generator.writeString(TAGS[random.nextInt(TAGS.length)]);
+        }
+        generator.writeEndArray();
+        generator.writeStringField("remFnType", "CONSTANT_ISSUE");
+        generator.writeStringField("remFnBaseEffort", (1 + random.nextInt(30)) + "min");
+        generator.writeEndObject();
+    }
+
+    static String description(Random random){
+        // Mostly 1 to 6 KB, one in twenty around 20 KB
+        final int size = random.nextInt(20) == 0 ? 16384 + random.nextInt(8192) : 1024 + random.nextInt(5120);
+        final StringBuilder description = new StringBuilder(size + EXAMPLE.length());
+        while(description.length() < size){
+            description.append(PARAGRAPH);
+        }
+        return description.append(EXAMPLE).toString();
+    }
+}
@@ -0,0 +1,76 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.beust.jcommander.JCommander;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing of a whole catalog as a plain sheet or as a table, with the workbook in memory or streamed
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class WorkbookBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int rules;
+
+    /**
+     * The row window, 0 builds the whole workbook in memory
+     */
+    @Param({"0", "500"})
+    private int rowWindow;
+
+    private List<SonarRule> catalog;
+
+    private RulesExtractor extractor;
+
+    @Setup
+    public void setUp(){
+        catalog = SyntheticCatalog.rules(rules);
+        extractor = new RulesExtractor();
+        new JCommander(extractor, "-o", "benchmark.xlsx", "-w", String.valueOf(rowWindow));
+        extractor.tryInitDefaultHeaders();
+    }
+
+    @Benchmark
+    public void generateExcel() throws Exception{
+        extractor.generateExcel(catalog, extractor.getHeaders(), new NullOutputStream());
+    }
+
+    @Benchmark
+    public void generateExcelTable() throws Exception{
+        extractor.generateExcelTable(catalog, extractor.getHeaders(), new NullOutputStream());
+    }
+
+    /**
+     * Counts nothing and keeps nothing, only the workbook serialisation is measured
+     */
+    static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b){
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len){
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * The search pages fetched thru a non blocking Apache HttpAsyncClient, the client Unirest already brings along.
+ * A few I/O threads serve every request in flight, so a slow page holds a pooled keep-alive connection but
+ * no thread. The responses are asked gzipped, and every request has a connect and a socket timeout.
+ * HttpAsyncClient speaks HTTP/1.1 only, there is no HTTP/2 client on Java 8.
+ * The TLS context is only built for the first https connection, loading the trust store being a good part
+ * of the startup of a short run, and of no use against a plain http server.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class AsyncHttpTransport implements RulesTransport {
+
+    private final PoolingNHttpClientConnectionManager connections;
+    private final CloseableHttpAsyncClient client;
+    private volatile RequestConfig requestConfig;
+    private int maxConnections;
+
+    public AsyncHttpTransport(){
+        // Daemon threads, so a transport left open does not hold the JVM
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadFactory threads = runnable -> {
+            final Thread thread = new Thread(runnable, "rules-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        try{
+            final IOReactorConfig reactor = IOReactorConfig.custom()
+                    .setIoThreadCount(Math.min(4, Runtime.getRuntime().availableProcessors()))
+                    .setSoKeepAlive(true)
+                    .setTcpNoDelay(true)
+                    .build();
+            connections = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactor, threads), RegistryBuilder.<SchemeIOSessionStrategy>create()
+                    .register("http", NoopIOSessionStrategy.INSTANCE)
+                    .register("https", new LazyTlsStrategy())
+                    .build());
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        maxConnections = RulesExtractor.DEFAULT_MAX_PER_ROUTE;
+        connections.setMaxTotal(maxConnections);
+        connections.setDefaultMaxPerRoute(maxConnections);
+        requestConfig = requestConfig(DEFAULT_TIMEOUT_SECONDS);
+        client = HttpAsyncClients.custom()
+                .setConnectionManager(connections)
+                .setThreadFactory(threads)
+                .build();
+        client.start();
+    }
+
+    @Override
+    public CompletableFuture<Response> get(String uri, Map<String, Object> parameters){
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+        final HttpGet request;
+        try{
+            final URIBuilder builder = new URIBuilder(uri);
+            for(Map.Entry<String, Object> parameter : parameters.entrySet()){
+                builder.addParameter(parameter.getKey(), String.valueOf(parameter.getValue()));
+            }
+            request = new HttpGet(builder.build());
+        }catch(URISyntaxException e){
+            response.completeExceptionally(new IOException(e));
+            return response;
+        }
+        request.setConfig(requestConfig);
+        request.setHeader("Accept-Encoding", "gzip");
+        request.setHeader("Accept", "application/json");
+
+        client.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse answer){
+                try{
+                    // Only buffered here, the body is inflated by the thread decoding it
+                    final HttpEntity entity = answer.getEntity();
+                    final byte[] body = entity != null ? EntityUtils.toByteArray(entity) : new byte[0];
+                    final Map<String, List<String>> headers = new LinkedHashMap<>();
+                    for(Header header : answer.getAllHeaders()){
+                        headers.computeIfAbsent(header.getName(), name -> new ArrayList<>(1)).add(header.getValue());
+                    }
+                    final String encoding = RetryPolicy.header(headers, "Content-Encoding");
+                    response.complete(new Response(answer.getStatusLine().getStatusCode(), headers, body, "gzip".equalsIgnoreCase(encoding)));
+                }catch(IOException | RuntimeException e){
+                    response.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e){
+                response.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled(){
+                response.completeExceptionally(new CancellationException(String.format("The request to %s was cancelled", uri)));
+            }
+        });
+        return response;
+    }
+
+    @Override
+    public synchronized void configure(int maxConnections, int timeoutSeconds){
+        if(maxConnections > this.maxConnections){
+            this.maxConnections = maxConnections;
+            connections.setMaxTotal(maxConnections);
+            connections.setDefaultMaxPerRoute(maxConnections);
+        }
+        requestConfig = requestConfig(timeoutSeconds);
+    }
+
+    private static RequestConfig requestConfig(int timeoutSeconds){
+        return RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT_SECONDS * 1000)
+                .setSocketTimeout(timeoutSeconds * 1000)
+                // Waiting for a pooled connection is no failure of the server
+                .setConnectionRequestTimeout(0)
+                .build();
+    }
+
+    @Override
+    public void close() throws IOException{
+        client.close();
+    }
+
+    /**
+     * The default TLS strategy, created on the first https connection
+     */
+    private static class LazyTlsStrategy implements SchemeIOSessionStrategy {
+
+        @Override
+        public boolean isLayeringRequired(){
+            return true;
+        }
+
+        @Override
+        public IOSession upgrade(HttpHost host, IOSession session) throws IOException{
+            return DefaultTls.STRATEGY.upgrade(host, session);
+        }
+    }
+
+    private static class DefaultTls {
+        private static final SSLIOSessionStrategy STRATEGY = SSLIOSessionStrategy.getDefaultStrategy();
+    }
+}
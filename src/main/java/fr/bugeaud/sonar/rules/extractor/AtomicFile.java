@@ -0,0 +1,101 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A file written aside then moved in place, so an interrupted or failed write never leaves a truncated file
+ * that looks complete. The temporary file is created next to the target, so the move stays on the same file system.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public final class AtomicFile implements Closeable {
+
+    /**
+     * Writes the content of a file
+     * @param <T> the outcome of the writing
+     * @param <E> the failure of the writing
+     */
+    @FunctionalInterface
+    public interface Content<T, E extends Exception> {
+
+        /**
+         * @param output the stream of the file, it is closed by the caller
+         * @return the outcome of the writing
+         * @throws E if the content could not be written
+         */
+        T write(OutputStream output) throws E;
+    }
+
+    private final Path target;
+    private final Path temp;
+
+    private AtomicFile(Path target, Path temp){
+        this.target = target;
+        this.temp = temp;
+    }
+
+    /**
+     * Start writing a file, its directory being created when missing
+     * @param target the file
+     * @param prefix the prefix of the temporary file name
+     * @return the file being written, to be committed then closed
+     * @throws IOException if the temporary file could not be created
+     */
+    public static AtomicFile create(Path target, String prefix) throws IOException{
+        final Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        return new AtomicFile(target, Files.createTempFile(parent, prefix, ".tmp"));
+    }
+
+    /**
+     * Write a whole file, it is only moved in place once its content is written and its stream closed
+     * @param <T> the outcome of the writing
+     * @param <E> the failure of the writing
+     * @param target the file
+     * @param prefix the prefix of the temporary file name
+     * @param content the writer of the content
+     * @return the outcome of the writing
+     * @throws IOException if the file could not be written or moved
+     * @throws E if the content could not be written
+     */
+    public static <T, E extends Exception> T write(Path target, String prefix, Content<T, E> content) throws IOException, E{
+        try(AtomicFile file = create(target, prefix)){
+            final T outcome;
+            try(OutputStream out = file.newOutputStream()){
+                outcome = content.write(out);
+            }
+            file.commit();
+            return outcome;
+        }
+    }
+
+    /**
+     * @return a new stream of the temporary file
+     * @throws IOException if the stream could not be opened
+     */
+    public OutputStream newOutputStream() throws IOException{
+        return Files.newOutputStream(temp);
+    }
+
+    /**
+     * Move the written file in place, replacing any former one
+     * @throws IOException if the file could not be moved
+     */
+    public void commit() throws IOException{
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Delete the temporary file, nothing is left once the file is committed
+     * @throws IOException if the temporary file could not be deleted
+     */
+    @Override
+    public void close() throws IOException{
+        Files.deleteIfExists(temp);
+    }
+}
@@ -0,0 +1,298 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Run many extractions from a job file, sharing the catalogs they have in common.
+ * Each line of the job file holds the options of one extraction, as on the command line, blank lines
+ * and lines starting with # being ignored. The jobs are planned first : each distinct search URI and
+ * language is fetched once, with the earliest date and every field any of its jobs needs, then each job
+ * filters its date locally and the outputs are rendered in parallel from the shared catalogs.
+ * <p>
+ * The runner itself takes the extractor options applying to every fetch, such as -c, -adaptive, -cache or -retries.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class BatchRunner {
+
+    protected static final Logger LOGGER = Logger.getLogger(BatchRunner.class.getName());
+
+    @Parameter(names = "-jobs", description = "The job file, one extraction per line", converter = RulesExtractor.PathConverter.class)
+    private Path jobsPath;
+
+    @Parameter(names = "-threads", description = "Number of catalogs fetched and outputs rendered at the same time. By default, the number of processors.")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final RulesExtractor settings;
+
+    /**
+     * @param settings the extractor options applied on every fetch
+     */
+    public BatchRunner(RulesExtractor settings){
+        this.settings = settings;
+    }
+
+    /**
+     * Read the jobs of a job file
+     * @param path the job file
+     * @return the jobs, in the file order
+     * @throws IOException if the file could not be read
+     * @throws ParameterException if a job has invalid options, or options a batch does not support
+     */
+    static List<RulesExtractor> readJobs(Path path) throws IOException{
+        final List<RulesExtractor> jobs = new ArrayList<>();
+        int lineNumber = 0;
+        for(String line : Files.readAllLines(path, StandardCharsets.UTF_8)){
+            lineNumber++;
+            final String trimmed = line.trim();
+            if(trimmed.isEmpty() || trimmed.startsWith("#")){
+                continue;
+            }
+            final RulesExtractor job = new RulesExtractor();
+            try{
+                final List<String> args = tokenize(trimmed);
+                new JCommander(job, args.toArray(new String[args.size()]));
+            }catch(ParameterException e){
+                throw new ParameterException(String.format("Job at line %s : %s", lineNumber, e.getMessage()));
+            }
+            if(job.getOutputPath() == null || job.getSearchUris().size() > 1 || !job.getDiffSources().isEmpty() || job.getQueryPath() != null){
+                throw new ParameterException(String.format("Job at line %s : a job needs -o and a single -s, -diff and -query are not supported", lineNumber));
+            }
+            job.tryInitDefaultHeaders();
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    /**
+     * Split a job line into arguments, double quotes keeping spaces within an argument
+     * @param line the job line
+     * @return the arguments
+     */
+    static List<String> tokenize(String line){
+        final List<String> args = new ArrayList<>();
+        final StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean pending = false;
+        for(int index = 0; index < line.length(); index++){
+            final char c = line.charAt(index);
+            if(c == '"'){
+                quoted = !quoted;
+                pending = true;
+            }else if(Character.isWhitespace(c) && !quoted){
+                if(pending){
+                    args.add(current.toString());
+                    current.setLength(0);
+                    pending = false;
+                }
+            }else{
+                current.append(c);
+                pending = true;
+            }
+        }
+        if(quoted){
+            throw new ParameterException(String.format("Unbalanced quotes in %s", line));
+        }
+        if(pending){
+            args.add(current.toString());
+        }
+        return args;
+    }
+
+    /**
+     * Run the jobs : fetch every distinct catalog once, then render the outputs
+     * @param jobs the jobs
+     * @throws Exception if a catalog could not be fetched or an output could not be generated
+     */
+    public void run(List<RulesExtractor> jobs) throws Exception{
+        final Map<String, Catalog> plan = plan(jobs);
+        LOGGER.info(String.format("Planned %s jobs over %s catalogs", jobs.size(), plan.size()));
+
+        final int workers = Math.max(1, threads);
+        settings.configureClient(settings.getMaxConcurrency() * Math.min(workers, Math.max(1, plan.size())));
+        final ExtractionMetrics metrics = ExtractionMetrics.get();
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try{
+            long started = System.nanoTime();
+            final Map<String, Future<List<SonarRule>>> fetches = new LinkedHashMap<>();
+            for(Map.Entry<String, Catalog> catalog : plan.entrySet()){
+                fetches.put(catalog.getKey(), executor.submit(() -> settings.fetchRules(catalog.getValue().toQuery(settings))));
+            }
+            for(Map.Entry<String, Future<List<SonarRule>>> fetch : fetches.entrySet()){
+                final Catalog catalog = plan.get(fetch.getKey());
+                catalog.rules = RulesExtractor.awaitPage(fetch.getValue());
+                LOGGER.info(String.format("There was %s %s rules found on %s", catalog.rules.size(), catalog.language, catalog.uri));
+            }
+            metrics.recordPhase(ExtractionMetrics.FETCH_PHASE, System.nanoTime() - started);
+
+            started = System.nanoTime();
+            final List<Future<?>> renders = new ArrayList<>(jobs.size());
+            for(RulesExtractor job : jobs){
+                renders.add(executor.submit(() -> {
+                    render(job, plan);
+                    return null;
+                }));
+            }
+            Exception failure = null;
+            for(int index = 0; index < renders.size(); index++){
+                try{
+                    RulesExtractor.awaitPage(renders.get(index));
+                }catch(Exception e){
+                    // Let the other outputs complete, then report the first failure
+                    LOGGER.log(Level.SEVERE, String.format("Job %s writing %s has failed", index + 1, jobs.get(index).getOutputPath()), e);
+                    if(failure == null){
+                        failure = e;
+                    }
+                }
+            }
+            metrics.recordPhase(ExtractionMetrics.WRITE_PHASE, System.nanoTime() - started);
+            if(failure != null){
+                throw failure;
+            }
+        }finally{
+            executor.shutdownNow();
+            for(Catalog catalog : plan.values()){
+                if(catalog.rules != null){
+                    RulesSpool.release(Collections.singletonList(catalog.rules));
+                }
+            }
+        }
+    }
+
+    /**
+     * Group the jobs by the catalogs they need, a split job needing one catalog per language
+     * @param jobs the jobs
+     * @return the catalogs to fetch by key
+     */
+    static Map<String, Catalog> plan(List<RulesExtractor> jobs){
+        final Map<String, Catalog> plan = new LinkedHashMap<>();
+        for(RulesExtractor job : jobs){
+            for(String language : languagesOf(job)){
+                plan.computeIfAbsent(key(job.getSearchUri(), language), k -> new Catalog(job.getSearchUri(), language)).add(job);
+            }
+        }
+        return plan;
+    }
+
+    private static Collection<String> languagesOf(RulesExtractor job){
+        return job.isSplitLanguages() ? RulesExtractor.splitLanguages(job.getLanguage()) : Collections.singletonList(job.getLanguage());
+    }
+
+    private static String key(String uri, String language){
+        return uri + '\n' + language;
+    }
+
+    /**
+     * Render the output of a job from the shared catalogs
+     * @param job the job
+     * @param plan the fetched catalogs
+     * @throws Exception if the output could not be generated
+     */
+    static void render(RulesExtractor job, Map<String, Catalog> plan) throws Exception{
+        // Only the filtered copies are released here, the catalogs are shared by the jobs
+        final Map<String, List<SonarRule>> rulesByLanguage = new LinkedHashMap<>();
+        final List<List<SonarRule>> filtered = new ArrayList<>();
+        for(String language : languagesOf(job)){
+            final List<SonarRule> catalog = plan.get(key(job.getSearchUri(), language)).rules;
+            final List<SonarRule> rules = RulesCache.filterFrom(catalog, job.getLocalDate());
+            if(rules != catalog){
+                filtered.add(rules);
+            }
+            rulesByLanguage.put(language, rules);
+        }
+        try{
+            if(job.isSplitLanguages()){
+                job.generateByLanguage(rulesByLanguage);
+            }else{
+                job.generate(rulesByLanguage.get(job.getLanguage()));
+            }
+        }finally{
+            RulesSpool.release(filtered);
+        }
+    }
+
+    /**
+     * A catalog shared by several jobs, fetched from the earliest date with the fields of every job
+     */
+    static class Catalog {
+        private final String uri;
+        private final String language;
+        private final List<String> headers = new ArrayList<>();
+        private LocalDate from;
+        private boolean everyDate = false;
+        private boolean creationDates = false;
+        private List<SonarRule> rules;
+
+        Catalog(String uri, String language){
+            this.uri = uri;
+            this.language = language;
+        }
+
+        void add(RulesExtractor job){
+            final LocalDate jobFrom = job.getLocalDate();
+            if(jobFrom == null){
+                everyDate = true;
+            }else if(from == null || jobFrom.isBefore(from)){
+                from = jobFrom;
+            }
+            // The dated jobs filter the shared catalog on the creation dates, the grouped ones find the releases from them
+            creationDates |= jobFrom != null || job.isGroupByRelease();
+            headers.addAll(job.getHeaders());
+        }
+
+        RulesQuery toQuery(RulesExtractor settings){
+            // The cache keeps whole rules, there is no projection when it is used
+            List<String> fields = settings.getCacheDirectory() != null ? null : RulesQuery.projectFields(headers);
+            if(creationDates){
+                fields = RulesQuery.including(fields, RulesExtractor.CREATED_AT_FIELD);
+            }
+            return new RulesQuery(uri, language, everyDate ? null : from, fields);
+        }
+    }
+
+    public static void main(String[] args) throws Exception{
+        final RulesExtractor settings = new RulesExtractor();
+        final BatchRunner runner = new BatchRunner(settings);
+        final JCommander commander = new JCommander();
+        commander.addObject(runner);
+        commander.addObject(settings);
+        commander.parse(args);
+        if(settings.isHelp() || runner.jobsPath == null){
+            commander.usage();
+            System.exit(RulesExtractor.USAGE_EXIT_CODE);
+        }
+
+        final ExtractionMetrics metrics = ExtractionMetrics.get();
+        if(settings.getMetricsDirectory() != null){
+            metrics.enable();
+        }
+        final long started = System.nanoTime();
+        try{
+            runner.run(readJobs(runner.jobsPath));
+        }finally{
+            if(metrics.isEnabled()){
+                metrics.recordPhase(ExtractionMetrics.TOTAL_PHASE, System.nanoTime() - started);
+                metrics.write(settings.getMetricsDirectory());
+            }
+        }
+    }
+}
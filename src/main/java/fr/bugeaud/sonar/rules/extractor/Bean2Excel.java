@@ -5,12 +5,234 @@
  */
 package fr.bugeaud.sonar.rules.extractor;
 
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
 /**
- * Generate a tree from a bean
+ * Generate the columns of a table from a bean.
+ * The bean class is introspected once, each readable property is then compiled into
+ * a typed accessor so no reflection is involved when a cell value is extracted.
  * @author bugeaud at gmail dot com
  * @licence CeCILL 2.1
- * @todo start it :)
+ * @param <T> the bean type
  */
-public class Bean2Excel {
-    
+public class Bean2Excel<T> {
+
+    protected static final Logger LOGGER = Logger.getLogger(Bean2Excel.class.getName());
+
+    private static final ConcurrentMap<Class<?>, Bean2Excel<?>> ENGINES = new ConcurrentHashMap<>();
+
+    private final Class<T> beanClass;
+
+    private final Map<String, Column<T>> columns;
+
+    private final Set<String> reportedHeaders = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Give the engine of a bean class, it is only built on the first call
+     * @param <T> the bean type
+     * @param beanClass the bean class
+     * @return the engine for the bean class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Bean2Excel<T> of(Class<T> beanClass){
+        return (Bean2Excel<T>) ENGINES.computeIfAbsent(beanClass, Bean2Excel::new);
+    }
+
+    private Bean2Excel(Class<T> beanClass){
+        this.beanClass = beanClass;
+        this.columns = Collections.unmodifiableMap(compile(beanClass));
+    }
+
+    /**
+     * Compile an accessor for every readable property of the class
+     * @param <T> the bean type
+     * @param beanClass the bean class
+     * @return the columns indexed by property name
+     */
+    static <T> Map<String, Column<T>> compile(Class<T> beanClass){
+        final PropertyDescriptor[] properties;
+        try{
+            properties = Introspector.getBeanInfo(beanClass, Object.class).getPropertyDescriptors();
+        }catch(IntrospectionException e){
+            throw new IllegalArgumentException(String.format("Unable to introspect %s", beanClass.getName()), e);
+        }
+
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final Map<String, Column<T>> compiled = new LinkedHashMap<>();
+        for(PropertyDescriptor property : properties){
+            final Method readMethod = property.getReadMethod();
+            if(readMethod == null){
+                continue;
+            }
+            try{
+                final MethodHandle getter = lookup.unreflect(readMethod);
+                compiled.put(property.getDisplayName(), new Column<>(property.getDisplayName(), readMethod.getReturnType(), accessor(lookup, getter)));
+            }catch(IllegalAccessException e){
+                LOGGER.warning(String.format("Property %s of %s is not accessible, it will be ignored", property.getDisplayName(), beanClass.getName()));
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Turn a getter into a Function, thru a lambda when possible or else an adapted MethodHandle
+     * @param <T> the bean type
+     * @param lookup the lookup that resolved the getter
+     * @param getter the getter handle
+     * @return the accessor
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Function<T, Object> accessor(MethodHandles.Lookup lookup, MethodHandle getter){
+        try{
+            final CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    getter, getter.type().wrap());
+            return (Function<T, Object>) site.getTarget().invoke();
+        }catch(LambdaConversionException e){
+            // Fallback on the handle itself, still no reflection on each call
+            final MethodHandle generic = getter.asType(MethodType.methodType(Object.class, Object.class));
+            return bean -> {
+                try{
+                    return generic.invokeExact((Object) bean);
+                }catch(RuntimeException | Error t){
+                    throw t;
+                }catch(Throwable t){
+                    throw new IllegalStateException(t);
+                }
+            };
+        }catch(RuntimeException | Error e){
+            throw e;
+        }catch(Throwable t){
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Select the columns matching the given headers, in the headers order.
+     * A header used twice is only displayed once. A header that does not match any property
+     * is reported once for this engine and is kept as an empty column.
+     * @param headers the required headers
+     * @return the selected columns
+     */
+    public List<Column<T>> select(List<String> headers){
+        final List<Column<T>> selected = new ArrayList<>();
+        if(headers == null){
+            return selected;
+        }
+        for(String header : new LinkedHashSet<>(headers)){
+            Column<T> column = columns.get(header);
+            if(column == null){
+                if(reportedHeaders.add(header)){
+                    LOGGER.warning(String.format("Unknown header %s for %s, the column will be empty. Known headers are %s", header, beanClass.getSimpleName(), columns.keySet()));
+                }
+                column = new Column<>(header, Object.class, bean -> null);
+            }
+            selected.add(column);
+        }
+        return selected;
+    }
+
+    /**
+     * Create a column that is not a property of the bean, such as a value computed from other sources
+     * @param <T> the bean type
+     * @param name the header name
+     * @param type the type of the values
+     * @param getter the function giving the value for a bean
+     * @return the column
+     */
+    public static <T> Column<T> derived(String name, Class<?> type, Function<T, Object> getter){
+        return new Column<>(name, type, getter);
+    }
+
+    /**
+     * @param name the property name
+     * @return the column of the property, null if there is no such property
+     */
+    public Column<T> getColumn(String name){
+        return columns.get(name);
+    }
+
+    /**
+     * @return the names of all the readable properties
+     */
+    public Set<String> getPropertyNames(){
+        return columns.keySet();
+    }
+
+    /**
+     * @return the bean class
+     */
+    public Class<T> getBeanClass(){
+        return beanClass;
+    }
+
+    /**
+     * A compiled column of a bean
+     * @param <T> the bean type
+     */
+    public static final class Column<T> {
+
+        private final String name;
+        private final Class<?> type;
+        private final boolean date;
+        private final Function<T, Object> getter;
+
+        Column(String name, Class<?> type, Function<T, Object> getter){
+            this.name = name;
+            this.type = type;
+            this.date = Date.class.isAssignableFrom(type);
+            this.getter = getter;
+        }
+
+        /**
+         * @param bean the bean to read
+         * @return the value of the column for the bean
+         */
+        public Object get(T bean){
+            return getter.apply(bean);
+        }
+
+        /**
+         * @return the header name
+         */
+        public String getName(){
+            return name;
+        }
+
+        /**
+         * @return the declared type of the property
+         */
+        public Class<?> getType(){
+            return type;
+        }
+
+        /**
+         * @return true when the property is declared as a date
+         */
+        public boolean isDate(){
+            return date;
+        }
+    }
 }
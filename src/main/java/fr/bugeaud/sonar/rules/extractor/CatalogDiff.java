@@ -0,0 +1,236 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compare two catalogs of rules by key.
+ * The rules of the former catalog are indexed by key with the values of their displayed columns only, along with a
+ * fingerprint of the compared ones, so a former catalog fetched or read whole does not keep its descriptions around.
+ * The rules of the latter catalog are then compared one by one as they come : a missing key is an added rule,
+ * a different fingerprint a changed one, and the keys never matched are the removed rules.
+ * Only the changed rules are compared column by column, so the whole diff is a single linear pass.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class CatalogDiff {
+
+    /**
+     * What happened to a rule of the latter catalog
+     */
+    public enum Status {
+        ADDED, CHANGED, UNCHANGED
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final List<Bean2Excel.Column<SonarRule>> columns;
+    private final int[] compared;
+    private final Map<String, Indexed> before = new LinkedHashMap<>();
+    private final Map<String, String> differences = new HashMap<>();
+    private int beforeCount = 0;
+    private int added = 0;
+    private int changed = 0;
+    private int unchanged = 0;
+
+    /**
+     * @param headers the displayed headers, the rules are compared on them except the instance specific id
+     */
+    public CatalogDiff(List<String> headers){
+        this.columns = RuleColumns.select(headers);
+        final List<Integer> indexes = new ArrayList<>(columns.size());
+        for(int index = 0; index < columns.size(); index++){
+            if(!RulesFederation.IGNORED_HEADER.equals(columns.get(index).getName())){
+                indexes.add(index);
+            }
+        }
+        this.compared = indexes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Index a rule of the former catalog, only the values of its displayed columns are kept
+     * @param rule the rule
+     */
+    public void addBefore(SonarRule rule){
+        final Object[] values = new Object[columns.size()];
+        for(int index = 0; index < values.length; index++){
+            values[index] = columns.get(index).get(rule);
+        }
+        before.put(rule.getKey(), new Indexed(values, fingerprint(values)));
+        beforeCount++;
+    }
+
+    /**
+     * Compare a rule of the latter catalog with the former one
+     * @param rule the rule
+     * @return what happened to the rule
+     */
+    public Status compareAfter(SonarRule rule){
+        final Indexed former = before.remove(rule.getKey());
+        if(former == null){
+            added++;
+            return Status.ADDED;
+        }
+        final Object[] values = new Object[columns.size()];
+        for(int index : compared){
+            values[index] = columns.get(index).get(rule);
+        }
+        if(former.fingerprint == fingerprint(values)){
+            unchanged++;
+            return Status.UNCHANGED;
+        }
+        // A fingerprint collision is unlikely but possible, the columns tell for sure
+        final String description = describe(former.values, values);
+        if(description == null){
+            unchanged++;
+            return Status.UNCHANGED;
+        }
+        differences.put(rule.getKey(), description);
+        changed++;
+        return Status.CHANGED;
+    }
+
+    /**
+     * @param key the key of a changed rule
+     * @return the changed columns with their former and latter values, null if the rule has not changed
+     */
+    public String getDifferences(String key){
+        return differences.get(key);
+    }
+
+    /**
+     * The former rules are not kept, the removed ones only hold their key
+     * @return the rules of the former catalog not found in the latter, in the former order, to be written with the removed columns
+     * @see #getRemovedColumns()
+     */
+    public Collection<SonarRule> getRemoved(){
+        final List<SonarRule> removed = new ArrayList<>(before.size());
+        for(String key : before.keySet()){
+            final SonarRule rule = new SonarRule();
+            rule.setKey(key);
+            removed.add(rule);
+        }
+        return removed;
+    }
+
+    /**
+     * @return the displayed columns of the removed rules, their values being the indexed ones of the former catalog
+     */
+    public List<Bean2Excel.Column<SonarRule>> getRemovedColumns(){
+        final List<Bean2Excel.Column<SonarRule>> removed = new ArrayList<>(columns.size());
+        for(int index = 0; index < columns.size(); index++){
+            final int column = index;
+            removed.add(Bean2Excel.derived(columns.get(index).getName(), columns.get(index).getType(), rule -> before.get(rule.getKey()).values[column]));
+        }
+        return removed;
+    }
+
+    /**
+     * Describe the compared columns that differ
+     * @param former the displayed values of the former rule
+     * @param latter the displayed values of the latter rule, at least the compared ones
+     * @return the changed columns with their former and latter values, null when they are all equal
+     */
+    String describe(Object[] former, Object[] latter){
+        final StringBuilder description = new StringBuilder();
+        for(int index : compared){
+            final Object was = former[index];
+            final Object is = latter[index];
+            if(!Objects.equals(was, is)){
+                if(description.length() > 0){
+                    description.append("; ");
+                }
+                description.append(columns.get(index).getName()).append(": ").append(was).append(" -> ").append(is);
+            }
+        }
+        return description.length() > 0 ? description.toString() : null;
+    }
+
+    /**
+     * Hash the compared columns of a rule with 64 bits FNV-1a
+     * @param values the displayed values of the rule, at least the compared ones
+     * @return the fingerprint of the rule
+     */
+    long fingerprint(Object[] values){
+        long hash = FNV_OFFSET;
+        for(int index : compared){
+            final Object value = values[index];
+            if(value == null){
+                hash = (hash ^ 0xff) * FNV_PRIME;
+            }else if(value instanceof Date){
+                hash = mix(hash, ((Date) value).getTime());
+            }else{
+                final String text = value.toString();
+                for(int index = 0; index < text.length(); index++){
+                    hash = (hash ^ text.charAt(index)) * FNV_PRIME;
+                }
+            }
+            // Separate the columns, so moving a value from one column to the next changes the hash
+            hash = (hash ^ 0x1f) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value){
+        for(int shift = 0; shift < Long.SIZE; shift += Byte.SIZE){
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the number of rules in the former catalog
+     */
+    public int getBeforeCount(){
+        return beforeCount;
+    }
+
+    /**
+     * @return the number of rules added so far
+     */
+    public int getAddedCount(){
+        return added;
+    }
+
+    /**
+     * @return the number of rules changed so far
+     */
+    public int getChangedCount(){
+        return changed;
+    }
+
+    /**
+     * @return the number of rules unchanged so far
+     */
+    public int getUnchangedCount(){
+        return unchanged;
+    }
+
+    /**
+     * @return the number of rules of the former catalog not matched so far
+     */
+    public int getRemovedCount(){
+        return before.size();
+    }
+
+    /**
+     * The displayed values of a rule of the former catalog
+     */
+    static class Indexed {
+        private final Object[] values;
+        private final long fingerprint;
+
+        Indexed(Object[] values, long fingerprint){
+            this.values = values;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
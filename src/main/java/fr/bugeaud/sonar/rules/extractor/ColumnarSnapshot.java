@@ -0,0 +1,676 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.beust.jcommander.ParameterException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * A compact, column oriented snapshot of a rules catalog, to archive the extractions and query them offline.
+ * Each rule property is a column : the low cardinality ones, such as the severity, type, repository or language,
+ * are stored as codes into a dictionary of their distinct values along with the rows holding each value,
+ * the others as text, numbers or JSON. The file is memory mapped when read, a query only touches the columns
+ * it filters on and only the matching rows are bound back to rules.
+ * <p>
+ * The file starts with a header (magic, version, row and column counts) and a directory giving the name,
+ * kind and offset of each column. All the numbers are big endian. The whole file is addressed with int offsets,
+ * so a snapshot is at most 2 GB.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class ColumnarSnapshot {
+
+    public static final String SUFFIX = ".rules";
+
+    static final int MAGIC = 0x53524353;
+    static final int VERSION = 1;
+
+    /**
+     * The column kinds : dictionary codes with the rows of each code, UTF-8 text, 64-bit integers and JSON for the rest
+     */
+    static final byte DICTIONARY = 1;
+    static final byte TEXT = 2;
+    static final byte NUMBER = 3;
+    static final byte JSON = 4;
+
+    /**
+     * The properties dictionary encoded and indexed when all their values are text
+     */
+    static final Set<String> DICTIONARY_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "severity", "type", "repo", "lang", "langName", "status", "scope")));
+
+    protected static final Logger LOGGER = Logger.getLogger(ColumnarSnapshot.class.getName());
+
+    private final ByteBuffer buffer;
+    private final int rows;
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+
+    private ColumnarSnapshot(ByteBuffer buffer) throws IOException{
+        this.buffer = buffer;
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION){
+            throw new IOException("Not a columnar rules snapshot");
+        }
+        this.rows = buffer.getInt(8);
+        final int count = buffer.getInt(12);
+        int position = 16;
+        for(int index = 0; index < count; index++){
+            final int length = buffer.getShort(position);
+            final String name = decode(position + 2, length);
+            position += 2 + length;
+            final byte kind = buffer.get(position);
+            final long offset = buffer.getLong(position + 1);
+            if(offset < 0 || offset >= buffer.limit()){
+                throw new IOException(String.format("The column %s is out of the snapshot, it is corrupted", name));
+            }
+            position += 9;
+            columns.put(name, new Column(name, kind, (int) offset));
+        }
+    }
+
+    /**
+     * Map a snapshot file
+     * @param path the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file could not be mapped, is over 2 GB or is not a columnar snapshot
+     */
+    public static ColumnarSnapshot open(Path path) throws IOException{
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IOException(String.format("The snapshot %s is over the 2 GB limit of the columnar snapshots", path));
+            }
+            // The mapping outlives the channel
+            return new ColumnarSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @param path a snapshot file
+     * @return true when the file name is the one of a columnar snapshot
+     */
+    public static boolean isColumnar(Path path){
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(SUFFIX);
+    }
+
+    /**
+     * @return the number of rules in the snapshot
+     */
+    public int getRowCount(){
+        return rows;
+    }
+
+    /**
+     * @return the names of the columns, which are the rule properties
+     */
+    public Set<String> getColumnNames(){
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    /**
+     * @return the names of the columns a filter may use, the lists and objects held as JSON can not be filtered
+     */
+    public Set<String> getFilterableColumnNames(){
+        final Set<String> names = new LinkedHashSet<>();
+        for(Column column : columns.values()){
+            if(column.kind != JSON){
+                names.add(column.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Select the rows matching every filter. A filter matches the rows holding any of its values.
+     * The dictionary columns are answered from their index, the text and number columns are scanned.
+     * @param filters the accepted values by column name
+     * @return the matching rows
+     * @throws ParameterException if a column is unknown or can not be filtered, or a value does not fit its column
+     */
+    public BitSet select(Map<String, Set<String>> filters){
+        final BitSet selected = new BitSet(rows);
+        selected.set(0, rows);
+        for(Map.Entry<String, Set<String>> filter : filters.entrySet()){
+            final Column column = columns.get(filter.getKey());
+            if(column == null || column.kind == JSON){
+                throw new ParameterException(String.format("%s column %s, the filters may only use one of %s", column == null ? "Unknown" : "Unfilterable",
+                        filter.getKey(), getFilterableColumnNames()));
+            }
+            selected.and(column.matches(filter.getValue()));
+            if(selected.isEmpty()){
+                break;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Bind a row back to a rule
+     * @param row the row
+     * @return the rule
+     * @throws IOException if the row could not be bound
+     */
+    public SonarRule read(int row) throws IOException{
+        final ObjectNode node = RulesPageDecoder.MAPPER.createObjectNode();
+        for(Column column : columns.values()){
+            column.put(node, row);
+        }
+        return RulesPageDecoder.MAPPER.treeToValue(node, SonarRule.class);
+    }
+
+    /**
+     * Bind the selected rows back to rules
+     * @param selected the rows
+     * @param consumer the consumer receiving each rule in the snapshot order
+     * @return the number of rules read
+     * @throws IOException if a row could not be bound
+     */
+    public int read(BitSet selected, Consumer<SonarRule> consumer) throws IOException{
+        int count = 0;
+        for(int row = selected.nextSetBit(0); row >= 0 && row < rows; row = selected.nextSetBit(row + 1)){
+            consumer.accept(read(row));
+            count++;
+        }
+        return count;
+    }
+
+    private String decode(int position, int length){
+        final byte[] bytes = new byte[length];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean isNull(int nulls, int row){
+        return (buffer.getLong(nulls + (row >>> 6) * 8) & (1L << row)) != 0;
+    }
+
+    private static int bitmapBytes(int rows){
+        return ((rows + 63) >>> 6) * 8;
+    }
+
+    /**
+     * A mapped column, the dictionary is decoded when the snapshot is opened
+     */
+    private class Column {
+        private final String name;
+        private final byte kind;
+        private final int offset;
+
+        private String[] dictionary;
+        private Map<String, Integer> codes;
+        private int codesAt;
+        private int postingOffsetsAt;
+        private int postingsAt;
+
+        Column(String name, byte kind, int offset){
+            this.name = name;
+            this.kind = kind;
+            this.offset = offset;
+            if(kind == DICTIONARY){
+                final int size = buffer.getInt(offset);
+                final int valueOffsetsAt = offset + 4;
+                final int valuesAt = valueOffsetsAt + (size + 1) * 4;
+                dictionary = new String[size];
+                codes = new HashMap<>();
+                for(int code = 0; code < size; code++){
+                    final int start = buffer.getInt(valueOffsetsAt + code * 4);
+                    dictionary[code] = decode(valuesAt + start, buffer.getInt(valueOffsetsAt + (code + 1) * 4) - start);
+                    codes.put(dictionary[code], code);
+                }
+                codesAt = valuesAt + buffer.getInt(valueOffsetsAt + size * 4);
+                postingOffsetsAt = codesAt + rows * 4;
+                postingsAt = postingOffsetsAt + (size + 1) * 4;
+            }
+        }
+
+        BitSet matches(Set<String> values){
+            final BitSet matches = new BitSet(rows);
+            switch(kind){
+                case DICTIONARY:
+                    for(String value : values){
+                        final Integer code = codes.get(value);
+                        if(code == null){
+                            continue;
+                        }
+                        final int end = buffer.getInt(postingOffsetsAt + (code + 1) * 4);
+                        for(int posting = buffer.getInt(postingOffsetsAt + code * 4); posting < end; posting++){
+                            matches.set(buffer.getInt(postingsAt + posting * 4));
+                        }
+                    }
+                    break;
+                case TEXT:
+                    for(int row = 0; row < rows; row++){
+                        final String value = text(row);
+                        if(value != null && values.contains(value)){
+                            matches.set(row);
+                        }
+                    }
+                    break;
+                case NUMBER:
+                    final Set<Long> numbers = new HashSet<>();
+                    for(String value : values){
+                        try{
+                            numbers.add(Long.valueOf(value));
+                        }catch(NumberFormatException e){
+                            throw new ParameterException(String.format("The column %s holds whole numbers, %s is not one", name, value));
+                        }
+                    }
+                    for(int row = 0; row < rows; row++){
+                        if(!isNull(offset, row) && numbers.contains(number(row))){
+                            matches.set(row);
+                        }
+                    }
+                    break;
+                default:
+                    throw new ParameterException(String.format("The column %s holds lists or objects, it can not be filtered", name));
+            }
+            return matches;
+        }
+
+        void put(ObjectNode node, int row) throws IOException{
+            switch(kind){
+                case DICTIONARY:
+                    final int code = buffer.getInt(codesAt + row * 4);
+                    if(code >= 0){
+                        node.put(name, dictionary[code]);
+                    }
+                    break;
+                case TEXT:
+                    final String value = text(row);
+                    if(value != null){
+                        node.put(name, value);
+                    }
+                    break;
+                case NUMBER:
+                    if(!isNull(offset, row)){
+                        node.put(name, number(row));
+                    }
+                    break;
+                default:
+                    if(!isNull(offset, row)){
+                        final ByteBuffer view = bytes(row);
+                        final byte[] json = new byte[view.remaining()];
+                        view.get(json);
+                        node.set(name, RulesPageDecoder.MAPPER.readTree(json));
+                    }
+            }
+        }
+
+        private String text(int row){
+            if(isNull(offset, row)){
+                return null;
+            }
+            final ByteBuffer view = bytes(row);
+            return decode(view.position(), view.remaining());
+        }
+
+        private ByteBuffer bytes(int row){
+            final int offsetsAt = offset + bitmapBytes(rows);
+            final int bytesAt = offsetsAt + (rows + 1) * 4;
+            final int start = buffer.getInt(offsetsAt + row * 4);
+            final ByteBuffer view = buffer.duplicate();
+            view.position(bytesAt + start);
+            view.limit(bytesAt + buffer.getInt(offsetsAt + (row + 1) * 4));
+            return view;
+        }
+
+        private long number(int row){
+            return buffer.getLong(offset + bitmapBytes(rows) + row * 8);
+        }
+    }
+
+    /**
+     * Write a columnar snapshot. Each rule is split into its columns as it is accepted, the values of the text
+     * and JSON columns going to a temporary file per column, so only a few numbers per row and column stay in memory.
+     * The columns are put together once the snapshot is closed, the file only appears then.
+     */
+    public static class Writer implements RuleSink {
+
+        private final Path path;
+        private final Path directory;
+        private final Map<String, ColumnWriter> columns = new LinkedHashMap<>();
+        private int rows = 0;
+        private boolean closed = false;
+
+        /**
+         * @param path the snapshot file
+         * @throws IOException if the directory of the snapshot could not be created
+         */
+        public Writer(Path path) throws IOException{
+            this.path = path;
+            this.directory = path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+        }
+
+        @Override
+        public void accept(SonarRule rule) throws IOException{
+            // The whole rule is bound, a compacted description is inflated in the tree only
+            final JsonNode tree = RuleStore.EXPANDING_MAPPER.valueToTree(rule);
+            for(Iterator<String> names = tree.fieldNames(); names.hasNext();){
+                final String name = names.next();
+                if(!columns.containsKey(name)){
+                    // A column first met now is null for the former rules
+                    final ColumnWriter column = new ColumnWriter(name, Files.createTempFile(directory, "snapshot-column-", ".tmp"));
+                    columns.put(name, column);
+                    for(int row = 0; row < rows; row++){
+                        column.add(null);
+                    }
+                }
+            }
+            for(ColumnWriter column : columns.values()){
+                column.add(tree.get(column.name));
+            }
+            rows++;
+        }
+
+        @Override
+        public void close() throws IOException{
+            if(closed){
+                return;
+            }
+            closed = true;
+            try{
+                long size = 16;
+                final List<byte[]> names8 = new ArrayList<>(columns.size());
+                for(ColumnWriter column : columns.values()){
+                    column.finish();
+                    final byte[] name8 = column.name.getBytes(StandardCharsets.UTF_8);
+                    names8.add(name8);
+                    size += 2 + name8.length + 9;
+                }
+                final long headerSize = size;
+                for(ColumnWriter column : columns.values()){
+                    size += column.size(rows);
+                }
+                if(size > Integer.MAX_VALUE){
+                    // The snapshot is mapped as a single buffer and addressed with int offsets
+                    throw new IOException(String.format("The columnar snapshot %s would take %s bytes, over the 2 GB limit of the format, use a JSON snapshot instead", path, size));
+                }
+
+                AtomicFile.write(path, "snapshot-", output -> {
+                    try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 1 << 16))){
+                        out.writeInt(MAGIC);
+                        out.writeInt(VERSION);
+                        out.writeInt(rows);
+                        out.writeInt(columns.size());
+                        long offset = headerSize;
+                        int index = 0;
+                        for(ColumnWriter column : columns.values()){
+                            out.writeShort(names8.get(index).length);
+                            out.write(names8.get(index));
+                            out.writeByte(column.kind());
+                            out.writeLong(offset);
+                            offset += column.size(rows);
+                            index++;
+                        }
+                        for(ColumnWriter column : columns.values()){
+                            column.writeTo(out, rows);
+                        }
+                    }
+                    return null;
+                });
+            }finally{
+                for(ColumnWriter column : columns.values()){
+                    column.delete();
+                }
+                columns.clear();
+            }
+        }
+    }
+
+    /**
+     * A column being written. The null rows are kept as a bitmap and the end of each value in the column file as an int.
+     * While every value is a whole number, the numbers are kept as well, and while every value of a dictionary field
+     * is text, the dictionary codes are, so the kind of the column is only chosen once it is complete.
+     */
+    private static class ColumnWriter {
+        private final String name;
+        private Path data;
+        private OutputStream output;
+        private long length = 0;
+        private int rows = 0;
+        private long[] nulls = new long[16];
+        private int[] ends = new int[1024];
+        private long[] numbers = new long[1024];
+        private Map<String, Integer> codes;
+        private int[] rowCodes;
+        private int nonNull = 0;
+        private int dictionaryBytes = 0;
+        private final BitSet textual = new BitSet();
+        private boolean text = true;
+
+        ColumnWriter(String name, Path data) throws IOException{
+            this.name = name;
+            this.data = data;
+            this.output = new BufferedOutputStream(Files.newOutputStream(data), 1 << 13);
+            if(DICTIONARY_FIELDS.contains(name)){
+                codes = new LinkedHashMap<>();
+                rowCodes = new int[1024];
+            }
+        }
+
+        void add(JsonNode node) throws IOException{
+            final JsonNode value = node == null || node.isNull() ? null : node;
+            if(rows == ends.length){
+                ends = Arrays.copyOf(ends, rows * 2);
+                if(numbers != null){
+                    numbers = Arrays.copyOf(numbers, rows * 2);
+                }
+                if(rowCodes != null){
+                    rowCodes = Arrays.copyOf(rowCodes, rows * 2);
+                }
+            }
+            if((rows >>> 6) == nulls.length){
+                nulls = Arrays.copyOf(nulls, nulls.length * 2);
+            }
+            if(value == null){
+                nulls[rows >>> 6] |= 1L << rows;
+                ends[rows] = (int) length;
+                if(rowCodes != null){
+                    rowCodes[rows] = -1;
+                }
+                rows++;
+                return;
+            }
+
+            text &= value.isTextual();
+            if(numbers != null && !value.isIntegralNumber()){
+                // Not a number column anymore
+                numbers = null;
+            }
+            if(rowCodes != null && !text){
+                rowCodes = null;
+                codes = null;
+            }
+            // Text as UTF-8, anything else as JSON, the mixed columns are turned to JSON once complete
+            final byte[] bytes = value.isTextual() ? value.textValue().getBytes(StandardCharsets.UTF_8) : RulesPageDecoder.MAPPER.writeValueAsBytes(value);
+            if(value.isTextual()){
+                textual.set(rows);
+            }
+            output.write(bytes);
+            length += bytes.length;
+            checkLength();
+            ends[rows] = (int) length;
+            if(numbers != null){
+                numbers[rows] = value.longValue();
+            }
+            if(rowCodes != null){
+                final Integer code = codes.get(value.textValue());
+                if(code == null){
+                    rowCodes[rows] = codes.size();
+                    codes.put(value.textValue(), codes.size());
+                    dictionaryBytes += bytes.length;
+                }else{
+                    rowCodes[rows] = code;
+                }
+            }
+            nonNull++;
+            rows++;
+        }
+
+        private void checkLength() throws IOException{
+            if(length > Integer.MAX_VALUE){
+                throw new IOException(String.format("The column %s takes over 2 GB, over the limit of the columnar snapshots", name));
+            }
+        }
+
+        byte kind(){
+            if(text){
+                return codes != null ? DICTIONARY : TEXT;
+            }
+            return numbers != null ? NUMBER : JSON;
+        }
+
+        /**
+         * Close the column file, turning the text values of a mixed column to JSON
+         */
+        void finish() throws IOException{
+            output.close();
+            if(kind() != JSON || textual.isEmpty()){
+                return;
+            }
+            final Path json = Files.createTempFile(data.getParent(), "snapshot-column-", ".tmp");
+            try(InputStream in = new BufferedInputStream(Files.newInputStream(data), 1 << 13);
+                OutputStream out = new BufferedOutputStream(Files.newOutputStream(json), 1 << 13)){
+                length = 0;
+                int start = 0;
+                for(int row = 0; row < rows; row++){
+                    final byte[] bytes = new byte[ends[row] - start];
+                    int read = 0;
+                    while(read < bytes.length){
+                        final int count = in.read(bytes, read, bytes.length - read);
+                        if(count < 0){
+                            throw new IOException(String.format("The column file of %s is truncated", name));
+                        }
+                        read += count;
+                    }
+                    start = ends[row];
+                    final byte[] value = textual.get(row) ? RulesPageDecoder.MAPPER.writeValueAsBytes(new String(bytes, StandardCharsets.UTF_8)) : bytes;
+                    out.write(value);
+                    length += value.length;
+                    checkLength();
+                    ends[row] = (int) length;
+                }
+            }finally{
+                Files.deleteIfExists(data);
+                data = json;
+            }
+        }
+
+        /**
+         * @param rows the number of rows of the snapshot
+         * @return the number of bytes of the column in the snapshot
+         */
+        long size(int rows){
+            switch(kind()){
+                case DICTIONARY:
+                    return 4 + (codes.size() + 1) * 4L + dictionaryBytes + rows * 4L + (codes.size() + 1) * 4L + nonNull * 4L;
+                case NUMBER:
+                    return bitmapBytes(rows) + rows * 8L;
+                default:
+                    return bitmapBytes(rows) + (rows + 1) * 4L + length;
+            }
+        }
+
+        void writeTo(DataOutputStream out, int rows) throws IOException{
+            if(kind() == DICTIONARY){
+                writeDictionary(out, rows);
+                return;
+            }
+            for(int word = 0; word < bitmapBytes(rows) / 8; word++){
+                out.writeLong(nulls[word]);
+            }
+            if(kind() == NUMBER){
+                for(int row = 0; row < rows; row++){
+                    out.writeLong(isNull(row) ? 0L : numbers[row]);
+                }
+                return;
+            }
+            out.writeInt(0);
+            for(int row = 0; row < rows; row++){
+                out.writeInt(ends[row]);
+            }
+            Files.copy(data, out);
+        }
+
+        private boolean isNull(int row){
+            return (nulls[row >>> 6] & (1L << row)) != 0;
+        }
+
+        private void writeDictionary(DataOutputStream out, int rows) throws IOException{
+            out.writeInt(codes.size());
+            int offset = 0;
+            out.writeInt(offset);
+            for(String value : codes.keySet()){
+                offset += value.getBytes(StandardCharsets.UTF_8).length;
+                out.writeInt(offset);
+            }
+            for(String value : codes.keySet()){
+                out.write(value.getBytes(StandardCharsets.UTF_8));
+            }
+            for(int row = 0; row < rows; row++){
+                out.writeInt(rowCodes[row]);
+            }
+
+            // The rows of each code, in row order, so a filter never scans the codes
+            final int[] postingOffsets = new int[codes.size() + 1];
+            for(int row = 0; row < rows; row++){
+                if(rowCodes[row] >= 0){
+                    postingOffsets[rowCodes[row] + 1]++;
+                }
+            }
+            for(int code = 0; code < codes.size(); code++){
+                postingOffsets[code + 1] += postingOffsets[code];
+            }
+            final int[] postings = new int[postingOffsets[codes.size()]];
+            final int[] next = Arrays.copyOf(postingOffsets, codes.size());
+            for(int row = 0; row < rows; row++){
+                if(rowCodes[row] >= 0){
+                    postings[next[rowCodes[row]]++] = row;
+                }
+            }
+            for(int postingOffset : postingOffsets){
+                out.writeInt(postingOffset);
+            }
+            for(int posting : postings){
+                out.writeInt(posting);
+            }
+        }
+
+        void delete(){
+            try{
+                output.close();
+                Files.deleteIfExists(data);
+            }catch(IOException e){
+                LOGGER.warning(String.format("The column file %s could not be deleted : %s", data, e));
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Write rules as RFC 4180 comma separated values, a header line followed by one line per rule.
+ * Fields are only quoted when they hold a comma, a quote or a line break, dates are written as ISO-8601 instants.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class CsvRuleSink implements RuleSink {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String LINE_END = "\r\n";
+
+    private final List<Bean2Excel.Column<SonarRule>> columns;
+    private final Writer writer;
+    private int rowCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a sink and write the header line
+     * @param columns the displayed columns
+     * @param output the target stream, it is flushed but not closed with the sink
+     * @throws IOException if the header line could not be written
+     */
+    public CsvRuleSink(List<Bean2Excel.Column<SonarRule>> columns, OutputStream output) throws IOException{
+        this.columns = ExtractionMetrics.get().timed(columns);
+        this.writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+        for(int index = 0; index < columns.size(); index++){
+            if(index > 0){
+                writer.write(',');
+            }
+            writeField(columns.get(index).getName());
+        }
+        writer.write(LINE_END);
+    }
+
+    @Override
+    public void accept(SonarRule rule) throws IOException{
+        for(int index = 0; index < columns.size(); index++){
+            if(index > 0){
+                writer.write(',');
+            }
+            final Object value = columns.get(index).get(rule);
+            if(value instanceof Date){
+                writer.write(RuleSink.formatDate((Date) value));
+            }else if(value != null){
+                writeField(value.toString());
+            }
+        }
+        writer.write(LINE_END);
+        rowCount++;
+    }
+
+    /**
+     * Write a field, quoted and with its quotes doubled when needed
+     * @param field the field value
+     * @throws IOException if the field could not be written
+     */
+    void writeField(String field) throws IOException{
+        if(!needsQuotes(field)){
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        int start = 0;
+        for(int index = 0; index < field.length(); index++){
+            if(field.charAt(index) == '"'){
+                // Write the run up to and including the quote, then double it
+                writer.write(field, start, index + 1 - start);
+                writer.write('"');
+                start = index + 1;
+            }
+        }
+        writer.write(field, start, field.length() - start);
+        writer.write('"');
+    }
+
+    static boolean needsQuotes(String field){
+        for(int index = 0; index < field.length(); index++){
+            final char c = field.charAt(index);
+            if(c == ',' || c == '"' || c == '\n' || c == '\r'){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of rules written so far
+     */
+    public int getRowCount(){
+        return rowCount;
+    }
+
+    @Override
+    public void close() throws IOException{
+        if(closed){
+            return;
+        }
+        closed = true;
+        // The target stream belongs to the caller
+        writer.flush();
+    }
+}
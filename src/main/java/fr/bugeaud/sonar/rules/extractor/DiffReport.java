@@ -0,0 +1,113 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Write the change report of two catalogs : a summary sheet, then the added, changed and removed rules.
+ * The rules of the latter catalog are written as they are compared, the removed ones once it has ended.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class DiffReport implements RuleSink {
+
+    public static final String SUMMARY_SHEET_NAME = "Summary";
+    public static final String ADDED_SHEET_NAME = "Added";
+    public static final String CHANGED_SHEET_NAME = "Changed";
+    public static final String REMOVED_SHEET_NAME = "Removed";
+    public static final String CHANGES_HEADER = "changes";
+
+    private final Workbook workbook;
+    private final OutputStream output;
+    private final CatalogDiff diff;
+    private final String beforeLabel;
+    private final String afterLabel;
+    private final Sheet summary;
+    private final ExcelRuleSheet addedSheet;
+    private final ExcelRuleSheet changedSheet;
+    private final ExcelRuleSheet removedSheet;
+    private boolean closed = false;
+
+    /**
+     * Create the report sheets
+     * @param workbook the workbook to fill, it is closed with the report
+     * @param headers the displayed headers
+     * @param diff the diff, already holding the former catalog
+     * @param beforeLabel the label of the former catalog
+     * @param afterLabel the label of the latter catalog
+     * @param output the stream the workbook is written to on close
+     */
+    public DiffReport(Workbook workbook, List<String> headers, CatalogDiff diff, String beforeLabel, String afterLabel, OutputStream output){
+        this.workbook = workbook;
+        this.output = output;
+        this.diff = diff;
+        this.beforeLabel = beforeLabel;
+        this.afterLabel = afterLabel;
+
+        final CellStyle dateStyle = ExcelRuleSink.createDateStyle(workbook);
+        final List<Bean2Excel.Column<SonarRule>> columns = RuleColumns.select(headers);
+        final List<Bean2Excel.Column<SonarRule>> changedColumns = new ArrayList<>(columns);
+        changedColumns.add(Bean2Excel.derived(CHANGES_HEADER, String.class, rule -> diff.getDifferences(rule.getKey())));
+
+        // The summary comes first, it is filled once the counts are known
+        this.summary = workbook.createSheet(SUMMARY_SHEET_NAME);
+        this.addedSheet = new ExcelRuleSheet(columns, workbook, ADDED_SHEET_NAME, dateStyle);
+        this.changedSheet = new ExcelRuleSheet(changedColumns, workbook, CHANGED_SHEET_NAME, dateStyle);
+        this.removedSheet = new ExcelRuleSheet(diff.getRemovedColumns(), workbook, REMOVED_SHEET_NAME, dateStyle);
+    }
+
+    @Override
+    public void accept(SonarRule rule){
+        switch(diff.compareAfter(rule)){
+            case ADDED:
+                addedSheet.accept(rule);
+                break;
+            case CHANGED:
+                changedSheet.accept(rule);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void close() throws IOException{
+        if(closed){
+            return;
+        }
+        closed = true;
+        try{
+            for(SonarRule rule : diff.getRemoved()){
+                removedSheet.accept(rule);
+            }
+            int rowIndex = RulesExtractor.HEADER_ROW_NUM;
+            summaryRow(rowIndex++, "before", beforeLabel);
+            summaryRow(rowIndex++, "after", afterLabel);
+            summaryRow(rowIndex++, "rules before", diff.getBeforeCount());
+            summaryRow(rowIndex++, "added", diff.getAddedCount());
+            summaryRow(rowIndex++, "changed", diff.getChangedCount());
+            summaryRow(rowIndex++, "removed", diff.getRemovedCount());
+            summaryRow(rowIndex++, "unchanged", diff.getUnchangedCount());
+            ExcelRuleSink.writeWorkbook(workbook, output);
+        }finally{
+            workbook.close();
+        }
+    }
+
+    private void summaryRow(int rowIndex, String label, Object value){
+        final Row row = summary.createRow(rowIndex);
+        row.createCell(0).setCellValue(label);
+        if(value instanceof Number){
+            row.createCell(1).setCellValue(((Number) value).doubleValue());
+        }else{
+            row.createCell(1).setCellValue(String.valueOf(value));
+        }
+    }
+}
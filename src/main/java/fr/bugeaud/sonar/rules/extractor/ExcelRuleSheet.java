@@ -0,0 +1,146 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.util.Date;
+import java.util.List;
+import org.apache.poi.hssf.util.AreaReference;
+import org.apache.poi.hssf.util.CellReference;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFTable;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTable;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTableColumn;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTableColumns;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTableStyleInfo;
+
+/**
+ * A sheet of a workbook holding one row per rule below a header row.
+ * Several of them can share the same workbook.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class ExcelRuleSheet {
+
+    private final Workbook workbook;
+    private final Sheet sheet;
+    private final List<Bean2Excel.Column<SonarRule>> columns;
+    private final CellStyle dateStyle;
+    private int rowIndex = RulesExtractor.HEADER_ROW_NUM;
+
+    /**
+     * Create the sheet and its header row
+     * @param workbook the owning workbook
+     * @param sheetName the sheet name, it must be a valid and unique sheet name
+     * @param headers the displayed headers
+     * @param dateStyle the style applied on dates
+     */
+    public ExcelRuleSheet(Workbook workbook, String sheetName, List<String> headers, CellStyle dateStyle){
+        // The accessors are compiled once per bean class, unknown headers give empty columns, the release one is derived
+        this(RuleColumns.select(headers), workbook, sheetName, dateStyle);
+    }
+
+    /**
+     * Create the sheet and its header row
+     * @param columns the displayed columns
+     * @param workbook the owning workbook
+     * @param sheetName the sheet name, it must be a valid and unique sheet name
+     * @param dateStyle the style applied on dates
+     */
+    public ExcelRuleSheet(List<Bean2Excel.Column<SonarRule>> columns, Workbook workbook, String sheetName, CellStyle dateStyle){
+        this.workbook = workbook;
+        this.dateStyle = dateStyle;
+        // Only wrapped when the metrics are collected
+        this.columns = ExtractionMetrics.get().timed(columns);
+        this.sheet = workbook.createSheet(sheetName);
+
+        final Row header = sheet.createRow(rowIndex++);
+        int columnIndex = 0;
+        for(Bean2Excel.Column<SonarRule> column : columns){
+            header.createCell(columnIndex++).setCellValue(column.getName());
+        }
+    }
+
+    /**
+     * Write a rule in the next row
+     * @param rule the rule to write
+     */
+    public void accept(SonarRule rule){
+        int columnIndex = 0;
+        final Row currentRow = sheet.createRow(rowIndex++);
+        for(Bean2Excel.Column<SonarRule> column : columns){
+            final Object value = column.get(rule);
+            final Cell cell = currentRow.createCell(columnIndex++);
+            if(value instanceof Date){
+                cell.setCellStyle(dateStyle);
+                cell.setCellValue((Date)value);
+            }else{
+                // A cell holds at most 32767 characters, a longer text is cut rather than failing the whole workbook
+                cell.setCellValue(value != null ? HtmlText.truncate(value.toString(), HtmlText.MAX_CELL_LENGTH) : null);
+            }
+        }
+    }
+
+    /**
+     * @return the number of rules written so far
+     */
+    public int getRowCount(){
+        return rowIndex - RulesExtractor.HEADER_ROW_NUM - 1;
+    }
+
+    /**
+     * Format the written rows as a table
+     * @param name the table name, unique in the workbook
+     * @param id the table id, unique in the workbook
+     */
+    public void createTable(String name, long id){
+        final int rowCount = getRowCount();
+        //Create, the table part lives on the XSSF sheet even when the rows are streamed
+        final XSSFTable xssfTable = toXSSFSheet(workbook, sheet).createTable();
+        xssfTable.setDisplayName(name);
+        final CTTable cttable = xssfTable.getCTTable();
+
+        //Style configurations
+        final CTTableStyleInfo style = cttable.addNewTableStyleInfo();
+        style.setName("TableStyleMedium2");
+        style.setShowColumnStripes(false);
+        style.setShowRowStripes(true);
+
+        //Set which area the table should be placed in
+        final AreaReference reference = new AreaReference(new CellReference(0, 0),
+                new CellReference(rowCount,columns.size()-1));
+        cttable.setRef(reference.formatAsString());
+        cttable.setId(id);
+        cttable.setName(name);
+        cttable.setTotalsRowCount(rowCount+1);
+        //cttable.setTotalsRowCount(1);
+        cttable.setHeaderRowCount(1);
+
+        final CTTableColumns tableColumns = cttable.addNewTableColumns();
+        tableColumns.setCount(columns.size());
+
+        int columnIndex = 1;
+        for(Bean2Excel.Column<SonarRule> v : columns){
+            CTTableColumn column = tableColumns.addNewTableColumn();
+            column.setName(v.getName());
+            column.setId(columnIndex++);
+        }
+    }
+
+    /**
+     * Give the XSSF sheet backing a sheet, so table parts can be set even in streaming mode
+     * @param workbook the workbook owning the sheet
+     * @param sheet the sheet
+     * @return the underlying XSSF sheet
+     */
+    static XSSFSheet toXSSFSheet(Workbook workbook, Sheet sheet){
+        if(workbook instanceof SXSSFWorkbook){
+            return ((SXSSFWorkbook)workbook).getXSSFWorkbook().getSheet(sheet.getSheetName());
+        }
+        return (XSSFSheet) sheet;
+    }
+}
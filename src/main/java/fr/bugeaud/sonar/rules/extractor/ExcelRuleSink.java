@@ -0,0 +1,192 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Write rules as the rows of a workbook sheet, optionally formatted as an Excel table.
+ * Rows are created as the rules come, the table area is only set on close once the row count is known.
+ * The extractor leaves every POI class to this sink, ExcelRuleSheet and DiffReport, so a run writing a flat format never
+ * loads them, and a sink given a row window only creates its workbook with the first row.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class ExcelRuleSink implements RuleSink {
+
+    public static final String SHEET_NAME = "Rules";
+
+    private final List<Bean2Excel.Column<SonarRule>> columns;
+    private final int rowWindow;
+    private final OutputStream output;
+    private final boolean table;
+    private Workbook workbook;
+    private ExcelRuleSheet sheet;
+    private boolean closed = false;
+
+    /**
+     * Create a sink writing a single sheet
+     * @param workbook the workbook to fill, it is closed with the sink
+     * @param headers the displayed headers
+     * @param output the stream the workbook is written to on close
+     * @param table true to format the rows as an Excel table
+     */
+    public ExcelRuleSink(Workbook workbook, List<String> headers, OutputStream output, boolean table){
+        this(RuleColumns.select(headers), workbook, output, table);
+    }
+
+    /**
+     * Create a sink writing a single sheet
+     * @param columns the displayed columns
+     * @param workbook the workbook to fill, it is closed with the sink
+     * @param output the stream the workbook is written to on close
+     * @param table true to format the rows as an Excel table
+     */
+    public ExcelRuleSink(List<Bean2Excel.Column<SonarRule>> columns, Workbook workbook, OutputStream output, boolean table){
+        this(columns, RulesExtractor.IN_MEMORY_ROW_WINDOW, output, table);
+        open(workbook);
+    }
+
+    /**
+     * Create a sink writing a single sheet, its workbook being created with the first row or on close.
+     * A pipelined extraction thus fetches its first page while POI is still unloaded.
+     * @param columns the displayed columns
+     * @param rowWindow the number of rows kept in memory, RulesExtractor.IN_MEMORY_ROW_WINDOW or less to build the whole workbook in memory
+     * @param output the stream the workbook is written to on close
+     * @param table true to format the rows as an Excel table
+     */
+    public ExcelRuleSink(List<Bean2Excel.Column<SonarRule>> columns, int rowWindow, OutputStream output, boolean table){
+        this.columns = columns;
+        this.rowWindow = rowWindow;
+        this.output = output;
+        this.table = table;
+    }
+
+    private void open(Workbook workbook){
+        this.workbook = workbook;
+        this.sheet = new ExcelRuleSheet(columns, workbook, SHEET_NAME, createDateStyle(workbook));
+    }
+
+    private ExcelRuleSheet sheet(){
+        if(sheet == null){
+            open(createWorkbook(rowWindow));
+        }
+        return sheet;
+    }
+
+    @Override
+    public void accept(SonarRule rule){
+        sheet().accept(rule);
+    }
+
+    /**
+     * @return the number of rules written so far
+     */
+    public int getRowCount(){
+        return sheet != null ? sheet.getRowCount() : 0;
+    }
+
+    @Override
+    public void close() throws IOException{
+        if(closed){
+            return;
+        }
+        closed = true;
+        final ExcelRuleSheet sheet = sheet();
+        try{
+            if(table){
+                sheet.createTable(SHEET_NAME, 1);
+            }
+            writeWorkbook(workbook, output);
+        }finally{
+            workbook.close();
+        }
+    }
+
+    /**
+     * Write the workbook and release the temporary files of a streamed workbook
+     * @param workbook the workbook to write
+     * @param output the target stream
+     * @throws IOException if the workbook could not be written
+     */
+    static void writeWorkbook(Workbook workbook, OutputStream output) throws IOException{
+        final long started = System.nanoTime();
+        try{
+            workbook.write(output);
+            ExtractionMetrics.get().recordPhase(ExtractionMetrics.WORKBOOK_WRITE_PHASE, System.nanoTime() - started);
+        }finally{
+            if(workbook instanceof SXSSFWorkbook){
+                ((SXSSFWorkbook)workbook).dispose();
+            }
+        }
+    }
+
+    /**
+     * Create the workbook to fill, either fully in memory or streamed thru a bounded window of rows.
+     * @param rowWindow the number of rows kept in memory, RulesExtractor.IN_MEMORY_ROW_WINDOW or less to build the whole workbook in memory
+     * @return a new workbook
+     */
+    static Workbook createWorkbook(int rowWindow){
+        if(rowWindow > RulesExtractor.IN_MEMORY_ROW_WINDOW){
+            final SXSSFWorkbook workbook = new SXSSFWorkbook(rowWindow);
+            workbook.setCompressTempFiles(true);
+            return workbook;
+        }
+        return new XSSFWorkbook();
+    }
+
+    /**
+     * Write a workbook with a summary sheet of the rule counts followed by one sheet per group
+     * @param groups the rules by group, in the sheets order
+     * @param groupHeader the header of the group names in the summary sheet
+     * @param columns the displayed columns
+     * @param rowWindow the number of rows kept in memory, RulesExtractor.IN_MEMORY_ROW_WINDOW or less to build the whole workbook in memory
+     * @param output the target stream
+     * @throws IOException if the workbook could not be written
+     */
+    static void writeGroups(Map<String, List<SonarRule>> groups, String groupHeader, List<Bean2Excel.Column<SonarRule>> columns, int rowWindow, OutputStream output) throws IOException{
+        try(Workbook workbook = createWorkbook(rowWindow)){
+            final CellStyle dateStyle = createDateStyle(workbook);
+            
+            final Sheet summary = workbook.createSheet(RulesExtractor.SUMMARY_SHEET_NAME);
+            int rowIndex = RulesExtractor.HEADER_ROW_NUM;
+            final Row header = summary.createRow(rowIndex++);
+            header.createCell(0).setCellValue(groupHeader);
+            header.createCell(1).setCellValue("rules");
+            
+            int total = 0;
+            for(Map.Entry<String, List<SonarRule>> entry : groups.entrySet()){
+                final ExcelRuleSheet sheet = new ExcelRuleSheet(columns, workbook, WorkbookUtil.createSafeSheetName(entry.getKey()), dateStyle);
+                for(SonarRule rule : entry.getValue()){
+                    sheet.accept(rule);
+                }
+                
+                final Row count = summary.createRow(rowIndex++);
+                count.createCell(0).setCellValue(entry.getKey());
+                count.createCell(1).setCellValue(sheet.getRowCount());
+                total += sheet.getRowCount();
+            }
+            
+            final Row totalRow = summary.createRow(rowIndex++);
+            totalRow.createCell(0).setCellValue("total");
+            totalRow.createCell(1).setCellValue(total);
+            
+            writeWorkbook(workbook, output);
+        }
+    }
+
+    static CellStyle createDateStyle(Workbook workbook){
+        final CellStyle cellStyle = workbook.createCellStyle();
+        cellStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+        return cellStyle;
+    }
+}
@@ -0,0 +1,293 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Collect the timings of a run : search pages, decoding, cell extraction, workbook writing and heap.
+ * The metrics are only collected once enabled, otherwise recording costs a volatile read.
+ * The report is written as JSON and as a Prometheus text file for the node exporter textfile collector.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class ExtractionMetrics {
+
+    protected static final Logger LOGGER = Logger.getLogger(ExtractionMetrics.class.getName());
+
+    public static final String FETCH_PHASE = "fetch";
+    public static final String WRITE_PHASE = "write";
+    public static final String PIPELINE_PHASE = "pipeline";
+    public static final String WORKBOOK_WRITE_PHASE = "workbookWrite";
+    public static final String TOTAL_PHASE = "total";
+
+    public static final String JSON_REPORT = "rules-extractor-metrics.json";
+    public static final String PROMETHEUS_REPORT = "rules-extractor.prom";
+
+    private static final String PREFIX = "rules_extractor_";
+
+    /**
+     * The period of the used heap samples
+     */
+    public static final long HEAP_SAMPLE_MILLIS = 10;
+
+    private static final ExtractionMetrics INSTANCE = new ExtractionMetrics();
+
+    private volatile boolean enabled = false;
+
+    private final List<PageMetric> pages = new ArrayList<>();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> columnNanos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> phaseNanos = new ConcurrentHashMap<>();
+    private final AtomicLong heapPeak = new AtomicLong();
+    private ScheduledExecutorService heapSampler;
+
+    /**
+     * @return the metrics of this run
+     */
+    public static ExtractionMetrics get(){
+        return INSTANCE;
+    }
+
+    /**
+     * Start collecting the metrics, the used heap being sampled from then on
+     */
+    public synchronized void enable(){
+        enabled = true;
+        if(heapSampler == null){
+            heapSampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "rules-heap-sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            heapSampler.scheduleAtFixedRate(() -> sampleHeap(memory), 0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sampleHeap(MemoryMXBean memory){
+        heapPeak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+    }
+
+    /**
+     * @return true when the metrics are collected
+     */
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * Record a fetched search page
+     * @param page the page number
+     * @param latencyNanos the time the successful HTTP exchange took
+     * @param bytes the size of the payload as received, compressed or not
+     * @param decodeNanos the time spent decoding the payload, including the rule consumer
+     * @param rules the number of rules in the page
+     */
+    public void recordPage(int page, long latencyNanos, long bytes, long decodeNanos, int rules){
+        if(!enabled){
+            return;
+        }
+        this.decodeNanos.add(decodeNanos);
+        synchronized(pages){
+            pages.add(new PageMetric(page, latencyNanos, bytes, decodeNanos, rules));
+        }
+    }
+
+    /**
+     * Record a search page about to be tried again
+     */
+    public void recordRetry(){
+        if(!enabled){
+            return;
+        }
+        retries.increment();
+    }
+
+    /**
+     * Add some time to a phase
+     * @param phase the phase name
+     * @param nanos the time spent
+     */
+    public void recordPhase(String phase, long nanos){
+        if(!enabled){
+            return;
+        }
+        phaseNanos.computeIfAbsent(phase, p -> new LongAdder()).add(nanos);
+    }
+
+    /**
+     * Wrap the columns so the time spent extracting each of them is recorded, when the metrics are enabled
+     * @param <T> the bean type
+     * @param columns the columns
+     * @return the timed columns, or the same columns when disabled
+     */
+    public <T> List<Bean2Excel.Column<T>> timed(List<Bean2Excel.Column<T>> columns){
+        if(!enabled){
+            return columns;
+        }
+        final List<Bean2Excel.Column<T>> timed = new ArrayList<>(columns.size());
+        for(Bean2Excel.Column<T> column : columns){
+            final LongAdder cost = columnNanos.computeIfAbsent(column.getName(), c -> new LongAdder());
+            timed.add(Bean2Excel.derived(column.getName(), column.getType(), bean -> {
+                final long start = System.nanoTime();
+                final Object value = column.get(bean);
+                cost.add(System.nanoTime() - start);
+                return value;
+            }));
+        }
+        return timed;
+    }
+
+    /**
+     * The pools reach their own peaks at different times, so the peak of the whole heap is sampled instead of
+     * adding them up. A peak shorter than the sampling period may be missed.
+     * @return the highest used heap sampled since the metrics were enabled
+     */
+    public long peakHeap(){
+        sampleHeap(ManagementFactory.getMemoryMXBean());
+        return heapPeak.get();
+    }
+
+    /**
+     * Build the report of the run
+     * @return the report, ready to be serialised as JSON
+     */
+    public Map<String, Object> report(){
+        final List<PageMetric> snapshot;
+        synchronized(pages){
+            snapshot = new ArrayList<>(pages);
+        }
+        long latency = 0;
+        long maxLatency = 0;
+        long bytes = 0;
+        long rules = 0;
+        for(PageMetric page : snapshot){
+            latency += page.latencyNanos;
+            maxLatency = Math.max(maxLatency, page.latencyNanos);
+            bytes += page.bytes;
+            rules += page.rules;
+        }
+        final long fetchNanos = phase(FETCH_PHASE) + phase(PIPELINE_PHASE);
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("pages", snapshot.size());
+        report.put("pageRetries", retries.sum());
+        report.put("pageLatencySeconds", seconds(latency));
+        report.put("pageLatencyMaxSeconds", seconds(maxLatency));
+        report.put("payloadBytes", bytes);
+        report.put("decodeSeconds", seconds(decodeNanos.sum()));
+        report.put("rulesFetched", rules);
+        report.put("rulesPerSecond", fetchNanos > 0 ? rules / seconds(fetchNanos) : 0d);
+        report.put("heapPeakBytes", peakHeap());
+
+        final Map<String, Double> phases = new LinkedHashMap<>();
+        phaseNanos.forEach((phase, nanos) -> phases.put(phase, seconds(nanos.sum())));
+        report.put("phaseSeconds", phases);
+
+        final Map<String, Double> columns = new LinkedHashMap<>();
+        columnNanos.forEach((column, nanos) -> columns.put(column, seconds(nanos.sum())));
+        report.put("columnExtractionSeconds", columns);
+
+        final List<Map<String, Object>> pageDetails = new ArrayList<>(snapshot.size());
+        for(PageMetric page : snapshot){
+            final Map<String, Object> detail = new LinkedHashMap<>();
+            detail.put("page", page.page);
+            detail.put("latencySeconds", seconds(page.latencyNanos));
+            detail.put("bytes", page.bytes);
+            detail.put("decodeSeconds", seconds(page.decodeNanos));
+            detail.put("rules", page.rules);
+            pageDetails.add(detail);
+        }
+        report.put("pageDetails", pageDetails);
+        return report;
+    }
+
+    /**
+     * Write the JSON and Prometheus reports in a directory, and log a summary
+     * @param directory the target directory, created if missing
+     * @throws IOException if a report could not be written
+     */
+    public void write(Path directory) throws IOException{
+        final Map<String, Object> report = report();
+        Files.createDirectories(directory);
+        RulesPageDecoder.MAPPER.writerWithDefaultPrettyPrinter().writeValue(directory.resolve(JSON_REPORT).toFile(), report);
+        try(Writer out = Files.newBufferedWriter(directory.resolve(PROMETHEUS_REPORT), StandardCharsets.UTF_8)){
+            writePrometheus(out, report);
+        }
+        LOGGER.info(String.format("Fetched %s rules in %s pages (%s bytes) at %.1f rules/s, peak heap %s bytes",
+                report.get("rulesFetched"), report.get("pages"), report.get("payloadBytes"), report.get("rulesPerSecond"), report.get("heapPeakBytes")));
+    }
+
+    @SuppressWarnings("unchecked")
+    static void writePrometheus(Writer out, Map<String, Object> report) throws IOException{
+        metric(out, "pages_total", "counter", "Search pages fetched", report.get("pages"));
+        metric(out, "page_retries_total", "counter", "Search pages tried again after a failure", report.get("pageRetries"));
+        metric(out, "page_latency_seconds_total", "counter", "Time spent on the HTTP exchanges of the search pages", report.get("pageLatencySeconds"));
+        metric(out, "page_latency_max_seconds", "gauge", "Slowest HTTP exchange of a search page", report.get("pageLatencyMaxSeconds"));
+        metric(out, "payload_bytes_total", "counter", "Bytes of the search pages", report.get("payloadBytes"));
+        metric(out, "decode_seconds_total", "counter", "Time spent decoding the search pages", report.get("decodeSeconds"));
+        metric(out, "rules_fetched_total", "counter", "Rules decoded from the search pages", report.get("rulesFetched"));
+        metric(out, "rules_per_second", "gauge", "Rules fetched per second of fetch", report.get("rulesPerSecond"));
+        metric(out, "heap_peak_bytes", "gauge", "Peak used heap of the run, sampled every " + HEAP_SAMPLE_MILLIS + " ms", report.get("heapPeakBytes"));
+
+        out.write(String.format("# HELP %sphase_seconds Time spent in each phase of the run%n# TYPE %sphase_seconds gauge%n", PREFIX, PREFIX));
+        for(Map.Entry<String, Double> phase : ((Map<String, Double>) report.get("phaseSeconds")).entrySet()){
+            out.write(String.format(Locale.ROOT, "%sphase_seconds{phase=\"%s\"} %s%n", PREFIX, phase.getKey(), phase.getValue()));
+        }
+        out.write(String.format("# HELP %scolumn_extraction_seconds_total Time spent extracting the cells of each column%n# TYPE %scolumn_extraction_seconds_total counter%n", PREFIX, PREFIX));
+        for(Map.Entry<String, Double> column : ((Map<String, Double>) report.get("columnExtractionSeconds")).entrySet()){
+            out.write(String.format(Locale.ROOT, "%scolumn_extraction_seconds_total{column=\"%s\"} %s%n", PREFIX, column.getKey(), column.getValue()));
+        }
+    }
+
+    private static void metric(Writer out, String name, String type, String help, Object value) throws IOException{
+        out.write(String.format(Locale.ROOT, "# HELP %s%s %s%n# TYPE %s%s %s%n%s%s %s%n", PREFIX, name, help, PREFIX, name, type, PREFIX, name, value));
+    }
+
+    private long phase(String phase){
+        final LongAdder nanos = phaseNanos.get(phase);
+        return nanos != null ? nanos.sum() : 0L;
+    }
+
+    private static double seconds(long nanos){
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * The metrics of a single search page
+     */
+    static class PageMetric {
+        private final int page;
+        private final long latencyNanos;
+        private final long bytes;
+        private final long decodeNanos;
+        private final int rules;
+
+        PageMetric(int page, long latencyNanos, long bytes, long decodeNanos, int rules){
+            this.page = page;
+            this.latencyNanos = latencyNanos;
+            this.bytes = bytes;
+            this.decodeNanos = decodeNanos;
+            this.rules = rules;
+        }
+    }
+}
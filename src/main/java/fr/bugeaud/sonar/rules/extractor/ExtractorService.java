@@ -0,0 +1,389 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keep the extractor resident and serve extractions over a local HTTP endpoint.
+ * The HTTP connection pools and the fetched catalogs stay warm between requests : a catalog is fetched
+ * whole once per search URI and languages, then each request filters it by date and writes its own columns
+ * and format straight into the response. Identical requests arriving while a catalog is fetched wait for
+ * that single fetch instead of starting their own.
+ * <p>
+ * GET /extract takes the extraction options as query parameters without their dash :
+ * l (languages), d (date), e (headers, repeated or comma separated), f (format), s (search URI) and w (row window).
+ * The service itself takes the extractor options, such as -c, -adaptive, -cache or -retries, which apply to every fetch.
+ * A request may only ask for one of the search URIs the service was started with, the first one by default.
+ * The catalogs older than -cacheMaxAge are evicted, their spilled rules being deleted once no request reads them.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class ExtractorService implements AutoCloseable {
+
+    protected static final Logger LOGGER = Logger.getLogger(ExtractorService.class.getName());
+
+    public static final String EXTRACT_PATH = "/extract";
+
+    public static final int DEFAULT_PORT = 8080;
+
+    public static final int DEFAULT_THREADS = 8;
+
+    /**
+     * The period of the eviction of the stale catalogs
+     */
+    public static final long EVICTION_PERIOD_MINUTES = 1;
+
+    /**
+     * The extractor options a request may give, the others belong to the service
+     */
+    static final Set<String> REQUEST_OPTIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("l", "d", "e", "f", "s", "w")));
+
+    @Parameter(names = "-port", description = "Port of the local endpoint, 0 picks a free one")
+    private int port = DEFAULT_PORT;
+
+    @Parameter(names = "-threads", description = "Number of requests served at the same time")
+    private int threads = DEFAULT_THREADS;
+
+    private final RulesExtractor settings;
+    private final ConcurrentMap<String, CompletableFuture<Catalog>> catalogs = new ConcurrentHashMap<>();
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private ScheduledExecutorService evictor;
+
+    /**
+     * @param settings the extractor options applied on every fetch
+     */
+    public ExtractorService(RulesExtractor settings){
+        this.settings = settings;
+    }
+
+    /**
+     * @param port the port of the local endpoint, 0 picks a free one
+     * @return this service
+     */
+    public ExtractorService port(int port){
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * Start listening on the loopback interface
+     * @return this service
+     * @throws IOException if the server could not be bound
+     */
+    public ExtractorService start() throws IOException{
+        settings.configureClient(settings.getMaxConcurrency() * Math.max(1, threads));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(EXTRACT_PATH, this::handle);
+        executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        server.setExecutor(executor);
+        server.start();
+        // A resident service only holds the catalogs it may still serve
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "extractor-service-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictStale, EVICTION_PERIOD_MINUTES, EVICTION_PERIOD_MINUTES, TimeUnit.MINUTES);
+        return this;
+    }
+
+    /**
+     * @return the URI of the extraction endpoint
+     */
+    public String getExtractUri(){
+        return String.format("http://localhost:%s%s", server.getAddress().getPort(), EXTRACT_PATH);
+    }
+
+    @Override
+    public void close(){
+        if(server != null){
+            server.stop(0);
+            executor.shutdownNow();
+            evictor.shutdownNow();
+            server = null;
+        }
+    }
+
+    void handle(HttpExchange exchange) throws IOException{
+        try{
+            if(!"GET".equalsIgnoreCase(exchange.getRequestMethod())){
+                respond(exchange, 405, "Only GET is supported");
+                return;
+            }
+            final RulesExtractor request;
+            try{
+                request = parseRequest(exchange.getRequestURI().getRawQuery());
+            }catch(RuntimeException e){
+                // Unknown options as well as invalid values, such as a malformed date
+                respond(exchange, 400, e.getMessage() != null ? e.getMessage() : String.format("Invalid request : %s", e));
+                return;
+            }
+
+            final Catalog catalog;
+            try{
+                catalog = getCatalog(request.getSearchUri(), request.getLanguage());
+            }catch(Exception e){
+                LOGGER.log(Level.WARNING, String.format("Extraction of %s from %s has failed", request.getLanguage(), request.getSearchUri()), e);
+                respond(exchange, 502, String.format("The rules could not be fetched : %s", e.getMessage()));
+                return;
+            }
+            // Filtered from the spool itself, so the dated rules are spooled in the same budget
+            final List<SonarRule> rules = RulesCache.filterFrom(catalog.fetched, request.getLocalDate());
+            try{
+                serve(exchange, request, rules);
+            }finally{
+                if(rules != catalog.fetched){
+                    RulesSpool.release(Collections.singletonList(rules));
+                }
+                catalog.release();
+            }
+        }catch(IOException | RuntimeException e){
+            // The response has already started, the client sees a truncated body
+            LOGGER.log(Level.WARNING, "Serving an extraction has failed", e);
+        }finally{
+            exchange.close();
+        }
+    }
+
+    private static void serve(HttpExchange exchange, RulesExtractor request, List<SonarRule> rules) throws IOException{
+        final OutputFormat format = request.getFormat();
+        exchange.getResponseHeaders().set("Content-Type", format.getContentType());
+        exchange.getResponseHeaders().set("Content-Disposition", String.format("attachment; filename=\"%s%s%s\"",
+                RulesExtractor.DEFAULT_FILE_PREFIX, String.join("-", RulesExtractor.splitLanguages(request.getLanguage())), format.getExtension()));
+        // Chunked, the rules are written as they are generated
+        exchange.sendResponseHeaders(200, 0);
+        try(OutputStream out = exchange.getResponseBody();
+            RuleSink sink = request.createSink(out)){
+            for(SonarRule rule : rules){
+                sink.accept(rule);
+            }
+        }
+        LOGGER.info(String.format("Served %s %s rules as %s", rules.size(), request.getLanguage(), format));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException{
+        final byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain;charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try(OutputStream out = exchange.getResponseBody()){
+            out.write(body);
+        }
+    }
+
+    /**
+     * Read the options of a request, its search URI being the first one of the service when it gives none
+     * @param rawQuery the raw query string
+     * @return an extractor holding the options of the request
+     * @throws ParameterException if an option is unknown or invalid, or the search URI is not one of the service
+     */
+    RulesExtractor parseRequest(String rawQuery){
+        final List<String> args = new ArrayList<>();
+        boolean searchUri = false;
+        if(rawQuery != null && !rawQuery.isEmpty()){
+            for(String parameter : rawQuery.split("&")){
+                final int equal = parameter.indexOf('=');
+                final String name = decode(equal >= 0 ? parameter.substring(0, equal) : parameter);
+                if(!REQUEST_OPTIONS.contains(name)){
+                    throw new ParameterException(String.format("Unknown parameter %s, expected one of %s", name, REQUEST_OPTIONS));
+                }
+                searchUri |= "s".equals(name);
+                args.add("-" + name);
+                args.add(equal >= 0 ? decode(parameter.substring(equal + 1)) : "");
+            }
+        }
+        if(!searchUri){
+            args.add("-s");
+            args.add(settings.getSearchUri());
+        }
+        final RulesExtractor request = new RulesExtractor();
+        new JCommander(request, args.toArray(new String[args.size()]));
+        // The service only fetches the instances it was started for
+        if(request.getSearchUris().size() != 1 || !settings.getSearchUris().contains(request.getSearchUri())){
+            throw new ParameterException(String.format("The search URI %s is not served, expected one of %s", String.join(",", request.getSearchUris()), settings.getSearchUris()));
+        }
+        request.tryInitDefaultHeaders();
+        return request;
+    }
+
+    private static String decode(String value){
+        try{
+            return URLDecoder.decode(value, "UTF-8");
+        }catch(UnsupportedEncodingException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Give the whole catalog of a search URI and languages, fetching it when it is missing or stale.
+     * Requests for a catalog being fetched wait for that fetch.
+     * @param uri the SonarQube rule repository
+     * @param language the target language identifier(s)
+     * @return the rules of every date, to be released once read
+     * @throws Exception if the fetch has failed
+     */
+    Catalog getCatalog(String uri, String language) throws Exception{
+        final String key = uri + '\n' + language;
+        final Duration maxAge = getMaxAge();
+        while(true){
+            final CompletableFuture<Catalog> current = catalogs.get(key);
+            if(current != null && (!current.isDone() || isFresh(current, maxAge))){
+                final Catalog catalog = await(current);
+                if(catalog.acquire()){
+                    return catalog;
+                }
+                // Evicted meanwhile
+                continue;
+            }
+            final CompletableFuture<Catalog> fetch = new CompletableFuture<>();
+            final boolean owner = current == null ? catalogs.putIfAbsent(key, fetch) == null : catalogs.replace(key, current, fetch);
+            if(!owner){
+                // Another request has just started the fetch
+                continue;
+            }
+            if(current != null){
+                evict(current);
+            }
+            try{
+                // Whole rules of every date, so any headers and date can be served from them
+                final Catalog catalog = new Catalog(settings.fetchRules(new RulesQuery(uri, language, null)), Instant.now());
+                catalog.acquire();
+                fetch.complete(catalog);
+                return catalog;
+            }catch(Throwable e){
+                // Errors too, else the requests waiting for this fetch would wait forever
+                catalogs.remove(key, fetch);
+                fetch.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    private Duration getMaxAge(){
+        return Duration.ofHours(settings.getCacheMaxAge());
+    }
+
+    /**
+     * Forget the catalogs older than the cache max age, so the memory of a resident service stays bounded
+     */
+    void evictStale(){
+        final Duration maxAge = getMaxAge();
+        for(Map.Entry<String, CompletableFuture<Catalog>> entry : catalogs.entrySet()){
+            final CompletableFuture<Catalog> catalog = entry.getValue();
+            if(catalog.isDone() && !isFresh(catalog, maxAge) && catalogs.remove(entry.getKey(), catalog)){
+                evict(catalog);
+            }
+        }
+    }
+
+    private static void evict(CompletableFuture<Catalog> catalog){
+        if(catalog.isDone() && !catalog.isCompletedExceptionally()){
+            catalog.join().evict();
+        }
+    }
+
+    private static boolean isFresh(CompletableFuture<Catalog> catalog, Duration maxAge){
+        if(catalog.isCompletedExceptionally()){
+            return false;
+        }
+        return catalog.join().fetchedAt.plus(maxAge).isAfter(Instant.now());
+    }
+
+    private static Catalog await(CompletableFuture<Catalog> catalog) throws Exception{
+        try{
+            return catalog.get();
+        }catch(ExecutionException e){
+            if(e.getCause() instanceof Exception){
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * A fetched catalog, its spilled rules being deleted once it is evicted and no request reads it anymore
+     */
+    static class Catalog {
+        private final List<SonarRule> fetched;
+        private final Instant fetchedAt;
+        private int readers = 0;
+        private boolean evicted = false;
+
+        Catalog(List<SonarRule> rules, Instant fetchedAt){
+            this.fetched = rules;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /**
+         * @return true when the catalog can be read, false when it was evicted
+         */
+        synchronized boolean acquire(){
+            if(evicted){
+                return false;
+            }
+            readers++;
+            return true;
+        }
+
+        synchronized void release(){
+            readers--;
+            if(evicted && readers == 0){
+                RulesSpool.release(Collections.singletonList(fetched));
+            }
+        }
+
+        synchronized void evict(){
+            evicted = true;
+            if(readers == 0){
+                RulesSpool.release(Collections.singletonList(fetched));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception{
+        final RulesExtractor settings = new RulesExtractor();
+        final ExtractorService service = new ExtractorService(settings);
+        final JCommander commander = new JCommander();
+        commander.addObject(service);
+        commander.addObject(settings);
+        commander.parse(args);
+        if(settings.isHelp()){
+            commander.usage();
+            System.exit(RulesExtractor.USAGE_EXIT_CODE);
+        }
+        service.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(service::close, "extractor-service-shutdown"));
+        LOGGER.info(String.format("Serving extractions on %s", service.getExtractUri()));
+    }
+}
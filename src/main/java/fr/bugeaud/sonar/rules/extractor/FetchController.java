@@ -0,0 +1,186 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.util.logging.Logger;
+
+/**
+ * Decide how many search pages are in flight and how many rules each page holds.
+ * A fixed controller always asks for the largest pages with the given concurrency.
+ * An adaptive controller tunes both from what it observes, like AIMD congestion control :
+ * the requests in flight double at first then grow by one per round of answers, and are halved
+ * when the server throttles, fails or answers much slower than its best latency.
+ * Timeouts and gateway errors also shrink the pages, which grow back after a run of successes.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class FetchController {
+
+    protected static final Logger LOGGER = Logger.getLogger(FetchController.class.getName());
+
+    /**
+     * The page sizes an adaptive controller picks from, each of them is a multiple of the smallest one
+     * so a page of any size can start where the previous one has ended
+     */
+    static final int[] PAGE_SIZES = {RulesExtractor.PAGE_SIZE, 250, 100, 50};
+
+    /**
+     * A page answered this many times slower than the best latency seen for its size means the server is queuing
+     */
+    static final double LATENCY_TOLERANCE = 2.5d;
+
+    /**
+     * The number of successes in a row before trying larger pages again
+     */
+    static final int GROW_AFTER = 16;
+
+    private final boolean adaptive;
+    private final int maxConcurrency;
+    private final long[] baseLatency = new long[PAGE_SIZES.length];
+
+    private double window;
+    private double threshold;
+    private int sizeIndex = 0;
+    private int successes = 0;
+    private long lastDecrease = Long.MIN_VALUE;
+
+    private FetchController(boolean adaptive, int initialConcurrency, int maxConcurrency){
+        this.adaptive = adaptive;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.window = Math.max(1, Math.min(initialConcurrency, this.maxConcurrency));
+        this.threshold = this.maxConcurrency;
+    }
+
+    /**
+     * @param concurrency the number of pages in flight
+     * @return a controller always asking for the largest pages with the given concurrency
+     */
+    public static FetchController fixed(int concurrency){
+        return new FetchController(false, Math.max(1, concurrency), Math.max(1, concurrency));
+    }
+
+    /**
+     * @param maxConcurrency the most pages in flight
+     * @return a controller starting with a single page in flight and tuning itself from the answers
+     */
+    public static FetchController adaptive(int maxConcurrency){
+        return new FetchController(true, 1, maxConcurrency);
+    }
+
+    /**
+     * @return the most pages that may ever be in flight, to size the workers
+     */
+    public int getMaxConcurrency(){
+        return maxConcurrency;
+    }
+
+    /**
+     * @return the number of pages to keep in flight now
+     */
+    public synchronized int getConcurrency(){
+        return (int) window;
+    }
+
+    /**
+     * Give the size of the page starting at an offset, the largest allowed one the offset is a multiple of
+     * @param offset the number of rules before the page
+     * @return the page size
+     */
+    public synchronized int pageSizeAt(int offset){
+        for(int index = sizeIndex; index < PAGE_SIZES.length; index++){
+            if(offset % PAGE_SIZES[index] == 0){
+                return PAGE_SIZES[index];
+            }
+        }
+        return PAGE_SIZES[PAGE_SIZES.length - 1];
+    }
+
+    /**
+     * Record an answered page
+     * @param started the System.nanoTime() the request was sent at
+     * @param latencyNanos the time the answer took
+     * @param pageSize the size of the page
+     */
+    public synchronized void onSuccess(long started, long latencyNanos, int pageSize){
+        if(!adaptive){
+            return;
+        }
+        final int index = indexOf(pageSize);
+        final long base = baseLatency[index];
+        if(base == 0 || latencyNanos < base){
+            baseLatency[index] = latencyNanos;
+        }else{
+            // Let the best latency drift up, so a server that got slower for good is not seen as queuing forever
+            baseLatency[index] = base + (latencyNanos - base) / 32;
+            if(latencyNanos > LATENCY_TOLERANCE * base){
+                decrease(started, false, String.format("a page took %s ms", latencyNanos / 1_000_000));
+                return;
+            }
+        }
+
+        final int before = getConcurrency();
+        // Slow start up to the threshold, then one more page per round of answers
+        window = Math.min(maxConcurrency, window < threshold ? window + 1 : window + 1 / window);
+        boolean changed = getConcurrency() != before;
+        if(++successes >= GROW_AFTER && sizeIndex > 0){
+            sizeIndex--;
+            successes = 0;
+            changed = true;
+        }
+        if(changed){
+            log("growing");
+        }
+    }
+
+    /**
+     * Record a failed attempt of a page
+     * @param started the System.nanoTime() the request was sent at
+     * @param status the HTTP status, 0 for a network failure such as a timeout
+     */
+    public synchronized void onFailure(long started, int status){
+        if(!adaptive){
+            return;
+        }
+        // A throttling server wants fewer requests, a timing out one or its proxy may also want smaller answers
+        final boolean throttled = status == 429 || status == 503;
+        decrease(started, !throttled, status == 0 ? "a network failure" : String.format("HTTP status %s", status));
+    }
+
+    private void decrease(long started, boolean shrinkPages, String reason){
+        // The pages sent before the last decrease tell nothing new, once per round is enough
+        if(started < lastDecrease){
+            return;
+        }
+        lastDecrease = System.nanoTime();
+        successes = 0;
+        threshold = Math.max(1, window / 2);
+        window = threshold;
+        if(shrinkPages && sizeIndex < PAGE_SIZES.length - 1){
+            sizeIndex++;
+        }
+        log(String.format("backing off after %s", reason));
+    }
+
+    private void log(String reason){
+        LOGGER.info(String.format("Adaptive fetch %s : %s pages in flight, %s rules per page", reason, getConcurrency(), PAGE_SIZES[sizeIndex]));
+    }
+
+    private static int indexOf(int pageSize){
+        for(int index = 0; index < PAGE_SIZES.length; index++){
+            if(PAGE_SIZES[index] == pageSize){
+                return index;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return true when the controller tunes itself
+     */
+    public boolean isAdaptive(){
+        return adaptive;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return String.format("%s pages in flight, %s rules per page", getConcurrency(), PAGE_SIZES[sizeIndex]);
+    }
+}
@@ -0,0 +1,200 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Convert the HTML descriptions of the rules to plain text in a single pass, without building any DOM.
+ * Tags and comments are dropped, block tags become line breaks, list items get a dash, entities are decoded and
+ * whitespace is collapsed except within pre blocks. The conversion stops as soon as the text is long enough.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public final class HtmlText {
+
+    /**
+     * The most characters an Excel cell holds
+     */
+    public static final int MAX_CELL_LENGTH = 32767;
+
+    /**
+     * Appended to a truncated text
+     */
+    static final String ELLIPSIS = "\u2026";
+
+    private static final String COMMENT_START = "<!--";
+
+    private static final String COMMENT_END = "-->";
+
+    private static final Set<String> BLOCK_TAGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "p", "div", "br", "ul", "ol", "li", "pre", "table", "tr", "blockquote", "h1", "h2", "h3", "h4", "h5", "h6", "hr", "dl", "dt", "dd")));
+
+    private HtmlText(){
+    }
+
+    /**
+     * @param html an HTML fragment, might be null
+     * @return the plain text, null for a null fragment
+     */
+    public static String toText(String html){
+        return toText(html, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param html an HTML fragment, might be null
+     * @param maxLength the most characters of the text, a longer text is truncated and ends with an ellipsis
+     * @return the plain text, null for a null fragment
+     */
+    public static String toText(String html, int maxLength){
+        if(html == null){
+            return null;
+        }
+        final StringBuilder text = new StringBuilder(Math.min(html.length(), maxLength));
+        int preDepth = 0;
+        boolean space = false;
+        int index = 0;
+        // One more character than allowed tells the text has to be truncated
+        while(index < html.length() && text.length() <= maxLength){
+            final char c = html.charAt(index);
+            if(html.startsWith(COMMENT_START, index)){
+                // A comment may hold tags or angle brackets, it is dropped up to its own end
+                final int commentEnd = html.indexOf(COMMENT_END, index + COMMENT_START.length());
+                index = commentEnd < 0 ? html.length() : commentEnd + COMMENT_END.length();
+                continue;
+            }
+            final int end = c == '<' && isTagStart(html, index + 1) ? html.indexOf('>', index + 1) : -1;
+            if(end > 0){
+                final String tag = tagName(html, index + 1, end);
+                final boolean closing = html.charAt(index + 1) == '/';
+                if("pre".equals(tag)){
+                    preDepth = Math.max(0, preDepth + (closing ? -1 : 1));
+                }
+                if(BLOCK_TAGS.contains(tag) && text.length() > 0){
+                    // A blank line around paragraphs, titles and code, a line break otherwise
+                    final int breaks = "p".equals(tag) || "pre".equals(tag) || tag.matches("h[1-6]") ? 2 : 1;
+                    for(int newLines = trailingNewLines(text); newLines < breaks; newLines++){
+                        text.append('\n');
+                    }
+                    space = false;
+                }
+                if("li".equals(tag) && !closing){
+                    text.append("- ");
+                }
+                index = end + 1;
+                if("pre".equals(tag) && !closing && index < html.length() && html.charAt(index) == '\n'){
+                    // As in HTML, the line break right after the opening pre tag is not part of the content
+                    index++;
+                }
+                continue;
+            }
+
+            String value = null;
+            if(c == '&'){
+                final int semicolon = html.indexOf(';', index + 1);
+                if(semicolon > 0 && semicolon - index <= 10){
+                    value = entity(html.substring(index + 1, semicolon));
+                    if(value != null){
+                        index = semicolon;
+                    }
+                }
+            }
+            index++;
+            if(value == null){
+                if(preDepth == 0 && Character.isWhitespace(c)){
+                    // Collapsed, and dropped at the start of a line
+                    space = text.length() > 0 && trailingNewLines(text) == 0;
+                    continue;
+                }
+                value = String.valueOf(c);
+            }
+            if(space){
+                text.append(' ');
+                space = false;
+            }
+            text.append(value);
+        }
+
+        int length = text.length();
+        while(length > 0 && Character.isWhitespace(text.charAt(length - 1))){
+            length--;
+        }
+        text.setLength(length);
+        return truncate(text.toString(), maxLength);
+    }
+
+    /**
+     * Truncate a text, never splitting a surrogate pair, and mark the truncation with an ellipsis
+     * @param text the text, might be null
+     * @param maxLength the most characters of the result
+     * @return the text when short enough, else its beginning followed by an ellipsis
+     */
+    public static String truncate(String text, int maxLength){
+        if(text == null || text.length() <= maxLength){
+            return text;
+        }
+        int end = Math.max(0, maxLength - ELLIPSIS.length());
+        if(end > 0 && Character.isHighSurrogate(text.charAt(end - 1))){
+            end--;
+        }
+        return text.substring(0, end) + ELLIPSIS;
+    }
+
+    private static int trailingNewLines(StringBuilder text){
+        int count = 0;
+        while(count < text.length() && text.charAt(text.length() - 1 - count) == '\n'){
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean isTagStart(String html, int index){
+        if(index >= html.length()){
+            return false;
+        }
+        final char c = html.charAt(index);
+        return Character.isLetter(c) || c == '/' || c == '!';
+    }
+
+    private static String tagName(String html, int start, int end){
+        int from = start;
+        while(from < end && (html.charAt(from) == '/' || html.charAt(from) == '!')){
+            from++;
+        }
+        int to = from;
+        while(to < end && Character.isLetterOrDigit(html.charAt(to))){
+            to++;
+        }
+        return html.substring(from, to).toLowerCase(Locale.ROOT);
+    }
+
+    private static String entity(String name){
+        switch(name){
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            case "nbsp":
+                return " ";
+            default:
+                if(name.length() > 1 && name.charAt(0) == '#'){
+                    try{
+                        final int codePoint = name.charAt(1) == 'x' || name.charAt(1) == 'X'
+                                ? Integer.parseInt(name.substring(2), 16) : Integer.parseInt(name.substring(1));
+                        return Character.isValidCodePoint(codePoint) ? new String(Character.toChars(codePoint)) : null;
+                    }catch(NumberFormatException e){
+                        return null;
+                    }
+                }
+                return null;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Write rules as newline delimited JSON, one object per line keyed by the displayed headers.
+ * Lists and nested values keep their JSON structure, dates are written as ISO-8601 instants.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class NdjsonRuleSink implements RuleSink {
+
+    private final List<Bean2Excel.Column<SonarRule>> columns;
+    private final SerializableString[] names;
+    private final JsonGenerator generator;
+    private int rowCount = 0;
+    private boolean closed = false;
+
+    /**
+     * @param columns the displayed columns
+     * @param output the target stream, it is flushed but not closed with the sink
+     * @throws IOException if the generator could not be created
+     */
+    public NdjsonRuleSink(List<Bean2Excel.Column<SonarRule>> columns, OutputStream output) throws IOException{
+        this.columns = ExtractionMetrics.get().timed(columns);
+        // The names are escaped once rather than on every rule
+        this.names = new SerializableString[columns.size()];
+        for(int index = 0; index < names.length; index++){
+            names[index] = new SerializedString(columns.get(index).getName());
+        }
+        // The factory of the shared mapper, so nested values are serialised by it
+        this.generator = RulesPageDecoder.MAPPER.getFactory().createGenerator(output, JsonEncoding.UTF8);
+        this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // Each rule ends its own line instead of being separated by a space
+        this.generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public void accept(SonarRule rule) throws IOException{
+        generator.writeStartObject();
+        for(int index = 0; index < names.length; index++){
+            final Object value = columns.get(index).get(rule);
+            generator.writeFieldName(names[index]);
+            if(value instanceof Date){
+                generator.writeString(RuleSink.formatDate((Date) value));
+            }else{
+                generator.writeObject(value);
+            }
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        rowCount++;
+    }
+
+    /**
+     * @return the number of rules written so far
+     */
+    public int getRowCount(){
+        return rowCount;
+    }
+
+    @Override
+    public void close() throws IOException{
+        if(closed){
+            return;
+        }
+        closed = true;
+        generator.close();
+    }
+}
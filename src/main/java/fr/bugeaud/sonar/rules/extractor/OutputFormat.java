@@ -0,0 +1,69 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * The formats the rules can be written in.
+ * Only the workbook needs POI, the flat formats are written straight to the output stream.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public enum OutputFormat {
+
+    XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", ".xlsx"),
+    CSV("text/csv;charset=utf-8", ".csv"),
+    NDJSON("application/x-ndjson", ".ndjson", ".jsonl");
+
+    private final String contentType;
+    private final String[] extensions;
+
+    OutputFormat(String contentType, String... extensions){
+        this.contentType = contentType;
+        this.extensions = extensions;
+    }
+
+    /**
+     * @return the media type of the generated files
+     */
+    public String getContentType(){
+        return contentType;
+    }
+
+    /**
+     * @return the extension of the generated files
+     */
+    public String getExtension(){
+        return extensions[0];
+    }
+
+    /**
+     * Give the format matching the extension of a file
+     * @param path the output file
+     * @return the matching format, XLSX when the extension is unknown or the path is a directory
+     */
+    public static OutputFormat of(Path path){
+        if(path == null || path.getFileName() == null){
+            return XLSX;
+        }
+        final String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        for(OutputFormat format : values()){
+            for(String extension : format.extensions){
+                if(name.endsWith(extension)){
+                    return format;
+                }
+            }
+        }
+        return XLSX;
+    }
+
+    /**
+     * Give the format of a name, whatever its case
+     * @param name the format name
+     * @return the format
+     * @throws IllegalArgumentException if there is no such format
+     */
+    public static OutputFormat parse(String name){
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
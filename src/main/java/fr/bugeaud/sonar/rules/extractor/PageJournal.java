@@ -0,0 +1,151 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keep the search pages of an extraction on disk as they are fetched, so an interrupted extraction
+ * resumes with the pages it already has instead of starting over.
+ * Each page is kept as the compressed response it came from, under its offset and size so pages of
+ * different sizes can be resumed. The first page is always fetched again:
+ * when it announces another total than the journal, the pages no longer line up and the journal is dropped.
+ * The journal is deleted once the extraction has completed.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class PageJournal {
+
+    protected static final Logger LOGGER = Logger.getLogger(PageJournal.class.getName());
+
+    public static final String PAGE_PREFIX = "page-";
+    public static final String PAGE_SUFFIX = ".json.gz";
+
+    static final String TOTAL_FILE = "total";
+
+    private final Path directory;
+
+    /**
+     * The size of the journaled page starting at each offset
+     */
+    private final Map<Integer, Integer> sizes = new ConcurrentHashMap<>();
+
+    /**
+     * @param root the checkpoint directory, holding one journal per search
+     * @param query the search
+     */
+    public PageJournal(Path root, RulesQuery query){
+        this.directory = root.resolve(RulesCache.digest(query.getUri() + '\n' + query.getLanguage() + '\n' + query.getFrom()
+                + '\n' + query.getFields()));
+    }
+
+    /**
+     * Start the journal, or resume it when it was written for the same total
+     * @param total the total announced by the first page
+     * @return the number of pages already in the journal
+     * @throws IOException if the journal could not be read or started
+     */
+    public int open(int total) throws IOException{
+        Files.createDirectories(directory);
+        final Path totalPath = directory.resolve(TOTAL_FILE);
+        final byte[] expected = String.valueOf(total).getBytes(StandardCharsets.UTF_8);
+        if(Files.isRegularFile(totalPath) && !new String(Files.readAllBytes(totalPath), StandardCharsets.UTF_8).trim().equals(String.valueOf(total))){
+            LOGGER.info(String.format("The catalog has changed since the checkpoint %s, it is dropped", directory));
+            clear();
+        }
+        AtomicFile.write(totalPath, TOTAL_FILE, out -> {
+            out.write(expected);
+            return null;
+        });
+        sizes.clear();
+        try(DirectoryStream<Path> journaled = Files.newDirectoryStream(directory, PAGE_PREFIX + "*" + PAGE_SUFFIX)){
+            for(Path page : journaled){
+                final String[] range = page.getFileName().toString()
+                        .substring(PAGE_PREFIX.length(), page.getFileName().toString().length() - PAGE_SUFFIX.length()).split("-");
+                try{
+                    sizes.put(Integer.valueOf(range[0]), Integer.valueOf(range[1]));
+                }catch(NumberFormatException | ArrayIndexOutOfBoundsException e){
+                    LOGGER.warning(String.format("Ignoring the unknown checkpoint file %s", page));
+                }
+            }
+        }
+        return sizes.size();
+    }
+
+    /**
+     * @param offset the number of rules before the page
+     * @return the size of the journaled page starting at the offset, 0 if there is none
+     */
+    public int sizeAt(int offset){
+        return sizes.getOrDefault(offset, 0);
+    }
+
+    /**
+     * @param offset the number of rules before the page
+     * @return the response of the page, to be closed by the caller
+     * @throws IOException if the page could not be read
+     */
+    public InputStream read(int offset) throws IOException{
+        return new GZIPInputStream(new BufferedInputStream(Files.newInputStream(getPagePath(offset, sizeAt(offset)))));
+    }
+
+    /**
+     * Keep the response of a page
+     * @param offset the number of rules before the page
+     * @param pageSize the size of the page
+     * @param body the response body
+     * @throws IOException if the page could not be written
+     */
+    public void write(int offset, int pageSize, byte[] body) throws IOException{
+        // Write aside then move, so an interrupted run never leaves a truncated page
+        AtomicFile.write(getPagePath(offset, pageSize), PAGE_PREFIX, out -> {
+            try(OutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(out))){
+                gzip.write(body);
+            }
+            return null;
+        });
+        sizes.put(offset, pageSize);
+    }
+
+    /**
+     * Delete the journal once the extraction has completed
+     * @throws IOException if the journal could not be deleted
+     */
+    public void complete() throws IOException{
+        if(Files.isDirectory(directory)){
+            clear();
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private void clear() throws IOException{
+        sizes.clear();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory)){
+            for(Path file : files){
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    Path getPagePath(int offset, int pageSize){
+        return directory.resolve(String.format("%s%09d-%03d%s", PAGE_PREFIX, offset, pageSize, PAGE_SUFFIX));
+    }
+
+    /**
+     * @return the directory of this journal
+     */
+    public Path getDirectory(){
+        return directory;
+    }
+}
@@ -0,0 +1,236 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The SonarQube releases sorted by date, built once.
+ * It gives the date of a version, to search the rules available since a release, and the release
+ * a rule was introduced in, found by binary search on its creation date. Only the mainline releases
+ * are used for the latter, a maintenance release of an older version shipped after a newer version
+ * introduces no rule.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public final class ReleaseIndex {
+
+    /**
+     * The header of the column giving the release a rule was introduced in
+     */
+    public static final String RELEASE_HEADER = "release";
+
+    static final DateTimeFormatter RELEASE_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MMM-d").withLocale(Locale.US);
+
+    private static final ReleaseIndex SONARQUBE = new ReleaseIndex(sonarQubeReleases());
+
+    private final Map<String, LocalDate> dates;
+    private final String[] mainline;
+    private final long[] mainlineDays;
+
+    /**
+     * @param releases the release date by version
+     */
+    ReleaseIndex(Map<String, LocalDate> releases){
+        this.dates = Collections.unmodifiableMap(new HashMap<>(releases));
+        // By date, the highest version first on a same day
+        final List<Map.Entry<String, LocalDate>> sorted = new ArrayList<>(releases.entrySet());
+        sorted.sort(Comparator.comparing((Map.Entry<String, LocalDate> release) -> release.getValue())
+                .thenComparing(Map.Entry::getKey, (a, b) -> compareVersions(b, a)));
+        final List<Map.Entry<String, LocalDate>> kept = new ArrayList<>();
+        for(Map.Entry<String, LocalDate> release : sorted){
+            if(kept.isEmpty() || compareVersions(release.getKey(), kept.get(kept.size() - 1).getKey()) > 0){
+                kept.add(release);
+            }
+        }
+        this.mainline = new String[kept.size()];
+        this.mainlineDays = new long[kept.size()];
+        for(int index = 0; index < kept.size(); index++){
+            mainline[index] = kept.get(index).getKey();
+            mainlineDays[index] = kept.get(index).getValue().toEpochDay();
+        }
+    }
+
+    /**
+     * @return the index of the SonarQube releases
+     */
+    public static ReleaseIndex sonarQube(){
+        return SONARQUBE;
+    }
+
+    /**
+     * @param version a version, such as 6.2
+     * @return the release date of the version, null when the version is unknown
+     */
+    public LocalDate dateOf(String version){
+        return dates.get(version);
+    }
+
+    /**
+     * Give the release a rule created on a date was introduced in, the first mainline release on or after that date
+     * @param created the creation date
+     * @return the version, null when the date is after the last known release
+     */
+    public String introducedIn(LocalDate created){
+        final long day = created.toEpochDay();
+        int low = 0;
+        int high = mainlineDays.length;
+        while(low < high){
+            final int middle = (low + high) >>> 1;
+            if(mainlineDays[middle] < day){
+                low = middle + 1;
+            }else{
+                high = middle;
+            }
+        }
+        return low < mainline.length ? mainline[low] : null;
+    }
+
+    /**
+     * @param createdAt the creation instant, might be null
+     * @return the version the rule was introduced in, null when unknown
+     */
+    public String introducedIn(Date createdAt){
+        return createdAt != null ? introducedIn(createdAt.toInstant().atZone(ZoneOffset.UTC).toLocalDate()) : null;
+    }
+
+    /**
+     * @return the mainline versions, oldest first
+     */
+    public List<String> getMainline(){
+        return Collections.unmodifiableList(Arrays.asList(mainline));
+    }
+
+    /**
+     * Compare two versions number by number, 5.10 being after 5.9
+     * @param a a version
+     * @param b another version
+     * @return the comparison of the versions
+     */
+    static int compareVersions(String a, String b){
+        final String[] left = a.split("\\.");
+        final String[] right = b.split("\\.");
+        for(int index = 0; index < Math.max(left.length, right.length); index++){
+            final int compared = Integer.compare(index < left.length ? Integer.parseInt(left[index]) : 0,
+                    index < right.length ? Integer.parseInt(right[index]) : 0);
+            if(compared != 0){
+                return compared;
+            }
+        }
+        return 0;
+    }
+
+    static void createSonarRelease(Map<String,LocalDate> releases, String version, String releaseDate){
+        releases.put(version, LocalDate.parse(releaseDate, RELEASE_DATE_FORMATTER));
+    }
+
+    static Map<String,LocalDate> sonarQubeReleases(){
+        Map<String, LocalDate> releases = new HashMap<>();
+        createSonarRelease(releases,"6.3.1","2017-Apr-12");
+        createSonarRelease(releases,"6.3","2017-Mar-14");
+        createSonarRelease(releases,"5.6.6","2017-Feb-17");
+        createSonarRelease(releases,"5.6.5","2017-Jan-19");
+        createSonarRelease(releases,"5.6.4","2016-Dec-12");
+        createSonarRelease(releases,"5.6.3","2016-Oct-4");
+        createSonarRelease(releases,"5.6.2","2016-Sep-19");
+        createSonarRelease(releases,"5.6.1","2016-Jul-27");
+        createSonarRelease(releases,"5.6","2016-Jun-3");
+        createSonarRelease(releases,"6.2","2016-Dec-14");
+        createSonarRelease(releases,"6.1","2016-Oct-13");
+        createSonarRelease(releases,"6.0","2016-Aug-4");
+        createSonarRelease(releases,"5.5","2016-May-3");
+        createSonarRelease(releases,"5.4","2016-Mar-9");
+        createSonarRelease(releases,"5.3","2016-Jan-11");
+        createSonarRelease(releases,"5.2","2015-Nov-2");
+        createSonarRelease(releases,"5.1.2","2015-Jul-27");
+        createSonarRelease(releases,"5.1.1","2015-Jun-5");
+        createSonarRelease(releases,"5.0.1","2015-Feb-24");
+        createSonarRelease(releases,"5.0","2015-Jan-14");
+        createSonarRelease(releases,"4.5.7","2016-Apr-8");
+        createSonarRelease(releases,"4.5.6","2015-Oct-16");
+        createSonarRelease(releases,"4.5.5","2015-Jul-30");
+        createSonarRelease(releases,"4.5.4","2015-Feb-26");
+        createSonarRelease(releases,"4.5.2","2015-Jan-7");
+        createSonarRelease(releases,"4.5.1","2014-Oct-29");
+        createSonarRelease(releases,"4.5","2014-Sep-29");
+        createSonarRelease(releases,"4.4.1","2014-Sep-26");
+        createSonarRelease(releases,"4.4","2014-Jul-31");
+        createSonarRelease(releases,"4.3.3","2014-Jul-31");
+        createSonarRelease(releases,"4.3.2","2014-Jun-24");
+        createSonarRelease(releases,"4.3.1","2014-Jun-4");
+        createSonarRelease(releases,"4.3","2014-May-2");
+        createSonarRelease(releases,"4.2","2014-Mar-26");
+        createSonarRelease(releases,"4.1.2","2014-Feb-20");
+        createSonarRelease(releases,"4.1.1","2014-Jan-28");
+        createSonarRelease(releases,"4.1","2014-Jan-13");
+        createSonarRelease(releases,"4.0","2013-Nov-7");
+        createSonarRelease(releases,"3.7.4","2013-Dec-20");
+        createSonarRelease(releases,"3.7.3","2013-Oct-21");
+        createSonarRelease(releases,"3.7.2","2013-Oct-2");
+        createSonarRelease(releases,"3.7.1","2013-Sep-23");
+        createSonarRelease(releases,"3.7","2013-Aug-14");
+        createSonarRelease(releases,"3.6.3","2013-Aug-14");
+        createSonarRelease(releases,"3.6.2","2013-Jul-18");
+        createSonarRelease(releases,"3.6.1","2013-Jul-12");
+        createSonarRelease(releases,"3.6","2013-Jun-26");
+        createSonarRelease(releases,"3.5.1","2013-Apr-3");
+        createSonarRelease(releases,"3.5","2013-Mar-13");
+        createSonarRelease(releases,"3.4.1","2013-Jan-8");
+        createSonarRelease(releases,"3.4","2012-Dec-22");
+        createSonarRelease(releases,"3.3.2","2012-Nov-21");
+        createSonarRelease(releases,"3.3.1","2012-Nov-07");
+        createSonarRelease(releases,"3.3","2012-Oct-24");
+        createSonarRelease(releases,"3.2.1","2012-Oct-3");
+        createSonarRelease(releases,"3.2","2012-Aug-6");
+        createSonarRelease(releases,"3.1.1","2012-Jun-25");
+        createSonarRelease(releases,"3.1","2012-Jun-13");
+        createSonarRelease(releases,"3.0.1","2012-May-14");
+        createSonarRelease(releases,"3.0","2012-Apr-17");
+        createSonarRelease(releases,"2.14","2012-Mar-19");
+        createSonarRelease(releases,"2.13.1","2012-Jan-31");
+        createSonarRelease(releases,"2.12","2011-Nov-30");
+        createSonarRelease(releases,"2.11","2011-Oct-3");
+        createSonarRelease(releases,"2.10","2011-Aug-18");
+        createSonarRelease(releases,"2.9","2011-Jul-18");
+        createSonarRelease(releases,"2.8","2011-May-19");
+        createSonarRelease(releases,"2.7","2011-Apr-1");
+        createSonarRelease(releases,"2.6","2011-Feb-18");
+        createSonarRelease(releases,"2.5","2011-Jan-14");
+        createSonarRelease(releases,"2.4.1","2010-Nov-18");
+        createSonarRelease(releases,"2.3.1","2010-Oct-22");
+        createSonarRelease(releases,"2.2","2010-Jul-15");
+        createSonarRelease(releases,"2.1.2","2010-May-20");
+        createSonarRelease(releases,"2.0.1","2010-Mar-10");
+        createSonarRelease(releases,"1.12","2009-Dec-7");
+        createSonarRelease(releases,"1.11.1","2009-Oct-20");
+        createSonarRelease(releases,"1.11","2009-Oct-5");
+        createSonarRelease(releases,"1.10.1","2009-Aug-19");
+        createSonarRelease(releases,"1.10","2009-Aug-14");
+        createSonarRelease(releases,"1.9.2","2009-Jun-8");
+        createSonarRelease(releases,"1.9","2009-May-25");
+        createSonarRelease(releases,"1.8","2009-Apr-17");
+        createSonarRelease(releases,"1.7","2009-Mar-18");
+        createSonarRelease(releases,"1.6","2009-Feb-9");
+        createSonarRelease(releases,"1.5.1","2009-Jan-8");
+        createSonarRelease(releases,"1.5","2008-Dec-16");
+        createSonarRelease(releases,"1.4.3","2008-Oct-16");
+        createSonarRelease(releases,"1.4.2","2008-Sep-25");
+        createSonarRelease(releases,"1.4.1","2008-Aug-23");
+        createSonarRelease(releases,"1.4","2008-Aug-7");
+        createSonarRelease(releases,"1.3","2008-Jun-16");
+        createSonarRelease(releases,"1.2.1","2008-Apr-30");
+        createSonarRelease(releases,"1.2","2008-Mar-26");
+        createSonarRelease(releases,"1.1","2008-Feb-25");
+        createSonarRelease(releases,"1.0.2","2007-Dec-14");
+        return releases;
+    }
+}
@@ -0,0 +1,136 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decide whether a failed search page is tried again and how long to wait before.
+ * The delay doubles on each attempt up to a ceiling, half of it being random so concurrent workers
+ * do not come back all at once. A Retry-After given by the server takes precedence.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_RETRIES = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500L;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30_000L;
+
+    /**
+     * A server asking to come back later than this is not waited for
+     */
+    public static final long MAX_RETRY_AFTER_MILLIS = 300_000L;
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(DEFAULT_RETRIES);
+
+    public static final RetryPolicy NONE = new RetryPolicy(0);
+
+    private final int retries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param retries the number of attempts after the first one
+     */
+    public RetryPolicy(int retries){
+        this(retries, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param retries the number of attempts after the first one
+     * @param baseDelayMillis the delay ceiling of the first retry
+     * @param maxDelayMillis the highest delay ceiling
+     */
+    public RetryPolicy(int retries, long baseDelayMillis, long maxDelayMillis){
+        this.retries = Math.max(0, retries);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @param status the HTTP status of a failed response
+     * @return true for the statuses of an overloaded server or a failing proxy, that may answer later on
+     */
+    public static boolean isRetryable(int status){
+        return status == 408 || status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * @param attempt the number of attempts already failed, starting at 1
+     * @return true if another attempt is allowed
+     */
+    public boolean canRetry(int attempt){
+        return attempt <= retries;
+    }
+
+    /**
+     * Give the delay before the next attempt
+     * @param attempt the number of attempts already failed, starting at 1
+     * @param retryAfter the Retry-After header of the response, might be null
+     * @return the delay in milliseconds, or a negative value when the server asks to wait too long
+     */
+    public long delayMillis(int attempt, String retryAfter){
+        final long requested = parseRetryAfter(retryAfter, Instant.now());
+        if(requested >= 0){
+            return requested <= MAX_RETRY_AFTER_MILLIS ? requested : -1L;
+        }
+        final long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * Read a Retry-After header, either a number of seconds or an HTTP date
+     * @param value the header value, might be null
+     * @param now the current instant
+     * @return the delay in milliseconds, negative when there is no usable value
+     */
+    static long parseRetryAfter(String value, Instant now){
+        if(value == null || value.trim().isEmpty()){
+            return -1L;
+        }
+        final String trimmed = value.trim();
+        try{
+            final long seconds = Long.parseLong(trimmed);
+            // A delay too long to count in milliseconds is still too long to wait for
+            return seconds > Long.MAX_VALUE / 1000L ? Long.MAX_VALUE : Math.max(0L, seconds * 1000L);
+        }catch(NumberFormatException e){
+            // Not a number of seconds, maybe a date
+        }
+        try{
+            final Instant until = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return Math.max(0L, until.toEpochMilli() - now.toEpochMilli());
+        }catch(DateTimeParseException e){
+            return -1L;
+        }
+    }
+
+    /**
+     * Look a header up whatever its case
+     * @param headers the response headers
+     * @param name the header name
+     * @return the first value of the header, null if missing
+     */
+    static String header(Map<String, List<String>> headers, String name){
+        if(headers == null){
+            return null;
+        }
+        for(Map.Entry<String, List<String>> header : headers.entrySet()){
+            if(name.equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty()){
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of attempts after the first one
+     */
+    public int getRetries(){
+        return retries;
+    }
+}
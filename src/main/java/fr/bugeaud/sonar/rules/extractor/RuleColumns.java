@@ -0,0 +1,63 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Select the displayed columns of the rules.
+ * Besides the rule properties, the release header gives the release a rule was introduced in. The description
+ * is expanded when the rule was compacted, and optionally converted to plain text.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public final class RuleColumns {
+
+    private RuleColumns(){
+    }
+
+    /**
+     * Select the columns of the displayed headers, the description being kept as HTML
+     * @param headers the displayed headers
+     * @return the selected columns
+     */
+    public static List<Bean2Excel.Column<SonarRule>> select(List<String> headers){
+        return select(headers, false);
+    }
+
+    /**
+     * Select the columns of the displayed headers
+     * @param headers the displayed headers
+     * @param plainText true to convert the description to plain text, cut at the length of an Excel cell
+     * @return the selected columns
+     */
+    public static List<Bean2Excel.Column<SonarRule>> select(List<String> headers, boolean plainText){
+        final Bean2Excel<SonarRule> engine = Bean2Excel.of(SonarRule.class);
+        final List<Bean2Excel.Column<SonarRule>> columns = new ArrayList<>();
+        if(headers == null){
+            return columns;
+        }
+        for(String header : new LinkedHashSet<>(headers)){
+            if(ReleaseIndex.RELEASE_HEADER.equals(header)){
+                final Bean2Excel.Column<SonarRule> createdAt = engine.getColumn("createdAt");
+                columns.add(Bean2Excel.derived(header, String.class, rule -> {
+                    final Object created = createdAt != null ? createdAt.get(rule) : null;
+                    return created instanceof Date ? ReleaseIndex.sonarQube().introducedIn((Date) created) : null;
+                }));
+            }else if(RuleStore.DESCRIPTION_PROPERTY.equals(header) && engine.getColumn(header) != null){
+                final Bean2Excel.Column<SonarRule> stored = engine.getColumn(header);
+                columns.add(Bean2Excel.derived(header, String.class, rule -> {
+                    final Object value = stored.get(rule);
+                    final String html = value instanceof String ? RuleStore.unpack((String) value) : null;
+                    return plainText ? HtmlText.toText(html, HtmlText.MAX_CELL_LENGTH) : html;
+                }));
+            }else{
+                columns.addAll(engine.select(Collections.singletonList(header)));
+            }
+        }
+        return columns;
+    }
+}
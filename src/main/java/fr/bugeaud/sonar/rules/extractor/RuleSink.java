@@ -0,0 +1,39 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+/**
+ * A destination for a stream of rules, such as a workbook or a flat file.
+ * Rules are written one by one in the extraction order, the output is completed on close.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public interface RuleSink extends Closeable {
+
+    /**
+     * Write a rule
+     * @param rule the rule to write
+     * @throws IOException if the rule could not be written
+     */
+    void accept(SonarRule rule) throws IOException;
+
+    /**
+     * Complete the output once every rule was written
+     * @throws IOException if the output could not be completed
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Format a date for the flat formats
+     * @param date the date
+     * @return the date as an ISO-8601 instant, in UTC
+     */
+    static String formatDate(Date date){
+        return DateTimeFormatter.ISO_INSTANT.format(date.toInstant());
+    }
+}
@@ -0,0 +1,251 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keep the fetched rules compact in memory.
+ * The values repeated across the rules, such as the severity, type, language, repository or status, become
+ * a single shared instance, and the description is kept deflated until a row is written. A compacted
+ * description is packed in the description property itself, two bytes per character behind a marker,
+ * so a rule carries its own description and no side table outlives it. The displayed columns expand it.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public final class RuleStore {
+
+    /**
+     * The properties with few distinct values, shared between the rules
+     */
+    static final List<String> REPEATED_PROPERTIES = Collections.unmodifiableList(Arrays.asList(
+            "severity", "type", "lang", "langName", "repo", "status", "scope"));
+
+    public static final String DESCRIPTION_PROPERTY = "htmlDesc";
+
+    /**
+     * A Unicode noncharacter, it never starts a real description
+     */
+    static final char MARKER = '\uFDD0';
+
+    /**
+     * Descriptions shorter than this are kept as they are, deflating them would not save anything
+     */
+    static final int MIN_PACKED_LENGTH = 256;
+
+    protected static final Logger LOGGER = Logger.getLogger(RuleStore.class.getName());
+
+    private static final ConcurrentMap<String, String> VALUES = new ConcurrentHashMap<>();
+
+    private static final Map<String, Accessor> ACCESSORS = accessors();
+
+    /**
+     * The mapper of the writers binding the whole rule, such as the snapshots and the spools.
+     * It writes a packed description inflated, without inflating the rule itself that other lists may share.
+     */
+    static final ObjectMapper EXPANDING_MAPPER = RulesPageDecoder.MAPPER.copy().addMixIn(SonarRule.class, ExpandedDescription.class);
+
+    private RuleStore(){
+    }
+
+    /**
+     * Share the repeated values of a rule and deflate its description, in place
+     * @param rule the rule
+     * @return the same rule
+     */
+    public static SonarRule compact(SonarRule rule){
+        for(String property : REPEATED_PROPERTIES){
+            final Accessor accessor = ACCESSORS.get(property);
+            if(accessor != null){
+                final Object value = accessor.get(rule);
+                if(value instanceof String){
+                    final String shared = VALUES.putIfAbsent((String) value, (String) value);
+                    if(shared != null && shared != value){
+                        accessor.set(rule, shared);
+                    }
+                }
+            }
+        }
+        final Accessor description = ACCESSORS.get(DESCRIPTION_PROPERTY);
+        if(description != null){
+            final Object value = description.get(rule);
+            if(value instanceof String){
+                description.set(rule, pack((String) value));
+            }
+        }
+        return rule;
+    }
+
+    /**
+     * Deflate a description
+     * @param description the description, might be null
+     * @return the packed description, or the same description when it is short or already packed
+     */
+    public static String pack(String description){
+        if(description == null || description.length() < MIN_PACKED_LENGTH || isPacked(description)){
+            return description;
+        }
+        final byte[] utf8 = description.getBytes(StandardCharsets.UTF_8);
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream(utf8.length / 3 + 16);
+        try{
+            deflater.setInput(utf8);
+            deflater.finish();
+            final byte[] buffer = new byte[4096];
+            while(!deflater.finished()){
+                deflated.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }finally{
+            deflater.end();
+        }
+        final byte[] bytes = deflated.toByteArray();
+        // The marker, the UTF-8 length on two characters, then two bytes per character
+        final char[] packed = new char[3 + (bytes.length + 1) / 2];
+        packed[0] = MARKER;
+        packed[1] = (char) (utf8.length >>> 16);
+        packed[2] = (char) utf8.length;
+        for(int index = 0; index < bytes.length; index++){
+            packed[3 + index / 2] |= (index & 1) == 0 ? (bytes[index] & 0xFF) << 8 : bytes[index] & 0xFF;
+        }
+        return packed.length < description.length() ? new String(packed) : description;
+    }
+
+    /**
+     * Inflate a description
+     * @param stored the stored description, packed or not, might be null
+     * @return the description
+     */
+    public static String unpack(String stored){
+        if(stored == null || !isPacked(stored)){
+            return stored;
+        }
+        final byte[] bytes = new byte[(stored.length() - 3) * 2];
+        for(int index = 0; index < bytes.length; index++){
+            final char c = stored.charAt(3 + index / 2);
+            bytes[index] = (byte) ((index & 1) == 0 ? c >>> 8 : c);
+        }
+        final byte[] utf8 = new byte[(stored.charAt(1) << 16) | stored.charAt(2)];
+        final Inflater inflater = new Inflater(true);
+        try{
+            inflater.setInput(bytes);
+            int length = 0;
+            while(length < utf8.length){
+                final int inflated = inflater.inflate(utf8, length, utf8.length - length);
+                if(inflated == 0 && (inflater.finished() || inflater.needsInput())){
+                    break;
+                }
+                length += inflated;
+            }
+        }catch(DataFormatException e){
+            throw new IllegalStateException("A packed description is corrupted", e);
+        }finally{
+            inflater.end();
+        }
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param stored a stored description
+     * @return true when the description is packed
+     */
+    public static boolean isPacked(String stored){
+        return stored.length() >= 3 && stored.charAt(0) == MARKER;
+    }
+
+    private static Map<String, Accessor> accessors(){
+        final Map<String, Accessor> accessors = new HashMap<>();
+        try{
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            for(PropertyDescriptor descriptor : Introspector.getBeanInfo(SonarRule.class).getPropertyDescriptors()){
+                final String name = descriptor.getName();
+                if((REPEATED_PROPERTIES.contains(name) || DESCRIPTION_PROPERTY.equals(name))
+                        && descriptor.getReadMethod() != null && descriptor.getWriteMethod() != null
+                        && descriptor.getPropertyType() == String.class){
+                    accessors.put(name, new Accessor(lookup.unreflect(descriptor.getReadMethod()), lookup.unreflect(descriptor.getWriteMethod())));
+                }
+            }
+        }catch(IntrospectionException | IllegalAccessException e){
+            // Nothing is compacted, the rules are kept as they are
+            LOGGER.warning(String.format("The rules can not be compacted : %s", e));
+        }
+        return Collections.unmodifiableMap(accessors);
+    }
+
+    /**
+     * Bind the description of a rule thru the unpacking serializer
+     */
+    abstract static class ExpandedDescription {
+        @JsonSerialize(using = UnpackingSerializer.class)
+        abstract String getHtmlDesc();
+    }
+
+    /**
+     * Write a stored description inflated
+     */
+    public static class UnpackingSerializer extends StdSerializer<String> {
+
+        public UnpackingSerializer(){
+            super(String.class);
+        }
+
+        @Override
+        public void serialize(String value, JsonGenerator generator, SerializerProvider provider) throws IOException{
+            generator.writeString(unpack(value));
+        }
+    }
+
+    /**
+     * The getter and setter of a String property
+     */
+    private static class Accessor {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        Accessor(MethodHandle getter, MethodHandle setter){
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        Object get(SonarRule rule){
+            try{
+                return getter.invoke(rule);
+            }catch(RuntimeException | Error e){
+                throw e;
+            }catch(Throwable e){
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void set(SonarRule rule, Object value){
+            try{
+                setter.invoke(rule, (String) value);
+            }catch(RuntimeException | Error e){
+                throw e;
+            }catch(Throwable e){
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keep the rules catalog of a search URI and languages on disk.
+ * A fresh entry is served without any network call. A stale entry is refreshed with the rules
+ * available since its last synchronisation, which are merged by key into the cached ones.
+ * Rules removed or changed on the server are only seen once the entry is invalidated.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RulesCache {
+
+    protected static final Logger LOGGER = Logger.getLogger(RulesCache.class.getName());
+
+    public static final String ENTRY_SUFFIX = ".json.gz";
+
+    /**
+     * The cached rules may have been written by another version of the client, so unknown properties are tolerated
+     */
+    static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final Path directory;
+    private final Duration maxAge;
+
+    /**
+     * @param directory the cache directory, created if missing
+     * @param maxAge the age under which an entry is served without refreshing it
+     */
+    public RulesCache(Path directory, Duration maxAge){
+        this.directory = directory;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * List the rules, from the cache when it is fresh enough, refreshing it otherwise
+     * @param uri the SonarQube rule repository
+     * @param language the target language identifier(s)
+     * @param from the cut-off date applied on the cached rules, might be null
+     * @param concurrency the maximum number of pages fetched at the same time
+     * @param invalidate true to drop the entry and download the whole catalog again
+     * @return the rules not older than the from date
+     * @throws UnirestException if the refresh has failed
+     * @throws IOException if the cache could not be read or written
+     */
+    public List<SonarRule> listRules(String uri, String language, LocalDate from, int concurrency, boolean invalidate) throws UnirestException, IOException{
+        final Path entryPath = getEntryPath(uri, language);
+        final Instant now = Instant.now();
+
+        CacheEntry entry = invalidate ? null : read(entryPath);
+        if(entry == null){
+            LOGGER.info(String.format("No cached rules for %s on %s, fetching the whole catalog", language, uri));
+            entry = new CacheEntry();
+            entry.setUri(uri);
+            entry.setLanguage(language);
+            entry.setRules(RulesExtractor.listRules(uri, language, null, concurrency));
+        }else if(Instant.ofEpochMilli(entry.getLastSync()).plus(maxAge).isBefore(now)){
+            // The search only works by day, the overlap with the last synchronisation is merged away
+            final LocalDate since = Instant.ofEpochMilli(entry.getLastSync()).atZone(ZoneId.of("UTC")).toLocalDate();
+            final List<SonarRule> added = RulesExtractor.listRules(uri, language, since, concurrency);
+            LOGGER.info(String.format("Refreshed cached rules for %s on %s with %s rules available since %s", language, uri, added.size(), since));
+            entry.setRules(merge(entry.getRules(), added));
+        }else{
+            LOGGER.info(String.format("Using the cached rules for %s on %s from %s", language, uri, entryPath));
+            return filterFrom(entry.getRules(), from);
+        }
+
+        entry.setLastSync(now.toEpochMilli());
+        write(entryPath, entry);
+        return filterFrom(entry.getRules(), from);
+    }
+
+    /**
+     * Merge the refreshed rules into the cached ones, a refreshed rule replaces the cached one with the same key
+     * @param cached the cached rules
+     * @param refreshed the refreshed rules
+     * @return the merged rules, cached rules first in their order
+     */
+    static List<SonarRule> merge(List<SonarRule> cached, List<SonarRule> refreshed){
+        final Map<String, SonarRule> byKey = new LinkedHashMap<>(cached.size() + refreshed.size());
+        for(SonarRule rule : cached){
+            byKey.put(rule.getKey(), rule);
+        }
+        for(SonarRule rule : refreshed){
+            byKey.put(rule.getKey(), rule);
+        }
+        return new ArrayList<>(byKey.values());
+    }
+
+    /**
+     * Keep the rules created on or after the given date, as the available_since search parameter would
+     * @param rules the rules
+     * @param from the cut-off date, might be null
+     * @return the matching rules, spooled in the same budget when the rules are
+     */
+    static List<SonarRule> filterFrom(List<SonarRule> rules, LocalDate from){
+        if(from == null){
+            return rules;
+        }
+        final Predicate<SonarRule> createdFrom = createdFrom(from);
+        final List<SonarRule> filtered = RulesSpool.like(rules);
+        for(SonarRule rule : rules){
+            if(createdFrom.test(rule)){
+                filtered.add(rule);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Tell the rules created on or after the given date, a rule without creation date is kept
+     * @param from the cut-off date, might be null
+     * @return the predicate matching the rules to keep
+     */
+    static Predicate<SonarRule> createdFrom(LocalDate from){
+        if(from == null){
+            return rule -> true;
+        }
+        final Bean2Excel.Column<SonarRule> createdAt = Bean2Excel.of(SonarRule.class).getColumn("createdAt");
+        final Date cutOff = Date.from(from.atStartOfDay(ZoneId.of("UTC")).toInstant());
+        return rule -> {
+            final Object created = createdAt != null ? createdAt.get(rule) : null;
+            return !(created instanceof Date) || !((Date) created).before(cutOff);
+        };
+    }
+
+    /**
+     * Give the file of the entry for a search URI and languages
+     * @param uri the SonarQube rule repository
+     * @param language the target language identifier(s)
+     * @return the path of the entry
+     */
+    Path getEntryPath(String uri, String language){
+        return directory.resolve(digest(uri + '\n' + language) + ENTRY_SUFFIX);
+    }
+
+    static String digest(String value){
+        try{
+            final byte[] hash = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(hash.length * 2);
+            for(byte b : hash){
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    CacheEntry read(Path entryPath) throws IOException{
+        if(!Files.isRegularFile(entryPath)){
+            return null;
+        }
+        try(InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(entryPath)))){
+            return MAPPER.readValue(in, CacheEntry.class);
+        }catch(IOException e){
+            LOGGER.warning(String.format("Ignoring the unreadable cache entry %s : %s", entryPath, e.getMessage()));
+            return null;
+        }
+    }
+
+    void write(Path entryPath, CacheEntry entry) throws IOException{
+        Files.createDirectories(directory);
+        // Write aside then move, so an interrupted run never leaves a truncated entry
+        AtomicFile.write(entryPath, "entry-", out -> {
+            try(OutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(out))){
+                MAPPER.writeValue(gzip, entry);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * The cached catalog of a search URI and languages
+     */
+    public static class CacheEntry {
+        private String uri;
+        private String language;
+        private long lastSync;
+        private List<SonarRule> rules = new ArrayList<>();
+
+        /**
+         * @return the search URI
+         */
+        public String getUri(){
+            return uri;
+        }
+
+        /**
+         * @param uri the search URI to set
+         */
+        public void setUri(String uri){
+            this.uri = uri;
+        }
+
+        /**
+         * @return the language identifier(s)
+         */
+        public String getLanguage(){
+            return language;
+        }
+
+        /**
+         * @param language the language identifier(s) to set
+         */
+        public void setLanguage(String language){
+            this.language = language;
+        }
+
+        /**
+         * @return the epoch milliseconds of the last synchronisation
+         */
+        public long getLastSync(){
+            return lastSync;
+        }
+
+        /**
+         * @param lastSync the epoch milliseconds of the last synchronisation to set
+         */
+        public void setLastSync(long lastSync){
+            this.lastSync = lastSync;
+        }
+
+        /**
+         * @return the cached rules
+         */
+        public List<SonarRule> getRules(){
+            return rules;
+        }
+
+        /**
+         * @param rules the cached rules to set
+         */
+        public void setRules(List<SonarRule> rules){
+            this.rules = rules;
+        }
+    }
+}
@@ -3,52 +3,58 @@ package fr.bugeaud.sonar.rules.extractor;
 import com.beust.jcommander.IStringConverter;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.ObjectMapper;
-import com.mashape.unirest.http.Unirest;
+import com.beust.jcommander.ParameterException;
 import com.mashape.unirest.http.exceptions.UnirestException;
-import com.mashape.unirest.request.HttpRequest;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import org.apache.poi.hssf.util.AreaReference;
-import org.apache.poi.hssf.util.CellReference;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFCreationHelper;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFTable;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTable;
-import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTableColumn;
-import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTableColumns;
-import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTableStyleInfo;
 import fr.bugeaud.tools.sonar.rules.client.SonarRule;
 import fr.bugeaud.tools.sonar.rules.client.RulesExtract;
 
@@ -78,19 +84,100 @@ public class RulesExtractor {
     @Parameter(names = "-l", description = "Give indication for the target language code to extract. It must be valid languages codes from SonarQube. Multiple languages codes are accepted when separated by a comma. By default, it will use java language.")
     private String language = DEFAULT_LANGUAGE;
     
-    @Parameter(names = "-s", description = "Search URI, by default it will use the public SonarQube Search API thru HTTPS.")
-    private String searchUri= PUBLIC_SONAR_SEARCH_URI;
+    @Parameter(names = "-split", description = "Extract each language of -l on its own and in parallel, writing one sheet per language along with a summary sheet of the rule counts.")
+    private boolean splitLanguages = false;
+    
+    @Parameter(names = "-s", description = "Search URI, by default it will use the public SonarQube Search API thru HTTPS. Multiple search URIs are accepted when separated by a comma, their catalogs are then fetched concurrently and merged by rule key.")
+    private List<String> searchUris = new ArrayList<>();
+    
+    public static final int NO_INSTANCE_TIMEOUT = 0;
+    
+    public static final int DEFAULT_INSTANCE_TIMEOUT = 120;
+    
+    @Parameter(names = "-instanceTimeout", description = "When several search URIs are given, the number of seconds to wait for all the instances, 120 by default. The instances still running are then left out of the merge. 0 waits for every instance.")
+    private int instanceTimeout = DEFAULT_INSTANCE_TIMEOUT;
+    
+    public static final int DEFAULT_CONCURRENCY = 1;
+    
+    @Parameter(names = "-c", description = "Number of search pages fetched concurrently from the search URI. By default, pages are fetched one after the other.")
+    private int concurrency = DEFAULT_CONCURRENCY;
+    
+    public static final int DEFAULT_ADAPTIVE_CONCURRENCY = 16;
+    
+    @Parameter(names = "-adaptive", description = "Tune the number of search pages in flight and their size from the latency, errors and throttling of the server. -c then gives the most pages in flight, 16 by default.")
+    private boolean adaptive = false;
     /*
      Your might perfquery SonarQube API :
      https://sonarqube.com/api/rules/search?languages=cpp&available_since=2016-09-01
     */
     
-    @Parameter(names = "-d", description = "Limit search to the given date.", converter = LocalDateConverter.class)
+    @Parameter(names = "-d", description = "Limit search to the rules available since the given date (yyyy-mm-dd) or SonarQube version, such as 6.2.", converter = LocalDateConverter.class)
     private LocalDate localDate;
     
-    @Parameter(names = "-o", required = true, description = "Indicate the outputPath", converter = PathConverter.class)
+    @Parameter(names = "-o", description = "Indicate the outputPath, it is required unless the extraction is served by ExtractorService", converter = PathConverter.class)
     private Path outputPath;
     
+    @Parameter(names = "-f", description = "Output format : xlsx, csv or ndjson. By default, it is given by the extension of the output path, else xlsx.", converter = OutputFormatConverter.class)
+    private OutputFormat format;
+    
+    public static final int IN_MEMORY_ROW_WINDOW = 0;
+    
+    @Parameter(names = "-w", description = "Stream the workbook while writing it, keeping only the given number of rows in memory. The other rows are flushed to compressed temporary files. By default, the whole workbook is built in memory.")
+    private int rowWindow = IN_MEMORY_ROW_WINDOW;
+    
+    public static final int TWO_PHASE_QUEUE_CAPACITY = 0;
+    
+    @Parameter(names = "-q", description = "Pipeline the extraction, the rules are written while the later pages are still downloading. The value is the number of rules the queue between fetching and writing can hold. By default, the whole catalog is fetched before anything is written.")
+    private int queueCapacity = TWO_PHASE_QUEUE_CAPACITY;
+    
+    @Parameter(names = "-cache", description = "Directory of the local rules cache. A fresh cached catalog is used without any network call, a stale one is refreshed with the rules available since its last synchronisation.", converter = PathConverter.class)
+    private Path cacheDirectory;
+    
+    public static final int DEFAULT_CACHE_MAX_AGE_HOURS = 24;
+    
+    @Parameter(names = "-cacheMaxAge", description = "Age in hours under which a cached catalog is used without refreshing it.")
+    private int cacheMaxAge = DEFAULT_CACHE_MAX_AGE_HOURS;
+    
+    @Parameter(names = "-invalidate", description = "Drop the cached catalog and download it again in full.")
+    private boolean invalidateCache = false;
+    
+    @Parameter(names = "-retries", description = "Number of times a search page is tried again after a network failure or an HTTP 408, 429, 502, 503 or 504 status. The delay doubles on each retry, with some jitter, unless the server gives a Retry-After.")
+    private int retries = RetryPolicy.DEFAULT_RETRIES;
+    
+    @Parameter(names = "-checkpoint", description = "Directory where the fetched search pages are kept until the extraction completes. A rerun of an interrupted extraction resumes with the pages already fetched.", converter = PathConverter.class)
+    private Path checkpointDirectory;
+    
+    @Parameter(names = "-snapshot", description = "Save the whole fetched catalog to the given file, gzipped when it ends with .gz, as a compact columnar file when it ends with .rules. It can then be compared with -diff or, when columnar, queried with -query.", converter = PathConverter.class)
+    private Path snapshotPath;
+    
+    @Parameter(names = "-diff", arity = 2, description = "Compare two catalogs, each of them being either a search URI or a snapshot file, and write the added, changed and removed rules as a workbook. The rules are compared on the -e headers.")
+    private List<String> diffSources = new ArrayList<>();
+    
+    @Parameter(names = "-query", description = "Extract the rules of a columnar snapshot (.rules) without any network. The rules are filtered by -l, -d and -where.", converter = PathConverter.class)
+    private Path queryPath;
+    
+    @Parameter(names = "-where", description = "Filter of -query as column=value, such as severity=BLOCKER. Filters on different columns must all match, filters on the same column match any of their values.")
+    private List<String> where = new ArrayList<>();
+    
+    @Parameter(names = "-groupByRelease", description = "Group the rules by the SonarQube release they were introduced in, found from their creation date. A workbook gets one sheet per release along with a summary sheet of the rule counts, a flat file gets the releases one after the other.")
+    private boolean groupByRelease = false;
+    
+    @Parameter(names = "-compact", description = "Keep the fetched rules compact in memory : the repeated values such as the severity, type or repository are shared, and the descriptions are kept deflated until they are written.")
+    private boolean compact = false;
+    
+    @Parameter(names = "-descriptionText", description = "Write the descriptions as plain text instead of HTML, cut at the 32767 characters of an Excel cell.")
+    private boolean descriptionText = false;
+    
+    public static final int NO_MEMORY_BUDGET = 0;
+    
+    @Parameter(names = "-memoryBudget", description = "Megabytes of fetched rules kept in memory. The rules beyond are spilled to compressed temporary files, and read back while they are written. By default, every rule is kept in memory.")
+    private int memoryBudget = NO_MEMORY_BUDGET;
+    
+    private RulesSpool.Budget budget;
+    
+    @Parameter(names = "-metrics", description = "Directory where the metrics of the run are written, as a JSON report and a Prometheus text file. By default, no metrics are collected.", converter = PathConverter.class)
+    private Path metricsDirectory;
+    
     @Parameter(names = "-e", description = "List column headers to display in the result" )
     private List<String> headers = new ArrayList<>();
     
@@ -112,34 +199,481 @@ public class RulesExtractor {
      * @throws UnirestException if the Unirest has failed
      */
     public static List<SonarRule> listRules(String uri, String language, LocalDate from) throws UnirestException{
+        return listRules(uri, language, from, DEFAULT_CONCURRENCY);
+    }
+    
+    public static final int PAGE_SIZE = 500;
+    
+    /**
+     * The retries of every search page, like the transport it is shared by the whole run
+     */
+    private static volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    
+    /**
+     * @param policy the retries of every search page
+     */
+    public static void setRetryPolicy(RetryPolicy policy){
+        retryPolicy = policy;
+    }
+    
+    /**
+     * The transport of every search page, like the retries it is shared by the whole run
+     */
+    private static volatile RulesTransport transport;
+    
+    /**
+     * Waits for the retries of the search pages, no thread being held by a page waiting for its retry
+     */
+    private static final ScheduledExecutorService RETRIES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "rules-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * @return the transport of every search page, the asynchronous one unless another was set
+     */
+    static RulesTransport getTransport(){
+        RulesTransport current = transport;
+        if(current == null){
+            synchronized(RulesExtractor.class){
+                current = transport;
+                if(current == null){
+                    current = RulesTransport.Kind.ASYNC.create();
+                    current.configure(DEFAULT_MAX_PER_ROUTE, RulesTransport.DEFAULT_TIMEOUT_SECONDS);
+                    transport = current;
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Replace the transport of every search page, the previous one is closed
+     * @param replacement the new transport
+     */
+    public static synchronized void setTransport(RulesTransport replacement){
+        final RulesTransport previous = transport;
+        transport = replacement;
+        if(previous != null && previous != replacement){
+            try{
+                previous.close();
+            }catch(IOException e){
+                LOGGER.warning(String.format("The previous transport could not be closed : %s", e));
+            }
+        }
+    }
+    
+    /**
+     * List all the rules for the given languages from the given repository starting from a given date.
+     * The first page is fetched alone to learn the total, the remaining pages are then fetched on a 
+     * bounded pool of workers. The rules keep the order of the pages whatever the concurrency.
+     * @param uri the SonarQube rule repository
+     * @param language the target language identifier. If there are multiples, the various identifiers will be separated by a comma.
+     * @param from the cut-off date, only rules created earlier on will be selected in the result 
+     * @param concurrency the maximum number of pages fetched at the same time, 1 or less means sequential
+     * @return the list of rules in the repository matching the languages and not older than the from date
+     * @throws UnirestException if the Unirest has failed
+     */
+    public static List<SonarRule> listRules(String uri, String language, LocalDate from, int concurrency) throws UnirestException{
+        return listRules(new RulesQuery(uri, language, from), concurrency);
+    }
+    
+    /**
+     * List all the rules matching a search, only the fields of the search are filled in.
+     * @param query the search, its fields being null to get the whole rules
+     * @param concurrency the maximum number of pages fetched at the same time, 1 or less means sequential
+     * @return the list of rules matching the search
+     * @throws UnirestException if the Unirest has failed
+     */
+    public static List<SonarRule> listRules(RulesQuery query, int concurrency) throws UnirestException{
+        return listRules(query, concurrency, null);
+    }
+    
+    /**
+     * List all the rules matching a search, resuming from the pages kept in a journal.
+     * @param query the search, its fields being null to get the whole rules
+     * @param concurrency the maximum number of pages fetched at the same time, 1 or less means sequential
+     * @param journal the journal keeping the fetched pages, null for none
+     * @return the list of rules matching the search
+     * @throws UnirestException if the Unirest has failed
+     */
+    public static List<SonarRule> listRules(RulesQuery query, int concurrency, PageJournal journal) throws UnirestException{
+        return listRules(query, FetchController.fixed(concurrency), journal);
+    }
+    
+    /**
+     * List all the rules matching a search, the controller deciding the pages in flight and their sizes.
+     * @param query the search, its fields being null to get the whole rules
+     * @param controller the controller of the pages in flight and their sizes
+     * @param journal the journal keeping the fetched pages, null for none
+     * @return the list of rules matching the search
+     * @throws UnirestException if the Unirest has failed
+     */
+    public static List<SonarRule> listRules(RulesQuery query, FetchController controller, PageJournal journal) throws UnirestException{
         // Keep the whole rules catalog, as responses to query will be paginated
         final RulesExtract wholeCatalog = new RulesExtract();
+        wholeCatalog.setTotal(streamRules(query, controller, journal, wholeCatalog.getRules()::add));
+        return wholeCatalog.getRules();
+    }
+    
+    /**
+     * Stream all the rules for the given languages from the given repository starting from a given date.
+     * The first page is fetched alone to learn the total, the remaining pages are then fetched on a 
+     * bounded pool of workers, at most concurrency pages ahead of the consumer. 
+     * The rules are handed over in the page order whatever the concurrency.
+     * @param uri the SonarQube rule repository
+     * @param language the target language identifier. If there are multiples, the various identifiers will be separated by a comma.
+     * @param from the cut-off date, only rules created earlier on will be selected in the result 
+     * @param concurrency the maximum number of pages fetched at the same time, 1 or less means sequential
+     * @param consumer the consumer receiving each rule, always called from the calling thread
+     * @return the total number of rules announced by the search
+     * @throws UnirestException if the Unirest has failed
+     */
+    public static int streamRules(String uri, String language, LocalDate from, int concurrency, Consumer<SonarRule> consumer) throws UnirestException{
+        return streamRules(new RulesQuery(uri, language, from), concurrency, consumer);
+    }
+    
+    /**
+     * Stream all the rules matching a search, only the fields of the search are filled in.
+     * @param query the search, its fields being null to get the whole rules
+     * @param concurrency the maximum number of pages fetched at the same time, 1 or less means sequential
+     * @param consumer the consumer receiving each rule, always called from the calling thread
+     * @return the total number of rules announced by the search
+     * @throws UnirestException if the Unirest has failed
+     */
+    public static int streamRules(RulesQuery query, int concurrency, Consumer<SonarRule> consumer) throws UnirestException{
+        return streamRules(query, concurrency, null, consumer);
+    }
+    
+    /**
+     * Stream all the rules matching a search, the pages already kept in the journal are read from it instead of the network.
+     * The journal is completed, hence deleted, once every page was handed over.
+     * @param query the search, its fields being null to get the whole rules
+     * @param concurrency the maximum number of pages fetched at the same time, 1 or less means sequential
+     * @param journal the journal keeping the fetched pages, null for none
+     * @param consumer the consumer receiving each rule, always called from the calling thread
+     * @return the total number of rules announced by the search
+     * @throws UnirestException if the Unirest has failed
+     */
+    public static int streamRules(RulesQuery query, int concurrency, PageJournal journal, Consumer<SonarRule> consumer) throws UnirestException{
+        return streamRules(query, FetchController.fixed(concurrency), journal, consumer);
+    }
+    
+    /**
+     * Stream all the rules matching a search, the controller deciding the pages in flight and their sizes.
+     * The pages already kept in the journal are read from it instead of the network, and the journal is 
+     * completed, hence deleted, once every page was handed over.
+     * @param query the search, its fields being null to get the whole rules
+     * @param controller the controller of the pages in flight and their sizes
+     * @param journal the journal keeping the fetched pages, null for none
+     * @param consumer the consumer receiving each rule, always called from the calling thread
+     * @return the total number of rules announced by the search
+     * @throws UnirestException if the Unirest has failed
+     */
+    public static int streamRules(RulesQuery query, FetchController controller, PageJournal journal, Consumer<SonarRule> consumer) throws UnirestException{
+        // The first page gives the total, hence the number of pages to fetch
+        final int firstSize = controller.pageSizeAt(0);
+        final RulesPageDecoder.PageInfo first = fetchPage(query, 0, firstSize, null, controller, consumer);
+        final int total = first.getTotal();
+        if(journal != null){
+            try{
+                final int journaled = journal.open(total);
+                if(journaled > 0){
+                    LOGGER.info(String.format("Resuming with %s pages from the checkpoint %s", journaled, journal.getDirectory()));
+                }
+            }catch(IOException e){
+                throw new UnirestException(e);
+            }
+        }
         
-        int page = 0;
-        final int pageSize = 500;
-        int totalPage = 0;
-        do{
-            page++;
-            // Build a query with the laguage
-            HttpRequest request = Unirest.get(uri).queryString("languages",language).queryString("ps", pageSize).queryString("p", page);
-            
-            if(from!=null){
-                request = request.queryString("available_since", from.format(DateTimeFormatter.ISO_LOCAL_DATE.withZone(ZoneId.of("UTC"))));
+        // Pages are walked by offset, so their size may change from one page to the next
+        int offset = firstSize;
+        if(controller.getMaxConcurrency() <= 1 || total <= offset + firstSize){
+            while(offset < total){
+                final int pageSize = nextPageSize(controller, journal, offset);
+                fetchPage(query, offset, pageSize, journal, controller, consumer);
+                offset += pageSize;
             }
-            final HttpResponse<RulesExtract> bookResponse = request.asObject(RulesExtract.class);
-            
-            RulesExtract extract = bookResponse.getBody();
-            wholeCatalog.setP(extract.getP());
-            wholeCatalog.setTotal(extract.getTotal());
-            wholeCatalog.getRules().addAll(extract.getRules());
-
-            // Let's refresh the total page count
-            totalPage = extract.getTotal()/pageSize;
-        }while(page<=totalPage);
+            completeJournal(journal);
+            return total;
+        }
         
-        return wholeCatalog.getRules();
+        // The pages in flight hold no thread, only their decoding does
+        final ExecutorService decoders = Executors.newFixedThreadPool(Math.min(controller.getMaxConcurrency(), Runtime.getRuntime().availableProcessors()));
+        final Deque<CompletableFuture<List<SonarRule>>> pending = new ArrayDeque<>(controller.getMaxConcurrency());
+        try{
+            // Keep a sliding window of pages in flight, and hand them over in the page order
+            while(offset < total || !pending.isEmpty()){
+                while(offset < total && pending.size() < controller.getConcurrency()){
+                    final int pageSize = nextPageSize(controller, journal, offset);
+                    pending.add(fetchPageAsync(query, offset, pageSize, journal, controller, decoders));
+                    offset += pageSize;
+                }
+                awaitPage(pending.poll()).forEach(consumer);
+            }
+        }finally{
+            pending.forEach(page -> page.cancel(true));
+            decoders.shutdownNow();
+        }
+        
+        if(controller.isAdaptive()){
+            LOGGER.info(String.format("Adaptive fetch of %s ended with %s", query.getUri(), controller));
+        }
+        completeJournal(journal);
+        return total;
+    }
+    
+    /**
+     * Give the size of the page starting at an offset, the one of the journal when it holds that page
+     */
+    private static int nextPageSize(FetchController controller, PageJournal journal, int offset){
+        final int journaled = journal != null ? journal.sizeAt(offset) : 0;
+        return journaled > 0 ? journaled : controller.pageSizeAt(offset);
+    }
+    
+    private static void completeJournal(PageJournal journal) throws UnirestException{
+        if(journal == null){
+            return;
+        }
+        try{
+            journal.complete();
+        }catch(IOException e){
+            throw new UnirestException(e);
+        }
+    }
+    
+    /**
+     * Fetch a single page of the search result, the rules are decoded from the response stream as they come.
+     * A page kept in the journal is read from it, a fetched page is added to it once decoded.
+     * @param query the search
+     * @param offset the number of rules before the page, a multiple of the page size
+     * @param pageSize the number of rules per page
+     * @param journal the journal keeping the fetched pages, null for none
+     * @param controller the controller told about the answers, might be null
+     * @param consumer the consumer receiving each rule of the page in order
+     * @return the pagination information of the page
+     * @throws UnirestException if the request has failed or the page could not be decoded
+     */
+    static RulesPageDecoder.PageInfo fetchPage(RulesQuery query, int offset, int pageSize, PageJournal journal, FetchController controller, Consumer<SonarRule> consumer) throws UnirestException{
+        if(journal != null && journal.sizeAt(offset) == pageSize){
+            return readJournaledPage(journal, offset, pageSize, consumer);
+        }
+        final RulesTransport.Response response = awaitPage(requestPage(query, offset, pageSize, controller));
+        return decodePage(response, offset, pageSize, journal, consumer);
+    }
+    
+    /**
+     * Fetch a single page of the search result without waiting for it. 
+     * The page is decoded by the given executor once it has arrived, or read from the journal when it holds it.
+     * @param query the search
+     * @param offset the number of rules before the page, a multiple of the page size
+     * @param pageSize the number of rules per page
+     * @param journal the journal keeping the fetched pages, null for none
+     * @param controller the controller told about the answers
+     * @param decoders the executor decoding the page
+     * @return the future rules of the page, in order
+     */
+    static CompletableFuture<List<SonarRule>> fetchPageAsync(RulesQuery query, int offset, int pageSize, PageJournal journal, FetchController controller, Executor decoders){
+        final List<SonarRule> rules = new ArrayList<>(pageSize);
+        if(journal != null && journal.sizeAt(offset) == pageSize){
+            return CompletableFuture.supplyAsync(() -> {
+                try{
+                    readJournaledPage(journal, offset, pageSize, rules::add);
+                }catch(UnirestException e){
+                    throw new CompletionException(e);
+                }
+                return rules;
+            }, decoders);
+        }
+        final CompletableFuture<RulesTransport.Response> request = requestPage(query, offset, pageSize, controller);
+        final CompletableFuture<List<SonarRule>> page = request.thenApplyAsync(response -> {
+            try{
+                decodePage(response, offset, pageSize, journal, rules::add);
+            }catch(UnirestException e){
+                throw new CompletionException(e);
+            }
+            return rules;
+        }, decoders);
+        // Cancelling a page does not reach the request it depends on, its retries would go on without it
+        page.whenComplete((decoded, error) -> request.cancel(true));
+        return page;
+    }
+    
+    private static RulesPageDecoder.PageInfo readJournaledPage(PageJournal journal, int offset, int pageSize, Consumer<SonarRule> consumer) throws UnirestException{
+        try(InputStream in = journal.read(offset)){
+            return RulesPageDecoder.decode(in, consumer);
+        }catch(IOException e){
+            throw new UnirestException(String.format("Page %s of the checkpoint %s could not be read, delete it to fetch again : %s", offset / pageSize + 1, journal.getDirectory(), e.getMessage()));
+        }
     }
     
+    /**
+     * Send the request of a search page thru the transport, with its retries
+     * @param query the search
+     * @param offset the number of rules before the page, a multiple of the page size
+     * @param pageSize the number of rules per page
+     * @param controller the controller told about the answers, might be null
+     * @return the future successful response
+     */
+    static CompletableFuture<RulesTransport.Response> requestPage(RulesQuery query, int offset, int pageSize, FetchController controller){
+        // Build a query with the laguage
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("languages", query.getLanguage());
+        parameters.put("ps", pageSize);
+        parameters.put("p", offset / pageSize + 1);
+        if(query.getFrom()!=null){
+            parameters.put("available_since", query.getFrom().format(DateTimeFormatter.ISO_LOCAL_DATE.withZone(ZoneId.of("UTC"))));
+        }
+        if(query.getFields()!=null){
+            // Only the displayed fields travel, the rest of the rule is left empty
+            parameters.put("f", String.join(",", query.getFields()));
+        }
+        return send(getTransport(), query.getUri(), parameters, offset / pageSize + 1, pageSize, controller != null ? controller : FetchController.fixed(1));
+    }
+    
+    /**
+     * Decode a fetched page, and add it to the journal.
+     * The page metrics take the latency of the successful attempt and the size of the body as it came, gzipped or not.
+     */
+    private static RulesPageDecoder.PageInfo decodePage(RulesTransport.Response response, int offset, int pageSize, PageJournal journal, Consumer<SonarRule> consumer) throws UnirestException{
+        final int page = offset / pageSize + 1;
+        final long decoding = System.nanoTime();
+        try{
+            if(journal == null){
+                final RulesPageDecoder.PageInfo info = RulesPageDecoder.decode(response.getBody(), consumer);
+                ExtractionMetrics.get().recordPage(page, response.getLatencyNanos(), response.getReceivedLength(), System.nanoTime() - decoding, info.getCount());
+                return info;
+            }
+            // The response is already buffered, keeping a copy only costs the copy
+            final byte[] body = readFully(response.getBody());
+            final RulesPageDecoder.PageInfo info = RulesPageDecoder.decode(new ByteArrayInputStream(body), consumer);
+            ExtractionMetrics.get().recordPage(page, response.getLatencyNanos(), response.getReceivedLength(), System.nanoTime() - decoding, info.getCount());
+            journal.write(offset, pageSize, body);
+            return info;
+        }catch(IOException e){
+            throw new UnirestException(e);
+        }
+    }
+    
+    /**
+     * Send a search request, trying again on network failures and on the statuses of an overloaded server or proxy.
+     * No thread waits for the answers, a retry is scheduled after its delay.
+     * @param transport the transport sending the request
+     * @param uri the SonarQube rule repository
+     * @param parameters the query parameters
+     * @param page the page number
+     * @param pageSize the number of rules per page
+     * @param controller the controller told about each attempt
+     * @return the future successful response, failing with a UnirestException when the request has still failed 
+     * after the retries, or failed with a status not worth retrying
+     */
+    static CompletableFuture<RulesTransport.Response> send(RulesTransport transport, String uri, Map<String, Object> parameters, int page, int pageSize, FetchController controller){
+        final CompletableFuture<RulesTransport.Response> result = new CompletableFuture<>();
+        attempt(transport, uri, parameters, page, pageSize, controller, retryPolicy, 1, result);
+        return result;
+    }
+    
+    private static void attempt(RulesTransport transport, String uri, Map<String, Object> parameters, int page, int pageSize, 
+            FetchController controller, RetryPolicy policy, int attempt, CompletableFuture<RulesTransport.Response> result){
+        if(result.isDone()){
+            // Cancelled while waiting for the retry
+            return;
+        }
+        final long started = System.nanoTime();
+        transport.get(uri, parameters).whenComplete((response, error) -> {
+            if(result.isDone()){
+                // Cancelled while the request was in flight, there is nothing to retry
+                return;
+            }
+            final String failure;
+            String retryAfter = null;
+            if(error == null){
+                if(response.getStatus() < 400){
+                    response.setSentAt(started);
+                    controller.onSuccess(started, response.getLatencyNanos(), pageSize);
+                    result.complete(response);
+                    return;
+                }
+                failure = String.format("Page %s of %s failed with HTTP status %s", page, uri, response.getStatus());
+                if(!RetryPolicy.isRetryable(response.getStatus())){
+                    result.completeExceptionally(new UnirestException(failure));
+                    return;
+                }
+                controller.onFailure(started, response.getStatus());
+                if(!policy.canRetry(attempt)){
+                    result.completeExceptionally(new UnirestException(failure));
+                    return;
+                }
+                retryAfter = RetryPolicy.header(response.getHeaders(), "Retry-After");
+            }else{
+                // Network failures, such as a refused connection or a timeout, have no status
+                final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                controller.onFailure(started, 0);
+                if(!policy.canRetry(attempt)){
+                    result.completeExceptionally(new UnirestException(cause instanceof Exception ? (Exception) cause : new IOException(cause)));
+                    return;
+                }
+                failure = String.format("Page %s of %s failed : %s", page, uri, cause.getMessage());
+            }
+            
+            final long delay = policy.delayMillis(attempt, retryAfter);
+            if(delay < 0){
+                result.completeExceptionally(new UnirestException(String.format("%s, the server asks to retry after %s", failure, retryAfter)));
+                return;
+            }
+            LOGGER.warning(String.format("%s, attempt %s of %s in %s ms", failure, attempt + 1, policy.getRetries() + 1, delay));
+            ExtractionMetrics.get().recordRetry();
+            RETRIES.schedule(() -> attempt(transport, uri, parameters, page, pageSize, controller, policy, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+    
+    private static byte[] readFully(InputStream in) throws IOException{
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        final byte[] buffer = new byte[8192];
+        int read;
+        while((read = in.read(buffer)) >= 0){
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+    
+    /**
+     * Compute the number of pages required to hold all the rules
+     * @param total the total number of rules
+     * @param pageSize the number of rules per page
+     * @return the number of pages, at least 1
+     */
+    static int pageCount(int total, int pageSize){
+        return Math.max(1, (total + pageSize - 1) / pageSize);
+    }
+    
+    /**
+     * Wait for a page fetched by a worker and rethrow its failure as it would have been on the sequential path
+     * @param <T> the page content type
+     * @param page the pending page
+     * @return the page content
+     * @throws UnirestException if the page could not be fetched
+     */
+    static <T> T awaitPage(Future<T> page) throws UnirestException{
+        try{
+            return page.get();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new UnirestException(e);
+        }catch(ExecutionException e){
+            final Throwable cause = e.getCause();
+            if(cause instanceof UnirestException){
+                throw (UnirestException) cause;
+            }
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            throw new UnirestException(e);
+        }
+    }
+    
+    public static final int SUCCESS_EXIT_CODE = 0;
     public static final int NO_RULES_EXIT_CODE = 3;
     public static final int USAGE_EXIT_CODE = 2;
     public static final String ROOT_LOGGER = "" ;
@@ -154,6 +688,13 @@ public class RulesExtractor {
             System.exit(USAGE_EXIT_CODE);
         }
         
+        // The output is only optional for the extractions served by ExtractorService
+        if(extractor.getOutputPath() == null){
+            LOGGER.severe("The output path -o is required");
+            commander.usage();
+            System.exit(USAGE_EXIT_CODE);
+        }
+        
         // Change the level of the root handlers to INFO if verbose was set
         if(extractor.isVerbose()){
             final Handler[] handlers = Logger.getLogger( ROOT_LOGGER ).getHandlers();
@@ -175,169 +716,507 @@ public class RulesExtractor {
         // Let's try to init the headers with default values if there was none set as parameters
         extractor.tryInitDefaultHeaders();        
         
-        final List<SonarRule> rules = extractor.extractRules();
-        
+        final ExtractionMetrics metrics = ExtractionMetrics.get();
+        if(extractor.getMetricsDirectory() != null){
+            metrics.enable();
+        }
+        final long started = System.nanoTime();
+        final int exitCode;
+        try{
+            exitCode = extractor.extract(metrics, started);
+        }finally{
+            if(metrics.isEnabled()){
+                metrics.recordPhase(ExtractionMetrics.TOTAL_PHASE, System.nanoTime() - started);
+                metrics.write(extractor.getMetricsDirectory());
+            }
+        }
+        // Only exit once the metrics are written
+        if(exitCode != SUCCESS_EXIT_CODE){
+            System.exit(exitCode);
+        }
+                
+        //FileOutputStream outputStream = new FileOutputStream("C:\\tmp\\tmp-dass\\test-abap.xlsx");
+        //extractor.generateExcelTable(rules, Arrays.asList("id","key","status","name","createdAt","langName","htmlDesc","severity","status","sysTags","type","source","category","automated","remFnType","remFnBaseEffort","repo","comment") , outputStream);
+    }
+    
+    /**
+     * Run the extraction asked by the options
+     * @param metrics the metrics of the run
+     * @param started the start of the run, from System.nanoTime
+     * @return the exit code of the run
+     * @throws Exception if the extraction has failed
+     */
+    int extract(ExtractionMetrics metrics, long started) throws Exception{
+        // The changes between two catalogs
+        if(!getDiffSources().isEmpty()){
+            final CatalogDiff diff = generateDiff();
+            metrics.recordPhase(ExtractionMetrics.PIPELINE_PHASE, System.nanoTime() - started);
+            LOGGER.info(String.format("There was %s rules added, %s changed and %s removed", diff.getAddedCount(), diff.getChangedCount(), diff.getRemovedCount()));
+            return SUCCESS_EXIT_CODE;
+        }
         
+        // Rules queried from a columnar snapshot
+        if(getQueryPath() != null){
+            final List<SonarRule> rules = queryRules();
+            metrics.recordPhase(ExtractionMetrics.FETCH_PHASE, System.nanoTime() - started);
+            LOGGER.info(String.format("There was %s rules found", rules.size()));
+            final long writing = System.nanoTime();
+            generate(rules);
+            metrics.recordPhase(ExtractionMetrics.WRITE_PHASE, System.nanoTime() - writing);
+            return SUCCESS_EXIT_CODE;
+        }
         
+        // One merged catalog from several instances
+        if(getSearchUris().size() > 1){
+            final RulesFederation federation = extractFederated();
+            metrics.recordPhase(ExtractionMetrics.FETCH_PHASE, System.nanoTime() - started);
+            LOGGER.info(String.format("There was %s distinct rules found", federation.getRules().size()));
+            final long writing = System.nanoTime();
+            generate(federation);
+            metrics.recordPhase(ExtractionMetrics.WRITE_PHASE, System.nanoTime() - writing);
+            return SUCCESS_EXIT_CODE;
+        }
+
+        // One extraction and one sheet per language
+        if(isSplitLanguages()){
+            final Map<String, List<SonarRule>> rulesByLanguage = extractRulesByLanguage();
+            metrics.recordPhase(ExtractionMetrics.FETCH_PHASE, System.nanoTime() - started);
+            rulesByLanguage.forEach((lang, rules) -> LOGGER.info(String.format("There was %s %s rules found", rules.size(), lang)));
+            final long writing = System.nanoTime();
+            try{
+                generateByLanguage(rulesByLanguage);
+            }finally{
+                RulesSpool.release(rulesByLanguage.values());
+            }
+            metrics.recordPhase(ExtractionMetrics.WRITE_PHASE, System.nanoTime() - writing);
+            return SUCCESS_EXIT_CODE;
+        }
+
+        // Write the rules while the later pages are still downloading, a cached catalog is already local
+        if(getQueueCapacity() > 0 && getCacheDirectory() == null && getSnapshotPath() == null && !isGroupByRelease()){
+            final int count = pipelineRules();
+            metrics.recordPhase(ExtractionMetrics.PIPELINE_PHASE, System.nanoTime() - started);
+            LOGGER.info(String.format("There was %s rules found", count));
+            return SUCCESS_EXIT_CODE;
+        }
+
+        final List<SonarRule> rules = extractRules();
+        metrics.recordPhase(ExtractionMetrics.FETCH_PHASE, System.nanoTime() - started);
+
+
+
         if(rules==null){
             LOGGER.warning("Empty rules list, can not generate anything");
-            System.exit(NO_RULES_EXIT_CODE);
-            return;
+            return NO_RULES_EXIT_CODE;
         }
         LOGGER.info(String.format("There was %s rules found", rules.size()));
-        
-        /*
-        rules.stream().forEach((r)->{
-            System.out.printf("%s\n", r.getKey());
-        });
-        */
-        
-        extractor.generateExcel(rules);
-                
-        //FileOutputStream outputStream = new FileOutputStream("C:\\tmp\\tmp-dass\\test-abap.xlsx");
-        //extractor.generateExcelTable(rules, Arrays.asList("id","key","status","name","createdAt","langName","htmlDesc","severity","status","sysTags","type","source","category","automated","remFnType","remFnBaseEffort","repo","comment") , outputStream);
+        try{
+            if(getSnapshotPath() != null){
+                saveSnapshot(rules);
+            }
+
+            /*
+            rules.stream().forEach((r)->{
+                System.out.printf("%s\n", r.getKey());
+            });
+            */
+
+            final long writing = System.nanoTime();
+            generate(rules);
+            metrics.recordPhase(ExtractionMetrics.WRITE_PHASE, System.nanoTime() - writing);
+        }finally{
+            RulesSpool.release(Collections.singletonList(rules));
+        }
+        return SUCCESS_EXIT_CODE;
     }
     
-    static final DateTimeFormatter RELEASE_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MMM-d").withLocale(Locale.US);
-    
-    static void createSonarRelease(Map<String,LocalDate> releases, String version, String releaseDate){
-        releases.put(version, LocalDate.parse(releaseDate, RELEASE_DATE_FORMATTER));
-    }
-    
-    static Map<String,LocalDate> sonarQubeReleases(){
-        Map<String, LocalDate> releases = new HashMap<>();
-createSonarRelease(releases,"6.3.1","2017-Apr-12");
-createSonarRelease(releases,"6.3","2017-Mar-14");
-createSonarRelease(releases,"5.6.6","2017-Feb-17");
-createSonarRelease(releases,"5.6.5","2017-Jan-19");
-createSonarRelease(releases,"5.6.4","2016-Dec-12");
-createSonarRelease(releases,"5.6.3","2016-Oct-4");
-createSonarRelease(releases,"5.6.2","2016-Sep-19");
-createSonarRelease(releases,"5.6.1","2016-Jul-27");
-createSonarRelease(releases,"5.6","2016-Jun-3");
-createSonarRelease(releases,"6.2","2016-Dec-14");
-createSonarRelease(releases,"6.1","2016-Oct-13");
-createSonarRelease(releases,"6.0","2016-Aug-4");
-createSonarRelease(releases,"5.5","2016-May-3");
-createSonarRelease(releases,"5.4","2016-Mar-9");
-createSonarRelease(releases,"5.3","2016-Jan-11");
-createSonarRelease(releases,"5.2","2015-Nov-2");
-createSonarRelease(releases,"5.1.2","2015-Jul-27");
-createSonarRelease(releases,"5.1.1","2015-Jun-5");
-createSonarRelease(releases,"5.0.1","2015-Feb-24");
-createSonarRelease(releases,"5.0","2015-Jan-14");
-createSonarRelease(releases,"4.5.7","2016-Apr-8");
-createSonarRelease(releases,"4.5.6","2015-Oct-16");
-createSonarRelease(releases,"4.5.5","2015-Jul-30");
-createSonarRelease(releases,"4.5.4","2015-Feb-26");
-createSonarRelease(releases,"4.5.2","2015-Jan-7");
-createSonarRelease(releases,"4.5.1","2014-Oct-29");
-createSonarRelease(releases,"4.5","2014-Sep-29");
-createSonarRelease(releases,"4.4.1","2014-Sep-26");
-createSonarRelease(releases,"4.4","2014-Jul-31");
-createSonarRelease(releases,"4.3.3","2014-Jul-31");
-createSonarRelease(releases,"4.3.2","2014-Jun-24");
-createSonarRelease(releases,"4.3.1","2014-Jun-4");
-createSonarRelease(releases,"4.3","2014-May-2");
-createSonarRelease(releases,"4.2","2014-Mar-26");
-createSonarRelease(releases,"4.1.2","2014-Feb-20");
-createSonarRelease(releases,"4.1.1","2014-Jan-28");
-createSonarRelease(releases,"4.1","2014-Jan-13");
-createSonarRelease(releases,"4.0","2013-Nov-7");
-createSonarRelease(releases,"3.7.4","2013-Dec-20");
-createSonarRelease(releases,"3.7.3","2013-Oct-21");
-createSonarRelease(releases,"3.7.2","2013-Oct-2");
-createSonarRelease(releases,"3.7.1","2013-Sep-23");
-createSonarRelease(releases,"3.7","2013-Aug-14");
-createSonarRelease(releases,"3.6.3","2013-Aug-14");
-createSonarRelease(releases,"3.6.2","2013-Jul-18");
-createSonarRelease(releases,"3.6.1","2013-Jul-12");
-createSonarRelease(releases,"3.6","2013-Jun-26");
-createSonarRelease(releases,"3.5.1","2013-Apr-3");
-createSonarRelease(releases,"3.5","2013-Mar-13");
-createSonarRelease(releases,"3.4.1","2013-Jan-8");
-createSonarRelease(releases,"3.4","2012-Dec-22");
-createSonarRelease(releases,"3.3.2","2012-Nov-21");
-createSonarRelease(releases,"3.3.1","2012-Nov-07");
-createSonarRelease(releases,"3.3","2012-Oct-24");
-createSonarRelease(releases,"3.2.1","2012-Oct-3");
-createSonarRelease(releases,"3.2","2012-Aug-6");
-createSonarRelease(releases,"3.1.1","2012-Jun-25");
-createSonarRelease(releases,"3.1","2012-Jun-13");
-createSonarRelease(releases,"3.0.1","2012-May-14");
-createSonarRelease(releases,"3.0","2012-Apr-17");
-createSonarRelease(releases,"2.14","2012-Mar-19");
-createSonarRelease(releases,"2.13.1","2012-Jan-31");
-createSonarRelease(releases,"2.12","2011-Nov-30");
-createSonarRelease(releases,"2.11","2011-Oct-3");
-createSonarRelease(releases,"2.10","2011-Aug-18");
-createSonarRelease(releases,"2.9","2011-Jul-18");
-createSonarRelease(releases,"2.8","2011-May-19");
-createSonarRelease(releases,"2.7","2011-Apr-1");
-createSonarRelease(releases,"2.6","2011-Feb-18");
-createSonarRelease(releases,"2.5","2011-Jan-14");
-createSonarRelease(releases,"2.4.1","2010-Nov-18");
-createSonarRelease(releases,"2.3.1","2010-Oct-22");
-createSonarRelease(releases,"2.2","2010-Jul-15");
-createSonarRelease(releases,"2.1.2","2010-May-20");
-createSonarRelease(releases,"2.0.1","2010-Mar-10");
-createSonarRelease(releases,"1.12","2009-Dec-7");
-createSonarRelease(releases,"1.11.1","2009-Oct-20");
-createSonarRelease(releases,"1.11","2009-Oct-5");
-createSonarRelease(releases,"1.10.1","2009-Aug-19");
-createSonarRelease(releases,"1.10","2009-Aug-14");
-createSonarRelease(releases,"1.9.2","2009-Jun-8");
-createSonarRelease(releases,"1.9","2009-May-25");
-createSonarRelease(releases,"1.8","2009-Apr-17");
-createSonarRelease(releases,"1.7","2009-Mar-18");
-createSonarRelease(releases,"1.6","2009-Feb-9");
-createSonarRelease(releases,"1.5.1","2009-Jan-8");
-createSonarRelease(releases,"1.5","2008-Dec-16");
-createSonarRelease(releases,"1.4.3","2008-Oct-16");
-createSonarRelease(releases,"1.4.2","2008-Sep-25");
-createSonarRelease(releases,"1.4.1","2008-Aug-23");
-createSonarRelease(releases,"1.4","2008-Aug-7");
-createSonarRelease(releases,"1.3","2008-Jun-16");
-createSonarRelease(releases,"1.2.1","2008-Apr-30");
-createSonarRelease(releases,"1.2","2008-Mar-26");
-createSonarRelease(releases,"1.1","2008-Feb-25");
-createSonarRelease(releases,"1.0.2","2007-Dec-14");
-
-        return releases;
+    /**
+     * @return the index of the SonarQube releases
+     */
+    static ReleaseIndex sonarQubeReleases(){
+        return ReleaseIndex.sonarQube();
     }
     
+    @Parameter(names = "-transport", description = "How the search pages are fetched : async, non blocking with pooled keep-alive connections and gzipped responses, or unirest, blocking a thread per page in flight. By default, async.", converter = TransportConverter.class)
+    private RulesTransport.Kind transportKind = RulesTransport.Kind.ASYNC;
+    
+    @Parameter(names = "-timeout", description = "Number of seconds a search page may stay silent before its request fails, and is tried again when -retries allows it.")
+    private int timeout = RulesTransport.DEFAULT_TIMEOUT_SECONDS;
+    
     public static final String PUBLIC_SONAR_SEARCH_URI = "https://sonarqube.com/api/rules/search";
     
     public List<SonarRule> extractRules() throws Exception{
         return extractRules(getSearchUri(),getLanguage(),getLocalDate());
     }
     
-    public List<SonarRule> extractRules(String uri, String lang, LocalDate from) throws Exception{
-                // Only one time
-        Unirest.setObjectMapper(new ObjectMapper() {
-            private com.fasterxml.jackson.databind.ObjectMapper jacksonObjectMapper
-                        = new com.fasterxml.jackson.databind.ObjectMapper();
-
-            @Override
-            public <T> T readValue(String value, Class<T> valueType) {
-                try {
-                    return jacksonObjectMapper.readValue(value, valueType);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+    public static final int DEFAULT_MAX_PER_ROUTE = 20;
+    
+    /**
+     * Set up the HTTP client for the required concurrency
+     * @param parallelRequests the maximum number of requests sent at the same time
+     */
+    void configureClient(int parallelRequests){
+        synchronized(RulesExtractor.class){
+            if(!getTransportKind().isInstance(transport)){
+                setTransport(getTransportKind().create());
+            }
+            // Let the concurrent pages have a connection each
+            transport.configure(Math.max(DEFAULT_MAX_PER_ROUTE, parallelRequests), getTimeout());
+        }
+        setRetryPolicy(new RetryPolicy(getRetries()));
+    }
+    
+    /**
+     * @return a new controller of the pages in flight, adaptive when required
+     */
+    FetchController createController(){
+        return isAdaptive() ? FetchController.adaptive(getMaxConcurrency()) : FetchController.fixed(getConcurrency());
+    }
+    
+    /**
+     * Give the journal of a search when checkpoints are enabled
+     * @param query the search
+     * @return the journal, null when there is no checkpoint directory
+     */
+    PageJournal createJournal(RulesQuery query){
+        return getCheckpointDirectory() != null ? new PageJournal(getCheckpointDirectory(), query) : null;
+    }
+    
+    /**
+     * Fetch and write the rules at the same time thru a bounded queue
+     * @return the number of rules written
+     * @throws Exception if the fetch or the writing has failed
+     */
+    public int pipelineRules() throws Exception{
+        configureClient(getMaxConcurrency());
+        final RulesQuery query = new RulesQuery(getSearchUri(), getLanguage(), getLocalDate(), getFields());
+        return writeTarget(out -> {
+            try(RuleSink sink = createSink(out)){
+                return RulesPipeline.run(query, createController(), createJournal(query), getQueueCapacity(), sink);
+            }
+        });
+    }
+    
+    /**
+     * Create the sink writing the rules in the output format
+     * @param output the target stream
+     * @return a sink writing the headers in the output
+     */
+    public RuleSink createSink(OutputStream output) throws IOException{
+        return createSink(selectColumns(), output);
+    }
+    
+    /**
+     * @return the columns of the displayed headers, the description being converted to plain text when asked
+     */
+    List<Bean2Excel.Column<SonarRule>> selectColumns(){
+        return RuleColumns.select(getHeaders(), isDescriptionText());
+    }
+    
+    /**
+     * Create the sink writing the columns in the output format.
+     * The flat formats do not touch any POI class, so POI is only loaded for a workbook.
+     * @param columns the displayed columns
+     * @param output the target stream
+     * @return a sink writing the columns in the output
+     * @throws IOException if the sink could not start writing
+     */
+    public RuleSink createSink(List<Bean2Excel.Column<SonarRule>> columns, OutputStream output) throws IOException{
+        switch(getFormat()){
+            case CSV:
+                return new CsvRuleSink(columns, output);
+            case NDJSON:
+                return new NdjsonRuleSink(columns, output);
+            default:
+                return new ExcelRuleSink(columns, getRowWindow(), output, false);
+        }
+    }
+    
+    public List<SonarRule> extractRules(String uri, String lang, LocalDate from) throws Exception{
+        configureClient(getMaxConcurrency());
+        return fetchRules(uri, lang, from);
+    }
+    
+    /**
+     * Extract the rules from every search URI concurrently and merge them by key.
+     * An instance that fails or does not answer before the instance timeout is left out of the merge.
+     * @return the merged catalog
+     * @throws Exception if no instance could be extracted
+     */
+    public RulesFederation extractFederated() throws Exception{
+        final List<String> uris = getSearchUris();
+        configureClient(getMaxConcurrency() * uris.size());
+        
+        // Daemon workers, so an instance left behind does not hold the JVM
+        final ExecutorService executor = Executors.newFixedThreadPool(uris.size(), runnable -> {
+            final Thread thread = new Thread(runnable, "rules-instance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try{
+            final Map<String, CompletableFuture<List<SonarRule>>> pending = new LinkedHashMap<>();
+            for(String uri : uris){
+                pending.put(uri, CompletableFuture.supplyAsync(() -> {
+                    try{
+                        return fetchRules(uri, getLanguage(), getLocalDate());
+                    }catch(Exception e){
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+            
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(getInstanceTimeout());
+            final RulesFederation federation = new RulesFederation(getHeaders());
+            final Map<String, String> labels = RulesFederation.labels(uris);
+            int merged = 0;
+            for(Map.Entry<String, CompletableFuture<List<SonarRule>>> entry : pending.entrySet()){
+                final String instance = labels.get(entry.getKey());
+                try{
+                    final List<SonarRule> rules = getInstanceTimeout() > NO_INSTANCE_TIMEOUT
+                            ? entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                            : entry.getValue().get();
+                    federation.add(instance, rules);
+                    // The merged catalog keeps its own rules
+                    RulesSpool.release(Collections.singletonList(rules));
+                    merged++;
+                    LOGGER.info(String.format("Merged %s rules from %s", rules.size(), instance));
+                }catch(TimeoutException e){
+                    // Not cancelled, a cancelled future drops the late catalog and its spilled chunks with it.
+                    // The worker is interrupted on shutdown, a catalog it still completes is released.
+                    entry.getValue().whenComplete((late, error) -> {
+                        if(late != null){
+                            RulesSpool.release(Collections.singletonList(late));
+                        }
+                    });
+                    LOGGER.warning(String.format("Instance %s did not answer within %s seconds, it is left out", instance, getInstanceTimeout()));
+                }catch(ExecutionException e){
+                    LOGGER.log(Level.WARNING, String.format("Instance %s has failed, it is left out", instance), e.getCause());
+                }
+            }
+            if(merged == 0){
+                throw new UnirestException("No instance could be extracted");
+            }
+            return federation;
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Extract the rules of each language of the language option on its own, all the languages in parallel
+     * @return the rules by language, in the order of the language option
+     * @throws Exception if an extraction has failed
+     */
+    public Map<String, List<SonarRule>> extractRulesByLanguage() throws Exception{
+        final List<String> languages = splitLanguages(getLanguage());
+        configureClient(getMaxConcurrency() * languages.size());
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, languages.size()));
+        try{
+            final Map<String, Future<List<SonarRule>>> pending = new LinkedHashMap<>();
+            for(String lang : languages){
+                pending.put(lang, executor.submit(() -> fetchRules(getSearchUri(), lang, getLocalDate())));
+            }
+            final Map<String, List<SonarRule>> rulesByLanguage = new LinkedHashMap<>();
+            for(Map.Entry<String, Future<List<SonarRule>>> entry : pending.entrySet()){
+                rulesByLanguage.put(entry.getKey(), awaitPage(entry.getValue()));
+            }
+            return rulesByLanguage;
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Compare the two catalogs of the diff option and write the change report.
+     * The former catalog is indexed, the latter one is compared rule by rule as it is read or fetched.
+     * @return the diff
+     * @throws Exception if a catalog could not be read or the report could not be written
+     */
+    public CatalogDiff generateDiff() throws Exception{
+        final List<String> sources = getDiffSources();
+        configureClient(getMaxConcurrency());
+        final CatalogDiff diff = new CatalogDiff(getHeaders());
+        readCatalog(sources.get(0), diff::addBefore);
+        LOGGER.info(String.format("Indexed %s rules from %s", diff.getBeforeCount(), sources.get(0)));
+        
+        if(getFormat() != OutputFormat.XLSX){
+            LOGGER.warning("The change report is always written as a workbook");
+        }
+        return writeTarget(out -> {
+            try(DiffReport report = new DiffReport(ExcelRuleSink.createWorkbook(getRowWindow()), getHeaders(), diff, sources.get(0), sources.get(1), out)){
+                readCatalog(sources.get(1), report::accept);
+            }
+            return diff;
+        });
+    }
+    
+    /**
+     * Read a catalog, either fetched from a search URI or read from a snapshot, keeping the rules created from the date option
+     * @param source the search URI or the snapshot file
+     * @param consumer the consumer receiving each rule
+     * @throws Exception if the catalog could not be fetched or read
+     */
+    void readCatalog(String source, Consumer<SonarRule> consumer) throws Exception{
+        if(source.startsWith("http://") || source.startsWith("https://")){
+            streamRules(new RulesQuery(source, getLanguage(), getLocalDate(), getFields()), createController(), null, consumer);
+            return;
+        }
+        final Predicate<SonarRule> createdFrom = RulesCache.createdFrom(getLocalDate());
+        RulesSnapshot.read(Paths.get(source), rule -> {
+            if(createdFrom.test(rule)){
+                consumer.accept(rule);
+            }
+        });
+    }
+    
+    /**
+     * Save the fetched catalog to the snapshot file
+     * @param rules the rules
+     * @throws IOException if the snapshot could not be written
+     */
+    public void saveSnapshot(List<SonarRule> rules) throws IOException{
+        LOGGER.info(String.format("Saving %s rules to the snapshot %s", rules.size(), getSnapshotPath()));
+        try(RuleSink snapshot = RulesSnapshot.create(getSnapshotPath())){
+            for(SonarRule rule : rules){
+                snapshot.accept(rule);
+            }
+        }
+    }
+    
+    /**
+     * Query the columnar snapshot of the query option. The column filters are answered from the mapped file,
+     * then only the matching rules are read and filtered by date.
+     * @return the matching rules, in the snapshot order
+     * @throws IOException if the snapshot could not be read
+     */
+    public List<SonarRule> queryRules() throws IOException{
+        final ColumnarSnapshot snapshot = ColumnarSnapshot.open(getQueryPath());
+        final Map<String, Set<String>> filters = getFilters();
+        if(!filters.containsKey("lang")){
+            filters.put("lang", new LinkedHashSet<>(splitLanguages(getLanguage())));
+        }
+        final BitSet selected = snapshot.select(filters);
+        LOGGER.info(String.format("Selected %s of the %s rules of %s", selected.cardinality(), snapshot.getRowCount(), getQueryPath()));
+        final Predicate<SonarRule> createdFrom = RulesCache.createdFrom(getLocalDate());
+        final List<SonarRule> rules = new ArrayList<>(selected.cardinality());
+        snapshot.read(selected, rule -> {
+            if(createdFrom.test(rule)){
+                rules.add(rule);
+            }
+        });
+        return rules;
+    }
+    
+    /**
+     * Group the where option values by column
+     * @return the accepted values by column name
+     * @throws ParameterException if a filter is not a column=value pair
+     */
+    Map<String, Set<String>> getFilters(){
+        final Map<String, Set<String>> filters = new LinkedHashMap<>();
+        for(String filter : getWhere()){
+            final int equal = filter.indexOf('=');
+            if(equal <= 0){
+                throw new ParameterException(String.format("The filter %s is not a column=value pair", filter));
+            }
+            filters.computeIfAbsent(filter.substring(0, equal).trim(), column -> new LinkedHashSet<>()).add(filter.substring(equal + 1).trim());
+        }
+        return filters;
+    }
+    
+    /**
+     * Split the comma separated language codes
+     * @param language the language option value
+     * @return the distinct language codes, in order
+     */
+    static List<String> splitLanguages(String language){
+        return Stream.of(language.split(",")).map(String::trim).filter(l -> !l.isEmpty()).distinct().collect(Collectors.toList());
+    }
+    
+    /**
+     * Give the search fields needed by the displayed headers, along with the creation date when the rules are grouped by release.
+     * The cache and the snapshots keep whole rules for any later headers, so there is no projection when they are used.
+     * @return the search fields, null to fetch the whole rules
+     */
+    List<String> getFields(){
+        if(getCacheDirectory() != null || getSnapshotPath() != null){
+            return null;
+        }
+        List<String> fields = RulesQuery.projectFields(getHeaders());
+        if(isGroupByRelease()){
+            // The release of a rule is found from its creation date, displayed or not
+            fields = RulesQuery.including(fields, CREATED_AT_FIELD);
+        }
+        if(fields == null){
+            LOGGER.info("A displayed header can not be projected, the whole rules will be fetched");
+        }else{
+            LOGGER.fine(String.format("Fetching the fields %s only", fields));
+        }
+        return fields;
+    }
+    
+    /**
+     * Fetch the rules, thru the cache when there is one
+     * @param uri the SonarQube rule repository
+     * @param lang the target language identifier(s)
+     * @param from the cut-off date, might be null
+     * @return the rules
+     * @throws Exception if the fetch has failed
+     */
+    List<SonarRule> fetchRules(String uri, String lang, LocalDate from) throws Exception{
+        return fetchRules(new RulesQuery(uri, lang, from, getFields()));
+    }
+    
+    /**
+     * @return the memory budget shared by the rules lists of this extraction
+     */
+    synchronized RulesSpool.Budget getBudget(){
+        if(budget == null){
+            budget = new RulesSpool.Budget(getMemoryBudget() * 1024L * 1024L);
+        }
+        return budget;
+    }
+    
+    /**
+     * Fetch the rules of a search, thru the cache when there is one.
+     * With a memory budget, the rules beyond it are spilled to disk, the list has then to be released with RulesSpool.release.
+     * @param query the search
+     * @return the rules
+     * @throws Exception if the fetch has failed
+     */
+    List<SonarRule> fetchRules(RulesQuery query) throws Exception{
+        if(getCacheDirectory() != null){
+            final RulesCache cache = new RulesCache(getCacheDirectory(), Duration.ofHours(getCacheMaxAge()));
+            final List<SonarRule> rules = cache.listRules(query.getUri(), query.getLanguage(), query.getFrom(), getConcurrency(), isInvalidateCache());
+            if(isCompact()){
+                rules.forEach(RuleStore::compact);
             }
+            return rules;
+        }
 
-            @Override
-            public String writeValue(Object value) {
-                try {
-                    return jacksonObjectMapper.writeValueAsString(value);
-                } catch (JsonProcessingException e) {
-                    throw new RuntimeException(e);
-                }
+        if(getMemoryBudget() > NO_MEMORY_BUDGET){
+            // Spilled page by page once the budget is exhausted, the whole catalog is never held
+            final RulesSpool rules = new RulesSpool(getBudget());
+            try{
+                streamRules(query, createController(), createJournal(query), rule -> rules.add(isCompact() ? RuleStore.compact(rule) : rule));
+            }catch(Exception e){
+                rules.close();
+                throw e;
             }
-        });
-        
-        return listRules(uri, lang, from);
+            LOGGER.info(String.format("%s of the %s rules were spilled to disk", rules.getSpilledCount(), rules.size()));
+            return rules;
+        }
+
+        if(isCompact()){
+            // Compacted as each page is decoded, the whole catalog is never held expanded
+            final List<SonarRule> rules = new ArrayList<>();
+            streamRules(query, createController(), createJournal(query), rule -> rules.add(RuleStore.compact(rule)));
+            return rules;
+        }
+
+        // The pages are decoded from the response stream by RulesPageDecoder and its shared mapper
+        return listRules(query, createController(), createJournal(query));
         
         //final Instant cutInstant = Instant.parse("2016-09-01T00:00:00Z");
         
@@ -365,6 +1244,7 @@ createSonarRelease(releases,"1.0.2","2007-Dec-14");
      * @param klass the target class
      * @return a Map of PropertyDescriptor for a given class
      * @throws IntrospectionException when trying to introspect the
+     * @see Bean2Excel for the cached and compiled accessors used by the writers
      */
     public static Map<String, PropertyDescriptor> getProperties(Class<?> klass) throws IntrospectionException{
         final PropertyDescriptor[] properties = Introspector.getBeanInfo(klass).getPropertyDescriptors();        
@@ -373,160 +1253,299 @@ createSonarRelease(releases,"1.0.2","2007-Dec-14");
     
     public static final int HEADER_ROW_NUM = 0;
     
+    /**
+     * The search field of the rule creation dates, from which the releases are found and the dates filtered locally
+     */
+    public static final String CREATED_AT_FIELD = "createdAt";
+    
     
     public void generateExcel(List<SonarRule> rules, List<String> headers, OutputStream output) throws Exception{
-        final Map<String, PropertyDescriptor> properties = getProperties(SonarRule.class);
-        
-        // Remove the fake properties class
-        properties.remove("class");
-        
-        Map<String, PropertyDescriptor> displayedProperties = new LinkedHashMap<>();
-        
-        if(headers!=null){
-            for(String header: headers){
-                final PropertyDescriptor descriptor = properties.get(header);
-                //if(descriptor!=null){
-                    // Only add a descriptor if the required column was found
-                    displayedProperties.put(header, descriptor);
-                //}
-            }
-        }
-        
-        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
-            
-            final XSSFCreationHelper createHelper = workbook.getCreationHelper();
-            final XSSFCellStyle cellStyle = workbook.createCellStyle();
-            cellStyle.setDataFormat(createHelper.createDataFormat().getFormat("yyyy-mm-dd"));
-            
-            final XSSFSheet sheet = (XSSFSheet) workbook.createSheet("Rules");
-            
-            int rowIndex = HEADER_ROW_NUM;
-            final XSSFRow header = sheet.createRow(rowIndex++);
-            int columnIndex = 0;
-            for(String v : displayedProperties.keySet()){
-                header.createCell(columnIndex++).setCellValue(v);
-            }
-            
+        try(ExcelRuleSink sink = new ExcelRuleSink(RuleColumns.select(headers), getRowWindow(), output, false)){
             for(SonarRule rule : rules){
-                columnIndex = 0;
-                final XSSFRow currentRow = sheet.createRow(rowIndex++);
-                for(String property : displayedProperties.keySet()){
-                    final Object value = getBeanProperty(rule,displayedProperties,property);
-                    final XSSFCell cell = currentRow.createCell(columnIndex++);
-                    if(value instanceof Date){
-                        cell.setCellStyle(cellStyle);
-                        cell.setCellValue((Date)value);
-                    }else{
-                        cell.setCellValue(value != null ? value.toString() : null);
-                    }                           
-                            
-                }
+                sink.accept(rule);
             }
-            
-            workbook.write(output);
         }
-        
     }
 
     public static final String DEFAULT_FILE_SUFFIX = ".xlsx";
     public static final String DEFAULT_FILE_PREFIX = "extract-";
     
+    public void generateExcel(RulesFederation federation) throws Exception{
+        writeTarget(out -> {
+            try(ExcelRuleSink sink = new ExcelRuleSink(federation.getColumns(selectColumns()), getRowWindow(), out, false)){
+                for(SonarRule rule : federation.getRules()){
+                    sink.accept(rule);
+                }
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * Write the rules in the output format
+     * @param rules the rules
+     * @throws Exception if the output could not be generated
+     */
+    public void generate(List<SonarRule> rules) throws Exception{
+        if(isGroupByRelease()){
+            generateByRelease(rules);
+            return;
+        }
+        generate(rules, selectColumns());
+    }
+    
+    /**
+     * Write the rules grouped by the release they were introduced in, oldest release first.
+     * The rules created after the last known release come last.
+     * @param rules the rules
+     * @throws Exception if the output could not be generated
+     */
+    public void generateByRelease(List<SonarRule> rules) throws Exception{
+        generateByRelease(Collections.singletonList(rules));
+    }
+    
+    /**
+     * Write several lists of rules grouped together by the release they were introduced in
+     * @param sources the rules, such as the rules of each language
+     * @throws Exception if the output could not be generated
+     */
+    void generateByRelease(Collection<List<SonarRule>> sources) throws Exception{
+        final Map<String, List<SonarRule>> byRelease = new LinkedHashMap<>();
+        try{
+            groupByRelease(sources, byRelease);
+            if(getFormat() == OutputFormat.XLSX){
+                writeTarget(out -> {
+                    generateExcelByGroup(byRelease, ReleaseIndex.RELEASE_HEADER, selectColumns(), out);
+                    return null;
+                });
+                return;
+            }
+            generate(byRelease.values(), selectColumns());
+        }finally{
+            RulesSpool.release(byRelease.values());
+        }
+    }
+    
+    /**
+     * Group rules by the release they were introduced in, oldest release first and the unreleased rules last.
+     * A group is only created once one of its rules is found, spooled in the same budget when the rules are.
+     * @param sources the rules
+     * @param byRelease the map receiving the groups, to be released by the caller even on failure
+     */
+    static void groupByRelease(Collection<List<SonarRule>> sources, Map<String, List<SonarRule>> byRelease){
+        final ReleaseIndex releases = ReleaseIndex.sonarQube();
+        final Bean2Excel.Column<SonarRule> createdAt = Bean2Excel.of(SonarRule.class).getColumn(CREATED_AT_FIELD);
+        for(List<SonarRule> rules : sources){
+            for(SonarRule rule : rules){
+                final Object created = createdAt != null ? createdAt.get(rule) : null;
+                final String release = created instanceof Date ? releases.introducedIn((Date) created) : null;
+                byRelease.computeIfAbsent(release != null ? release : UNRELEASED, r -> RulesSpool.like(rules)).add(rule);
+            }
+        }
+        // Put the groups back in the release order, the map keeping the same groups
+        final Map<String, List<SonarRule>> found = new LinkedHashMap<>(byRelease);
+        byRelease.clear();
+        for(String version : releases.getMainline()){
+            final List<SonarRule> group = found.remove(version);
+            if(group != null){
+                byRelease.put(version, group);
+            }
+        }
+        final List<SonarRule> unreleased = found.remove(UNRELEASED);
+        byRelease.putAll(found);
+        if(unreleased != null){
+            byRelease.put(UNRELEASED, unreleased);
+        }
+    }
+    
+    /**
+     * Write a merged catalog in the output format, with the instances and differences columns
+     * @param federation the merged catalog
+     * @throws Exception if the output could not be generated
+     */
+    public void generate(RulesFederation federation) throws Exception{
+        generate(federation.getRules(), federation.getColumns(selectColumns()));
+    }
+    
+    /**
+     * Write the rules of each language in the output format.
+     * A workbook gets one sheet per language, a flat file gets the languages one after the other.
+     * @param rulesByLanguage the rules by language, in order
+     * @throws Exception if the output could not be generated
+     */
+    public void generateByLanguage(Map<String, List<SonarRule>> rulesByLanguage) throws Exception{
+        if(getFormat() == OutputFormat.XLSX){
+            if(isGroupByRelease()){
+                generateExcelByLanguageAndRelease(rulesByLanguage);
+                return;
+            }
+            generateExcelByLanguage(rulesByLanguage);
+            return;
+        }
+        if(isGroupByRelease()){
+            generateByRelease(rulesByLanguage.values());
+            return;
+        }
+        generate(rulesByLanguage.values(), selectColumns());
+    }
+    
+    void generate(List<SonarRule> rules, List<Bean2Excel.Column<SonarRule>> columns) throws Exception{
+        generate(Collections.singletonList(rules), columns);
+    }
+    
+    /**
+     * Write groups of rules one after the other, without gathering them in a single list
+     * @param groups the rules by group, in order
+     * @param columns the displayed columns
+     * @throws Exception if the output could not be generated
+     */
+    void generate(Collection<List<SonarRule>> groups, List<Bean2Excel.Column<SonarRule>> columns) throws Exception{
+        writeTarget(out -> {
+            try(RuleSink sink = createSink(columns, out)){
+                for(List<SonarRule> rules : groups){
+                    for(SonarRule rule : rules){
+                        sink.accept(rule);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+    
     public void generateExcel(List<SonarRule> rules) throws Exception{
         
         // Build the target path, either the indicated file or a file in the 
+        writeTarget(out -> {
+            generateExcel(rules, getHeaders(), out);
+            return null;
+        });
+    }
+    
+    /**
+     * Give the file to generate, either the indicated file or a new file in the indicated directory
+     * @return the target path
+     * @throws IOException if the file could not be created in the directory
+     */
+    Path resolveTargetPath() throws IOException{
         Path targetPath = getOutputPath();
         if (Files.isDirectory(targetPath)){
-         targetPath = Files.createTempFile(targetPath,DEFAULT_FILE_PREFIX,"-"+getLanguage()+DEFAULT_FILE_SUFFIX);
+         targetPath = Files.createTempFile(targetPath,DEFAULT_FILE_PREFIX,"-"+String.join("-", splitLanguages(getLanguage()))+getFormat().getExtension());
         }
-        LOGGER.info(String.format("Generating file %s", targetPath));
-        try(OutputStream out = Files.newOutputStream(targetPath, StandardOpenOption.CREATE)){
-            generateExcel(rules, getHeaders(), out);
-        }        
+        return targetPath;
     }
     
-    public void generateExcelTable(List<SonarRule> rules, List<String> headers, OutputStream output) throws Exception{
-        final Map<String, PropertyDescriptor> properties = getProperties(SonarRule.class);
-        
-        // Remove the fake properties class
-        properties.remove("class");
-        
-        Map<String, PropertyDescriptor> displayedProperties = new LinkedHashMap<>();
+    /**
+     * Writes the content of the output file
+     * @param <T> the outcome of the writing
+     */
+    @FunctionalInterface
+    interface OutputWriter<T>{
         
-        if(headers!=null){
-            for(String header: headers){
-                final PropertyDescriptor descriptor = properties.get(header);
-                //if(descriptor!=null){
-                    // Only add a descriptor if the required column was found
-                    displayedProperties.put(header, descriptor);
-                //}
+        /**
+         * @param output the stream of the output file, it is closed by the caller
+         * @return the outcome of the writing
+         * @throws Exception if the output could not be written
+         */
+        T write(OutputStream output) throws Exception;
+    }
+    
+    /**
+     * Write the output file aside then move it in place, so a failed extraction never leaves an output that looks complete.
+     * The file created in the output directory for the run is deleted on failure, an existing output file is left untouched.
+     * @param <T> the outcome of the writing
+     * @param writer the writer of the content, the sinks it opens have to be closed before it returns
+     * @return the outcome of the writing
+     * @throws Exception if the output could not be written
+     */
+    <T> T writeTarget(OutputWriter<T> writer) throws Exception{
+        final boolean created = Files.isDirectory(getOutputPath());
+        final Path targetPath = resolveTargetPath();
+        LOGGER.info(String.format("Generating file %s", targetPath));
+        boolean written = false;
+        try{
+            final T outcome = AtomicFile.write(targetPath, DEFAULT_FILE_PREFIX, writer::write);
+            written = true;
+            return outcome;
+        }finally{
+            if(created && !written){
+                Files.deleteIfExists(targetPath);
             }
         }
-        
-        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
-            
-            final XSSFCreationHelper createHelper = workbook.getCreationHelper();
-            final XSSFCellStyle cellStyle = workbook.createCellStyle();
-            cellStyle.setDataFormat(createHelper.createDataFormat().getFormat("yyyy-mm-dd"));
-            
-            final XSSFSheet sheet = (XSSFSheet) workbook.createSheet("Rules");
-            
-            //Create 
-            final XSSFTable table = sheet.createTable();
-            table.setDisplayName("Rules");       
-            final CTTable cttable = table.getCTTable();
-
-            //Style configurations
-            final CTTableStyleInfo style = cttable.addNewTableStyleInfo();
-            style.setName("TableStyleMedium2");
-            style.setShowColumnStripes(false);
-            style.setShowRowStripes(true);
-
-            //Set which area the table should be placed in
-            final AreaReference reference = new AreaReference(new CellReference(0, 0), 
-                    new CellReference(rules.size(),displayedProperties.size()-1));
-            cttable.setRef(reference.formatAsString());
-            cttable.setId(1);
-            cttable.setName("Rules");
-            cttable.setTotalsRowCount(rules.size()+1);
-            //cttable.setTotalsRowCount(1);
-            cttable.setHeaderRowCount(1);
-
-            final CTTableColumns columns = cttable.addNewTableColumns();
-            columns.setCount(displayedProperties.size());
-            
-            int columnIndex = 1;
-            for(String v : displayedProperties.keySet()){
-                CTTableColumn column = columns.addNewTableColumn();
-                column.setName(v);
-                column.setId(columnIndex++);
-            }
-            
-            int rowIndex = HEADER_ROW_NUM;
-            final XSSFRow header = sheet.createRow(rowIndex++);
-            columnIndex = 0;
-            for(String v : displayedProperties.keySet()){
-                header.createCell(columnIndex++).setCellValue(v);
+    }
+    
+    public static final String SUMMARY_SHEET_NAME = "Summary";
+    
+    /**
+     * The group of the rules created after the last known release
+     */
+    public static final String UNRELEASED = "unreleased";
+    
+    /**
+     * The header of the sheet names in the summary of a workbook split by language and release
+     */
+    public static final String LANGUAGE_RELEASE_HEADER = "language release";
+    
+    public void generateExcelByLanguage(Map<String, List<SonarRule>> rulesByLanguage) throws Exception{
+        writeTarget(out -> {
+            generateExcelByGroup(rulesByLanguage, "language", selectColumns(), out);
+            return null;
+        });
+    }
+    
+    /**
+     * Write a workbook with one sheet per language and release, the releases of each language in order
+     * @param rulesByLanguage the rules by language, in the sheets order
+     * @throws Exception if the output could not be generated
+     */
+    void generateExcelByLanguageAndRelease(Map<String, List<SonarRule>> rulesByLanguage) throws Exception{
+        final Map<String, List<SonarRule>> groups = new LinkedHashMap<>();
+        try{
+            for(Map.Entry<String, List<SonarRule>> language : rulesByLanguage.entrySet()){
+                final Map<String, List<SonarRule>> byRelease = new LinkedHashMap<>();
+                try{
+                    groupByRelease(Collections.singletonList(language.getValue()), byRelease);
+                }finally{
+                    byRelease.forEach((release, rules) -> groups.put(language.getKey() + ' ' + release, rules));
+                }
             }
-            
+            writeTarget(out -> {
+                generateExcelByGroup(groups, LANGUAGE_RELEASE_HEADER, selectColumns(), out);
+                return null;
+            });
+        }finally{
+            RulesSpool.release(groups.values());
+        }
+    }
+    
+    /**
+     * Generate a workbook with a summary sheet of the rule counts followed by one sheet per language
+     * @param rulesByLanguage the rules by language, in the sheets order
+     * @param headers the displayed headers
+     * @param output the target stream
+     * @throws Exception if the workbook could not be generated
+     */
+    public void generateExcelByLanguage(Map<String, List<SonarRule>> rulesByLanguage, List<String> headers, OutputStream output) throws Exception{
+        generateExcelByGroup(rulesByLanguage, "language", RuleColumns.select(headers), output);
+    }
+    
+    /**
+     * Generate a workbook with a summary sheet of the rule counts followed by one sheet per group
+     * @param groups the rules by group, in the sheets order
+     * @param groupHeader the header of the group names in the summary sheet
+     * @param columns the displayed columns
+     * @param output the target stream
+     * @throws Exception if the workbook could not be generated
+     */
+    void generateExcelByGroup(Map<String, List<SonarRule>> groups, String groupHeader, List<Bean2Excel.Column<SonarRule>> columns, OutputStream output) throws Exception{
+        ExcelRuleSink.writeGroups(groups, groupHeader, columns, getRowWindow(), output);
+    }
+    
+    public void generateExcelTable(List<SonarRule> rules, List<String> headers, OutputStream output) throws Exception{
+        try(ExcelRuleSink sink = new ExcelRuleSink(RuleColumns.select(headers), getRowWindow(), output, true)){
             for(SonarRule rule : rules){
-                columnIndex = 0;
-                final XSSFRow currentRow = sheet.createRow(rowIndex++);
-                for(String property : displayedProperties.keySet()){
-                    final Object value = getBeanProperty(rule,displayedProperties,property);
-                    final XSSFCell cell = currentRow.createCell(columnIndex++);
-                    if(value instanceof Date){
-                        cell.setCellStyle(cellStyle);
-                        cell.setCellValue((Date)value);
-                    }else{
-                        cell.setCellValue(value != null ? value.toString() : null);
-                    }                           
-                            
-                }
+                sink.accept(rule);
             }
-            
-            workbook.write(output);
         }
-        
     }
 
     
@@ -543,10 +1562,52 @@ createSonarRelease(releases,"1.0.2","2007-Dec-14");
     }
 
     /**
-     * @return the searchUri
+     * @return the splitLanguages
+     */
+    public boolean isSplitLanguages() {
+        return splitLanguages;
+    }
+
+    /**
+     * @return the searchUri, the first one when there are several
      */
     public String getSearchUri() {
-        return searchUri;
+        return getSearchUris().get(0);
+    }
+
+    /**
+     * @return the searchUris, the public SonarQube one when none was set
+     */
+    public List<String> getSearchUris() {
+        return searchUris == null || searchUris.isEmpty() ? Arrays.asList(PUBLIC_SONAR_SEARCH_URI) : searchUris;
+    }
+
+    /**
+     * @return the instanceTimeout
+     */
+    public int getInstanceTimeout() {
+        return instanceTimeout;
+    }
+
+    /**
+     * @return the concurrency
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return the adaptive
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return the most pages in flight for a search, -c or its adaptive default
+     */
+    public int getMaxConcurrency() {
+        return isAdaptive() && concurrency <= DEFAULT_CONCURRENCY ? DEFAULT_ADAPTIVE_CONCURRENCY : concurrency;
     }
 
     /**
@@ -563,6 +1624,139 @@ createSonarRelease(releases,"1.0.2","2007-Dec-14");
         return outputPath;
     }
 
+    /**
+     * @return the output format, given by the output path extension when it was not set
+     */
+    public OutputFormat getFormat() {
+        return format != null ? format : OutputFormat.of(getOutputPath());
+    }
+
+    /**
+     * @return the rowWindow
+     */
+    public int getRowWindow() {
+        return rowWindow;
+    }
+
+    /**
+     * @return the queueCapacity
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return the retries
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the memoryBudget, in megabytes
+     */
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the transportKind
+     */
+    public RulesTransport.Kind getTransportKind() {
+        return transportKind;
+    }
+
+    /**
+     * @return the timeout
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return the checkpointDirectory
+     */
+    public Path getCheckpointDirectory() {
+        return checkpointDirectory;
+    }
+
+    /**
+     * @return the snapshotPath
+     */
+    public Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    /**
+     * @return the compact
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @return the descriptionText
+     */
+    public boolean isDescriptionText() {
+        return descriptionText;
+    }
+
+    /**
+     * @return the groupByRelease
+     */
+    public boolean isGroupByRelease() {
+        return groupByRelease;
+    }
+
+    /**
+     * @return the queryPath
+     */
+    public Path getQueryPath() {
+        return queryPath;
+    }
+
+    /**
+     * @return the where filters
+     */
+    public List<String> getWhere() {
+        return where;
+    }
+
+    /**
+     * @return the diffSources
+     */
+    public List<String> getDiffSources() {
+        return diffSources;
+    }
+
+    /**
+     * @return the cacheDirectory
+     */
+    public Path getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * @return the cacheMaxAge
+     */
+    public int getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    /**
+     * @return the invalidateCache
+     */
+    public boolean isInvalidateCache() {
+        return invalidateCache;
+    }
+
+    /**
+     * @return the metricsDirectory
+     */
+    public Path getMetricsDirectory() {
+        return metricsDirectory;
+    }
+
     /**
      * @return the headers
      */
@@ -586,11 +1780,46 @@ createSonarRelease(releases,"1.0.2","2007-Dec-14");
         
     }
     
+    static class TransportConverter implements IStringConverter<RulesTransport.Kind>{
+
+        @Override
+        public RulesTransport.Kind convert(String value) {
+            try{
+                return RulesTransport.Kind.parse(value);
+            }catch(IllegalArgumentException e){
+                throw new ParameterException(String.format("Unknown transport %s, expected one of %s", value, Arrays.toString(RulesTransport.Kind.values())));
+            }
+        }
+        
+    }
+    
+    static class OutputFormatConverter implements IStringConverter<OutputFormat>{
+
+        @Override
+        public OutputFormat convert(String value) {
+            try{
+                return OutputFormat.parse(value);
+            }catch(IllegalArgumentException e){
+                throw new ParameterException(String.format("Unknown output format %s, expected one of %s", value, Arrays.toString(OutputFormat.values())));
+            }
+        }
+        
+    }
+    
     static class LocalDateConverter implements IStringConverter<LocalDate>{
 
         @Override
         public LocalDate convert(String value) {
-            return LocalDate.parse(value);
+            // A release becomes its date, so the search still filters on the server
+            final LocalDate release = ReleaseIndex.sonarQube().dateOf(value);
+            if(release != null){
+                return release;
+            }
+            try{
+                return LocalDate.parse(value);
+            }catch(DateTimeParseException e){
+                throw new ParameterException(String.format("%s is neither a date (yyyy-mm-dd) nor a known SonarQube version", value));
+            }
         }
         
     }
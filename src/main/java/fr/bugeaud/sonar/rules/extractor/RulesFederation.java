@@ -0,0 +1,192 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Merge the catalogs of several SonarQube instances into one, deduplicated by rule key.
+ * The first instance carrying a rule gives the reference values, the other instances are compared
+ * against it on the displayed columns. Each rule is looked up once by key and compared once per column,
+ * so the merge is linear in the number of rules.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RulesFederation {
+
+    public static final String INSTANCES_HEADER = "instances";
+    public static final String DIFFERENCES_HEADER = "differences";
+
+    /**
+     * The database id is specific to each instance, it is never compared
+     */
+    public static final String IGNORED_HEADER = "id";
+
+    private final List<Bean2Excel.Column<SonarRule>> compared;
+    private final Map<String, MergedRule> byKey = new LinkedHashMap<>();
+
+    /**
+     * @param headers the displayed headers, the rules are compared on them
+     */
+    public RulesFederation(List<String> headers){
+        this.compared = new ArrayList<>();
+        for(Bean2Excel.Column<SonarRule> column : RuleColumns.select(headers)){
+            if(!IGNORED_HEADER.equals(column.getName())){
+                compared.add(column);
+            }
+        }
+    }
+
+    /**
+     * The path of the search web service, left out of the labels
+     */
+    static final String SEARCH_PATH = "/api/rules/search";
+
+    /**
+     * Give a short label for an instance, its authority followed by the context path of the server when it has one
+     * @param searchUri the search URI of the instance
+     * @return the label of the instance
+     */
+    public static String label(String searchUri){
+        try{
+            final URI uri = URI.create(searchUri);
+            if(uri.getAuthority() == null){
+                return searchUri;
+            }
+            String path = trimSlashes(uri.getPath() != null ? uri.getPath() : "");
+            if(path.endsWith(SEARCH_PATH)){
+                path = trimSlashes(path.substring(0, path.length() - SEARCH_PATH.length()));
+            }
+            return uri.getAuthority() + path;
+        }catch(IllegalArgumentException e){
+            return searchUri;
+        }
+    }
+
+    private static String trimSlashes(String path){
+        int end = path.length();
+        while(end > 0 && path.charAt(end - 1) == '/'){
+            end--;
+        }
+        return path.substring(0, end);
+    }
+
+    /**
+     * Give a distinct label to each instance, the whole search URI being kept for the instances whose short labels collide,
+     * such as the same server reached thru http and https
+     * @param searchUris the search URIs of the instances
+     * @return the label of each search URI, in order
+     */
+    public static Map<String, String> labels(List<String> searchUris){
+        final Map<String, Integer> counts = new HashMap<>();
+        for(String searchUri : searchUris){
+            counts.merge(label(searchUri), 1, Integer::sum);
+        }
+        final Map<String, String> labels = new LinkedHashMap<>();
+        for(String searchUri : searchUris){
+            final String label = label(searchUri);
+            labels.put(searchUri, counts.get(label) > 1 ? searchUri : label);
+        }
+        return labels;
+    }
+
+    /**
+     * Merge the catalog of an instance
+     * @param instance the instance label
+     * @param rules the rules of the instance
+     */
+    public void add(String instance, List<SonarRule> rules){
+        for(SonarRule rule : rules){
+            final MergedRule merged = byKey.get(rule.getKey());
+            if(merged == null){
+                byKey.put(rule.getKey(), new MergedRule(rule, instance));
+                continue;
+            }
+            merged.instances.add(instance);
+            for(Bean2Excel.Column<SonarRule> column : compared){
+                final Object reference = column.get(merged.rule);
+                final Object value = column.get(rule);
+                if(!Objects.equals(reference, value)){
+                    merged.differ(column.getName(), reference, instance, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the reference rule of each key, in the order they were first merged
+     */
+    public List<SonarRule> getRules(){
+        final List<SonarRule> rules = new ArrayList<>(byKey.size());
+        for(MergedRule merged : byKey.values()){
+            rules.add(merged.rule);
+        }
+        return rules;
+    }
+
+    /**
+     * Give the displayed columns followed by the instances carrying each rule and their differences
+     * @param displayed the displayed columns
+     * @return the columns of the merged catalog
+     */
+    public List<Bean2Excel.Column<SonarRule>> getColumns(List<Bean2Excel.Column<SonarRule>> displayed){
+        final List<Bean2Excel.Column<SonarRule>> columns = new ArrayList<>(displayed);
+        columns.add(Bean2Excel.derived(INSTANCES_HEADER, String.class, rule -> String.join(",", byKey.get(rule.getKey()).instances)));
+        columns.add(Bean2Excel.derived(DIFFERENCES_HEADER, String.class, rule -> byKey.get(rule.getKey()).describeDifferences()));
+        return columns;
+    }
+
+    /**
+     * A rule carried by one or several instances
+     */
+    static class MergedRule {
+        private final SonarRule rule;
+        private final List<String> instances = new ArrayList<>(2);
+        // Only allocated for the few rules that differ between instances
+        private Map<String, Map<String, Object>> differences;
+
+        MergedRule(SonarRule rule, String instance){
+            this.rule = rule;
+            this.instances.add(instance);
+        }
+
+        void differ(String column, Object reference, String instance, Object value){
+            if(differences == null){
+                differences = new LinkedHashMap<>();
+            }
+            final Map<String, Object> values = differences.computeIfAbsent(column, c -> new HashMap<>());
+            values.putIfAbsent(instances.get(0), reference);
+            values.put(instance, value);
+        }
+
+        /**
+         * @return the differing columns with the value of each instance, null when the instances agree
+         */
+        String describeDifferences(){
+            if(differences == null){
+                return null;
+            }
+            final StringBuilder description = new StringBuilder();
+            for(Map.Entry<String, Map<String, Object>> column : differences.entrySet()){
+                if(description.length() > 0){
+                    description.append("; ");
+                }
+                description.append(column.getKey()).append(':');
+                String separator = " ";
+                // Follow the instances order rather than the map one
+                for(String instance : instances){
+                    if(column.getValue().containsKey(instance)){
+                        description.append(separator).append(instance).append('=').append(column.getValue().get(instance));
+                        separator = ", ";
+                    }
+                }
+            }
+            return description.toString();
+        }
+    }
+}
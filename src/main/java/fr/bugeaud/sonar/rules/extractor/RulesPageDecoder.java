@@ -0,0 +1,113 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Decode a page of the SonarQube rules search incrementally.
+ * The rules are bound one by one from the stream and handed to a consumer,
+ * so the page is never held as a whole String nor as a whole list.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RulesPageDecoder {
+
+    /**
+     * The mapper shared by every decoding, it is thread safe once configured
+     */
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final ObjectReader RULE_READER = MAPPER.readerFor(SonarRule.class);
+
+    private RulesPageDecoder(){
+    }
+
+    /**
+     * Decode a search page
+     * @param input the response body, it is closed once decoded
+     * @param consumer the consumer receiving each rule in the page order
+     * @return the pagination information of the page
+     * @throws IOException if the body is not a valid search page
+     */
+    public static PageInfo decode(InputStream input, Consumer<SonarRule> consumer) throws IOException{
+        final PageInfo info = new PageInfo();
+        try(JsonParser parser = MAPPER.getFactory().createParser(input)){
+            if(parser.nextToken() != JsonToken.START_OBJECT){
+                throw new IOException("The search page is not a JSON object");
+            }
+            while(parser.nextToken() == JsonToken.FIELD_NAME){
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                switch(field){
+                    case "total":
+                        info.total = parser.getIntValue();
+                        break;
+                    case "p":
+                        info.p = parser.getIntValue();
+                        break;
+                    case "ps":
+                        info.ps = parser.getIntValue();
+                        break;
+                    case "rules":
+                        if(parser.currentToken() != JsonToken.START_ARRAY){
+                            parser.skipChildren();
+                            break;
+                        }
+                        while(parser.nextToken() == JsonToken.START_OBJECT){
+                            consumer.accept(RULE_READER.readValue(parser));
+                            info.count++;
+                        }
+                        break;
+                    default:
+                        // Facets and other fields are not needed
+                        parser.skipChildren();
+                }
+            }
+        }
+        return info;
+    }
+
+    /**
+     * The pagination information of a decoded page
+     */
+    public static class PageInfo {
+        private int total;
+        private int p;
+        private int ps;
+        private int count;
+
+        /**
+         * @return the total number of rules matching the search
+         */
+        public int getTotal(){
+            return total;
+        }
+
+        /**
+         * @return the page number
+         */
+        public int getP(){
+            return p;
+        }
+
+        /**
+         * @return the page size
+         */
+        public int getPs(){
+            return ps;
+        }
+
+        /**
+         * @return the number of rules decoded in this page
+         */
+        public int getCount(){
+            return count;
+        }
+    }
+}
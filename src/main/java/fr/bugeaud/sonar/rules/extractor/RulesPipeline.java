@@ -0,0 +1,91 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fetch the rules and write them at the same time.
+ * A fetcher thread pushes the decoded rules into a bounded queue that the calling thread drains into a sink.
+ * When the sink is slower than the network, the queue fills up and the fetcher waits, so at most the queue
+ * and the pages in flight are held in memory.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RulesPipeline {
+
+    /**
+     * Marks the end of the stream in the queue, it is never written
+     */
+    private static final SonarRule END_OF_RULES = new SonarRule();
+
+    private RulesPipeline(){
+    }
+
+    /**
+     * Extract the rules into the sink, the sink is not closed
+     * @param query the search
+     * @param controller the controller of the pages in flight and their sizes
+     * @param journal the journal keeping the fetched pages, null for none
+     * @param capacity the number of rules the queue can hold before the fetcher waits
+     * @param sink the sink receiving the rules in the extraction order
+     * @return the number of rules written
+     * @throws Exception if the fetch or the sink has failed
+     */
+    public static int run(RulesQuery query, FetchController controller, PageJournal journal, int capacity, RuleSink sink) throws Exception{
+        final BlockingQueue<SonarRule> queue = new ArrayBlockingQueue<>(capacity);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        final Thread fetcher = new Thread(() -> {
+            try{
+                RulesExtractor.streamRules(query, controller, journal, rule -> put(queue, rule));
+            }catch(Throwable e){
+                // Errors too, else the end of the rules would pass a truncated output for a complete one
+                failure.set(e);
+            }finally{
+                // An interrupted fetcher means the writer has already given up
+                if(!Thread.currentThread().isInterrupted()){
+                    put(queue, END_OF_RULES);
+                }
+            }
+        }, "rules-fetcher");
+        fetcher.setDaemon(true);
+        fetcher.start();
+
+        int count = 0;
+        boolean completed = false;
+        try{
+            SonarRule rule;
+            while((rule = queue.take()) != END_OF_RULES){
+                sink.accept(rule);
+                count++;
+            }
+            completed = true;
+        }finally{
+            if(!completed){
+                // Release the fetcher if it is waiting on a full queue
+                fetcher.interrupt();
+            }
+        }
+
+        final Throwable error = failure.get();
+        if(error instanceof Exception){
+            throw (Exception) error;
+        }
+        if(error != null){
+            throw new ExecutionException("The rules fetcher has failed", error);
+        }
+        return count;
+    }
+
+    private static void put(BlockingQueue<SonarRule> queue, SonarRule rule){
+        try{
+            queue.put(rule);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The rules pipeline was interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A search of the rules of a SonarQube instance : the search URI, the languages, the cut-off date
+ * and the fields to return.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RulesQuery {
+
+    /**
+     * The properties returned by the search whatever the requested fields
+     */
+    static final Set<String> ALWAYS_RETURNED = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("key", "type")));
+
+    /**
+     * The search field (f parameter) returning each rule property
+     */
+    static final Map<String, String> PROPERTY_FIELDS;
+    static {
+        final Map<String, String> fields = new HashMap<>();
+        for(String same : Arrays.asList("name", "createdAt", "updatedAt", "lang", "langName", "htmlDesc", "mdDesc",
+                "severity", "status", "sysTags", "tags", "repo", "isTemplate", "templateKey", "internalKey",
+                "params", "htmlNote", "mdNote", "noteLogin", "isExternal", "scope", "gapDescription",
+                "effortToFixDescription", "remFnOverloaded", "debtOverloaded")){
+            fields.put(same, same);
+        }
+        fields.put("template", "isTemplate");
+        fields.put("external", "isExternal");
+        fields.put("remFnType", "remFn");
+        fields.put("remFnBaseEffort", "remFn");
+        fields.put("remFnGapMultiplier", "remFn");
+        fields.put("defaultRemFnType", "defaultRemFn");
+        fields.put("defaultRemFnBaseEffort", "defaultRemFn");
+        fields.put("defaultRemFnGapMultiplier", "defaultRemFn");
+        fields.put("debtRemFnType", "debtRemFn");
+        fields.put("debtRemFnCoeff", "debtRemFn");
+        fields.put("debtRemFnOffset", "debtRemFn");
+        fields.put("defaultDebtRemFnType", "defaultDebtRemFn");
+        fields.put("defaultDebtRemFnCoeff", "defaultDebtRemFn");
+        fields.put("defaultDebtRemFnOffset", "defaultDebtRemFn");
+        PROPERTY_FIELDS = Collections.unmodifiableMap(fields);
+    }
+
+    private final String uri;
+    private final String language;
+    private final LocalDate from;
+    private final List<String> fields;
+
+    /**
+     * A search returning every field
+     * @param uri the SonarQube rule repository
+     * @param language the target language identifier(s)
+     * @param from the cut-off date, might be null
+     */
+    public RulesQuery(String uri, String language, LocalDate from){
+        this(uri, language, from, null);
+    }
+
+    /**
+     * @param uri the SonarQube rule repository
+     * @param language the target language identifier(s)
+     * @param from the cut-off date, might be null
+     * @param fields the search fields to return, null for all of them
+     */
+    public RulesQuery(String uri, String language, LocalDate from, List<String> fields){
+        this.uri = uri;
+        this.language = language;
+        this.from = from;
+        this.fields = fields;
+    }
+
+    /**
+     * Give the search fields returning the properties displayed under the given headers.
+     * Headers that are not rule properties are left aside, as they would be empty columns anyway.
+     * @param headers the displayed headers
+     * @return the search fields, or null when a displayed property can not be projected and every field is needed
+     */
+    public static List<String> projectFields(List<String> headers){
+        if(headers == null){
+            return null;
+        }
+        final Bean2Excel<SonarRule> engine = Bean2Excel.of(SonarRule.class);
+        final Set<String> projected = new LinkedHashSet<>();
+        for(String header : headers){
+            if(ReleaseIndex.RELEASE_HEADER.equals(header)){
+                // Derived from the creation date
+                projected.add("createdAt");
+                continue;
+            }
+            if(ALWAYS_RETURNED.contains(header) || engine.getColumn(header) == null){
+                continue;
+            }
+            final String field = PROPERTY_FIELDS.get(header);
+            if(field == null){
+                return null;
+            }
+            projected.add(field);
+        }
+        // The key is always returned, an empty projection would return every field
+        if(projected.isEmpty()){
+            projected.add("name");
+        }
+        return new ArrayList<>(projected);
+    }
+
+    /**
+     * Add a search field needed by the extractor itself, such as the creation date grouping or filtering the rules
+     * @param fields the search fields, null for all of them
+     * @param field the needed field
+     * @return the search fields with the needed one, null when every field is returned anyway
+     */
+    public static List<String> including(List<String> fields, String field){
+        if(fields == null || fields.contains(field)){
+            return fields;
+        }
+        final List<String> including = new ArrayList<>(fields);
+        including.add(field);
+        return including;
+    }
+
+    /**
+     * @param language the target language identifier(s)
+     * @return the same search on other languages
+     */
+    public RulesQuery withLanguage(String language){
+        return new RulesQuery(uri, language, from, fields);
+    }
+
+    /**
+     * @param from the cut-off date, might be null
+     * @return the same search with another cut-off date
+     */
+    public RulesQuery withFrom(LocalDate from){
+        return new RulesQuery(uri, language, from, fields);
+    }
+
+    /**
+     * @param uri the SonarQube rule repository
+     * @return the same search on another instance
+     */
+    public RulesQuery withUri(String uri){
+        return new RulesQuery(uri, language, from, fields);
+    }
+
+    /**
+     * @return the search URI
+     */
+    public String getUri(){
+        return uri;
+    }
+
+    /**
+     * @return the language identifier(s)
+     */
+    public String getLanguage(){
+        return language;
+    }
+
+    /**
+     * @return the cut-off date, might be null
+     */
+    public LocalDate getFrom(){
+        return from;
+    }
+
+    /**
+     * @return the search fields, null for all of them
+     */
+    public List<String> getFields(){
+        return fields;
+    }
+}
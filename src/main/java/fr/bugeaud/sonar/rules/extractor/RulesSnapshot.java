@@ -0,0 +1,114 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Save a whole rules catalog to a file, to compare it or extract from it later on without any network.
+ * The file is a single search page holding every rule, gzipped when its name ends with .gz,
+ * so it is written and read back one rule at a time with the search page decoder.
+ * A file name ending with .rules holds a columnar snapshot instead, see ColumnarSnapshot.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RulesSnapshot implements RuleSink {
+
+    public static final String GZIP_SUFFIX = ".gz";
+
+    private final AtomicFile file;
+    private final JsonGenerator generator;
+    private int total = 0;
+    private boolean closed = false;
+
+    /**
+     * Start writing a snapshot, the file only appears once the snapshot is closed
+     * @param path the snapshot file
+     * @throws IOException if the snapshot could not be created
+     */
+    public RulesSnapshot(Path path) throws IOException{
+        this.file = AtomicFile.create(path, "snapshot-");
+        OutputStream out = new BufferedOutputStream(file.newOutputStream());
+        if(isCompressed(path)){
+            out = new GZIPOutputStream(out);
+        }
+        this.generator = RuleStore.EXPANDING_MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.writeStartObject();
+        generator.writeFieldName("rules");
+        generator.writeStartArray();
+    }
+
+    @Override
+    public void accept(SonarRule rule) throws IOException{
+        // The whole rule is bound, a compacted description is written inflated
+        generator.writeObject(rule);
+        total++;
+    }
+
+    @Override
+    public void close() throws IOException{
+        if(closed){
+            return;
+        }
+        closed = true;
+        try{
+            generator.writeEndArray();
+            // The decoder takes the fields in any order, the total is only known at the end
+            generator.writeNumberField("total", total);
+            generator.writeNumberField("p", 1);
+            generator.writeNumberField("ps", total);
+            generator.writeEndObject();
+            generator.close();
+            file.commit();
+        }finally{
+            file.close();
+        }
+    }
+
+    /**
+     * Start writing a snapshot in the format given by its file name
+     * @param path the snapshot file
+     * @return the snapshot sink, the file only appears once it is closed
+     * @throws IOException if the snapshot could not be created
+     */
+    public static RuleSink create(Path path) throws IOException{
+        return ColumnarSnapshot.isColumnar(path) ? new ColumnarSnapshot.Writer(path) : new RulesSnapshot(path);
+    }
+
+    /**
+     * Read the rules of a snapshot one by one
+     * @param path the snapshot file
+     * @param consumer the consumer receiving each rule in the snapshot order
+     * @return the number of rules in the snapshot
+     * @throws IOException if the snapshot could not be read
+     */
+    public static int read(Path path, Consumer<SonarRule> consumer) throws IOException{
+        if(ColumnarSnapshot.isColumnar(path)){
+            final ColumnarSnapshot snapshot = ColumnarSnapshot.open(path);
+            final BitSet every = new BitSet();
+            every.set(0, snapshot.getRowCount());
+            return snapshot.read(every, consumer);
+        }
+        InputStream in = new BufferedInputStream(Files.newInputStream(path));
+        if(isCompressed(path)){
+            in = new GZIPInputStream(in);
+        }
+        return RulesPageDecoder.decode(in, consumer).getCount();
+    }
+
+    static boolean isCompressed(Path path){
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(GZIP_SUFFIX);
+    }
+}
@@ -0,0 +1,456 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A list of rules held within a memory budget, so a catalog of any size is extracted in a fixed heap.
+ * The rules are gathered in chunks, each rule kept in memory being charged to the budget as it is added.
+ * Once the budget is exhausted, the open chunk is streamed to a temporary file as deflated JSON, so a spool
+ * holds no rule beyond its budget however many spools share it. The writers then iterate the list chunk by chunk,
+ * a spilled chunk being read back only while its rules are written, and the size gives the row count without reading anything.
+ * <p>
+ * The rules are added by a single thread, the list can then be read by several threads at once.
+ * Closing the list deletes its temporary file.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RulesSpool extends AbstractList<SonarRule> implements Closeable {
+
+    /**
+     * The number of rules of a chunk, the search page size
+     */
+    public static final int CHUNK_SIZE = RulesExtractor.PAGE_SIZE;
+
+    /**
+     * The heap estimated for a rule besides its values
+     */
+    static final long RULE_OVERHEAD = 64;
+
+    protected static final Logger LOGGER = Logger.getLogger(RulesSpool.class.getName());
+
+    private static final ObjectReader RULE_READER = RulesPageDecoder.MAPPER.readerFor(SonarRule.class);
+
+    private final Budget budget;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private List<SonarRule> current = new ArrayList<>(CHUNK_SIZE);
+    private long currentSize = 0;
+    private int size = 0;
+    private Path file;
+    private FileChannel output;
+    private JsonGenerator spilling;
+    private DeflaterOutputStream spillingOutput;
+    private Deflater spillingDeflater;
+    private int spillingFirst;
+    private int spillingCount;
+    private long spillingOffset;
+    private Chunk cachedChunk;
+    private List<SonarRule> cachedRules;
+
+    /**
+     * @param budget the memory budget, shared with the other lists of the extraction
+     */
+    public RulesSpool(Budget budget){
+        this.budget = budget;
+    }
+
+    /**
+     * Give an empty list for a subset of rules, spooled in the same budget when the rules are
+     * @param rules the rules
+     * @return a new list
+     */
+    static List<SonarRule> like(List<SonarRule> rules){
+        return rules instanceof RulesSpool ? new RulesSpool(((RulesSpool) rules).budget) : new ArrayList<>();
+    }
+
+    /**
+     * Delete the temporary files of spooled lists, the other lists are left untouched
+     * @param lists the lists
+     */
+    static void release(Collection<? extends List<SonarRule>> lists){
+        for(List<SonarRule> rules : lists){
+            if(rules instanceof RulesSpool){
+                ((RulesSpool) rules).close();
+            }
+        }
+    }
+
+    /**
+     * Append a rule, kept in memory while the budget allows it, else streamed to the temporary file
+     * @param index the size of the list, rules are only appended
+     * @param rule the rule
+     * @throws UncheckedIOException if the rule could not be spilled
+     */
+    @Override
+    public void add(int index, SonarRule rule){
+        if(index != size){
+            throw new UnsupportedOperationException("Rules are only appended to a spool");
+        }
+        try{
+            append(rule);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        size++;
+        modCount++;
+    }
+
+    private void append(SonarRule rule) throws IOException{
+        if(spilling == null){
+            final long estimate = estimateSize(rule);
+            if(budget.tryReserve(estimate)){
+                current.add(rule);
+                currentSize += estimate;
+                if(current.size() == CHUNK_SIZE){
+                    chunks.add(new Chunk(size + 1 - CHUNK_SIZE, current, currentSize));
+                    current = new ArrayList<>(CHUNK_SIZE);
+                    currentSize = 0;
+                }
+                return;
+            }
+            // The budget is exhausted, the open chunk moves to the file and the rest of it follows there
+            startSpilling(size - current.size());
+            for(SonarRule kept : current){
+                spill(kept);
+            }
+            budget.release(currentSize);
+            current = new ArrayList<>(CHUNK_SIZE);
+            currentSize = 0;
+        }
+        spill(rule);
+        if(spillingCount == CHUNK_SIZE){
+            endSpilling();
+        }
+    }
+
+    private void startSpilling(int first) throws IOException{
+        if(output == null){
+            // Deleted by close, registering it for the JVM exit would keep its path until then in a long running service
+            file = Files.createTempFile("rules-spool-", ".tmp");
+            output = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            LOGGER.info(String.format("The memory budget is exhausted, the rules beyond %s are spilled to %s", first, file));
+        }
+        spillingOffset = output.size();
+        spillingDeflater = new Deflater(Deflater.BEST_SPEED);
+        spillingOutput = new DeflaterOutputStream(Channels.newOutputStream(output), spillingDeflater, 8192);
+        // The deflated stream is finished by endSpilling, the file stays open for the next chunks
+        spilling = RuleStore.EXPANDING_MAPPER.getFactory().createGenerator(spillingOutput, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        spillingFirst = first;
+        spillingCount = 0;
+    }
+
+    private void spill(SonarRule rule) throws IOException{
+        // Inflated in the file only, the rule may be shared with the memory chunks of other spools
+        spilling.writeObject(rule);
+        spillingCount++;
+    }
+
+    private void endSpilling() throws IOException{
+        try{
+            spilling.close();
+            spillingOutput.finish();
+        }finally{
+            spillingDeflater.end();
+            spilling = null;
+        }
+        chunks.add(new Chunk(spillingFirst, spillingCount, spillingOffset));
+    }
+
+    /**
+     * End the chunk being spilled, a partial one, before its rules are read
+     */
+    private synchronized void endWriting(){
+        if(spilling != null){
+            try{
+                endSpilling();
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public int size(){
+        return size;
+    }
+
+    @Override
+    public synchronized SonarRule get(int index){
+        if(index < 0 || index >= size){
+            throw new IndexOutOfBoundsException(String.format("Index %s out of %s rules", index, size));
+        }
+        endWriting();
+        final int chunkIndex = chunkOf(index);
+        if(chunkIndex < 0){
+            return current.get(index - (size - current.size()));
+        }
+        final Chunk chunk = chunks.get(chunkIndex);
+        if(chunk.rules != null){
+            return chunk.rules.get(index - chunk.first);
+        }
+        // Sequential reads thru the index only load each spilled chunk once
+        if(cachedChunk != chunk){
+            cachedRules = load(chunk);
+            cachedChunk = chunk;
+        }
+        return cachedRules.get(index - chunk.first);
+    }
+
+    /**
+     * @return the index of the sealed chunk holding a rule, -1 for the open chunk
+     */
+    private int chunkOf(int index){
+        int low = 0;
+        int high = chunks.size() - 1;
+        if(high < 0 || index >= chunks.get(high).first + chunks.get(high).count){
+            return -1;
+        }
+        while(low < high){
+            final int middle = (low + high + 1) >>> 1;
+            if(chunks.get(middle).first <= index){
+                low = middle;
+            }else{
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Iterate the rules chunk by chunk, each iterator reading the spilled chunks on its own
+     * @return an iterator over the rules in order
+     */
+    @Override
+    public Iterator<SonarRule> iterator(){
+        endWriting();
+        return new Iterator<SonarRule>() {
+            private int chunkIndex = 0;
+            private Iterator<SonarRule> rules = Collections.emptyIterator();
+            private boolean last = false;
+
+            @Override
+            public boolean hasNext(){
+                while(!rules.hasNext()){
+                    if(chunkIndex < chunks.size()){
+                        final Chunk chunk = chunks.get(chunkIndex++);
+                        rules = (chunk.rules != null ? chunk.rules : load(chunk)).iterator();
+                    }else if(!last){
+                        last = true;
+                        rules = current.iterator();
+                    }else{
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public SonarRule next(){
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                return rules.next();
+            }
+        };
+    }
+
+    /**
+     * Read a spilled chunk back
+     * @throws UncheckedIOException if the chunk could not be read
+     */
+    private List<SonarRule> load(Chunk chunk){
+        final List<SonarRule> rules = new ArrayList<>(chunk.count);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            InputStream in = new InflaterInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(chunk.offset))));
+            MappingIterator<SonarRule> values = RULE_READER.readValues(in)){
+            while(rules.size() < chunk.count && values.hasNextValue()){
+                rules.add(values.nextValue());
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(String.format("The spilled rules %s to %s could not be read back from %s", chunk.first, chunk.first + chunk.count, file), e);
+        }
+        if(rules.size() < chunk.count){
+            throw new UncheckedIOException(new IOException(String.format("The spilled rules %s to %s are truncated in %s", chunk.first, chunk.first + chunk.count, file)));
+        }
+        return rules;
+    }
+
+    /**
+     * @return the number of rules written to the temporary file
+     */
+    public int getSpilledCount(){
+        endWriting();
+        int count = 0;
+        for(Chunk chunk : chunks){
+            if(chunk.rules == null){
+                count += chunk.count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Estimate the heap a rule retains from its values, shared values being counted on every rule
+     * @param rule the rule
+     * @return the estimated bytes
+     */
+    static long estimateSize(SonarRule rule){
+        final Bean2Excel<SonarRule> properties = Bean2Excel.of(SonarRule.class);
+        long estimate = RULE_OVERHEAD;
+        for(String name : properties.getPropertyNames()){
+            estimate += estimateSize(properties.getColumn(name).get(rule));
+        }
+        return estimate;
+    }
+
+    private static long estimateSize(Object value){
+        if(value == null){
+            return 0;
+        }
+        if(value instanceof CharSequence){
+            // A String and its array, two bytes per character as on Java 8
+            return 40 + 2L * ((CharSequence) value).length();
+        }
+        if(value instanceof Collection){
+            long estimate = 32;
+            for(Object element : (Collection<?>) value){
+                estimate += 8 + estimateSize(element);
+            }
+            return estimate;
+        }
+        return 24;
+    }
+
+    /**
+     * Give the budget back and delete the temporary file, the list is then empty
+     */
+    @Override
+    public synchronized void close(){
+        for(Chunk chunk : chunks){
+            if(chunk.rules != null){
+                budget.release(chunk.heapSize);
+            }
+        }
+        budget.release(currentSize);
+        currentSize = 0;
+        if(spilling != null){
+            try{
+                spilling.close();
+            }catch(IOException e){
+                // The file is deleted anyway
+            }finally{
+                spillingDeflater.end();
+                spilling = null;
+            }
+        }
+        chunks.clear();
+        current = new ArrayList<>(0);
+        cachedChunk = null;
+        cachedRules = null;
+        size = 0;
+        modCount++;
+        if(file != null){
+            try{
+                output.close();
+                Files.deleteIfExists(file);
+            }catch(IOException e){
+                LOGGER.warning(String.format("The spilled rules %s could not be deleted : %s", file, e));
+            }
+            file = null;
+            output = null;
+        }
+    }
+
+    /**
+     * Consecutive rules, either in memory or in the temporary file
+     */
+    private static class Chunk {
+        private final int first;
+        private final int count;
+        private final List<SonarRule> rules;
+        private final long heapSize;
+        private final long offset;
+
+        Chunk(int first, List<SonarRule> rules, long heapSize){
+            this.first = first;
+            this.count = rules.size();
+            this.rules = rules;
+            this.heapSize = heapSize;
+            this.offset = -1;
+        }
+
+        Chunk(int first, int count, long offset){
+            this.first = first;
+            this.count = count;
+            this.rules = null;
+            this.heapSize = 0;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * The heap the rules of an extraction may hold, shared by its lists
+     */
+    public static class Budget {
+        private final AtomicLong available;
+
+        /**
+         * @param bytes the estimated bytes of rules kept in memory
+         */
+        public Budget(long bytes){
+            this.available = new AtomicLong(bytes);
+        }
+
+        /**
+         * @param bytes the estimated bytes of a chunk
+         * @return true when the chunk fits in the budget, which is then reserved for it
+         */
+        boolean tryReserve(long bytes){
+            long left;
+            do{
+                left = available.get();
+                if(left < bytes){
+                    return false;
+                }
+            }while(!available.compareAndSet(left, left - bytes));
+            return true;
+        }
+
+        void release(long bytes){
+            available.addAndGet(bytes);
+        }
+
+        /**
+         * @return the estimated bytes not reserved yet
+         */
+        long getAvailable(){
+            return available.get();
+        }
+    }
+}
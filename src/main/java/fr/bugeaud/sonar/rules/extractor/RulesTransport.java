@@ -0,0 +1,154 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The way the search pages travel from the server.
+ * A request is sent without waiting for its answer, the future completing with the response whatever
+ * its status, or exceptionally when the server could not be reached or did not answer in time.
+ * The retries are left to the caller.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public interface RulesTransport extends Closeable {
+
+    public static final int DEFAULT_TIMEOUT_SECONDS = 60;
+
+    public static final int CONNECT_TIMEOUT_SECONDS = 10;
+
+    /**
+     * Send a GET request
+     * @param uri the URI, without any query string
+     * @param parameters the query parameters, in order
+     * @return the future response
+     */
+    CompletableFuture<Response> get(String uri, Map<String, Object> parameters);
+
+    /**
+     * Size the connection pool and set the request timeouts. The pool only grows, so a run configuring
+     * the transport for a smaller extraction does not starve the ones already running.
+     * @param maxConnections the most connections kept open to a server
+     * @param timeoutSeconds the most seconds to wait for the response of a request
+     */
+    void configure(int maxConnections, int timeoutSeconds);
+
+    /**
+     * The available transports
+     */
+    public enum Kind {
+        /**
+         * Non blocking, with pooled keep-alive connections and compressed responses
+         */
+        ASYNC,
+        /**
+         * The blocking Unirest client, one thread waiting per page in flight
+         */
+        UNIREST;
+
+        /**
+         * @return a new transport of this kind
+         */
+        public RulesTransport create(){
+            return this == UNIREST ? new UnirestTransport() : new AsyncHttpTransport();
+        }
+
+        /**
+         * @param transport a transport, might be null
+         * @return true when the transport is of this kind
+         */
+        public boolean isInstance(RulesTransport transport){
+            return this == UNIREST ? transport instanceof UnirestTransport : transport instanceof AsyncHttpTransport;
+        }
+
+        /**
+         * Give the kind of a name, whatever its case
+         * @param name the transport name
+         * @return the kind
+         * @throws IllegalArgumentException if there is no such transport
+         */
+        public static Kind parse(String name){
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * A buffered response. A gzipped body is kept as it came and inflated while it is read, by the
+     * thread decoding the page rather than the one receiving it.
+     */
+    public static class Response {
+        private final int status;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+        private final boolean gzipped;
+        private final long receivedAt = System.nanoTime();
+        private volatile long sentAt = receivedAt;
+
+        /**
+         * @param status the HTTP status
+         * @param headers the headers by name
+         * @param body the body
+         * @param gzipped true when the body is still gzipped
+         */
+        public Response(int status, Map<String, List<String>> headers, byte[] body, boolean gzipped){
+            this.status = status;
+            this.headers = Collections.unmodifiableMap(headers);
+            this.body = body;
+            this.gzipped = gzipped;
+        }
+
+        public int getStatus(){
+            return status;
+        }
+
+        public Map<String, List<String>> getHeaders(){
+            return headers;
+        }
+
+        /**
+         * @return a new stream over the body, inflated when it came gzipped
+         * @throws IOException if the gzip header is invalid
+         */
+        public InputStream getBody() throws IOException{
+            final InputStream in = new ByteArrayInputStream(body);
+            return gzipped ? new GZIPInputStream(in, 8192) : in;
+        }
+
+        /**
+         * @return the number of bytes received for the body, before any inflating
+         */
+        public int getReceivedLength(){
+            return body.length;
+        }
+
+        /**
+         * @return the System.nanoTime() the whole body had been received at
+         */
+        public long getReceivedAt(){
+            return receivedAt;
+        }
+
+        /**
+         * @param sentAt the System.nanoTime() the request of this response was sent at
+         */
+        void setSentAt(long sentAt){
+            this.sentAt = sentAt;
+        }
+
+        /**
+         * @return the time between the sending of the request that got this response and its reception,
+         * leaving out the earlier attempts and the wait for a decoder
+         */
+        public long getLatencyNanos(){
+            return receivedAt - sentAt;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.Unirest;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import com.mashape.unirest.request.HttpRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The search pages fetched thru the global Unirest client, as the extractor always did.
+ * Unirest only blocks, so each page in flight holds a thread of this transport until it is answered.
+ * Unirest asks for gzip and inflates the body itself.
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class UnirestTransport implements RulesTransport {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "rules-unirest");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int maxConnections = RulesExtractor.DEFAULT_MAX_PER_ROUTE;
+    private int timeoutSeconds = -1;
+
+    @Override
+    public CompletableFuture<Response> get(String uri, Map<String, Object> parameters){
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+        executor.execute(() -> {
+            try{
+                HttpRequest request = Unirest.get(uri);
+                for(Map.Entry<String, Object> parameter : parameters.entrySet()){
+                    request = request.queryString(parameter.getKey(), parameter.getValue());
+                }
+                final HttpResponse<InputStream> answer = request.asBinary();
+                response.complete(new Response(answer.getStatus(), new HashMap<>(answer.getHeaders()), readFully(answer.getBody()), false));
+            }catch(UnirestException | IOException | RuntimeException e){
+                response.completeExceptionally(e);
+            }
+        });
+        return response;
+    }
+
+    @Override
+    public synchronized void configure(int maxConnections, int timeoutSeconds){
+        // Unirest pools only a few connections per host, let the concurrent pages have one each
+        if(maxConnections > this.maxConnections){
+            this.maxConnections = maxConnections;
+            Unirest.setConcurrency(Math.max(200, maxConnections), maxConnections);
+        }
+        if(timeoutSeconds != this.timeoutSeconds){
+            this.timeoutSeconds = timeoutSeconds;
+            Unirest.setTimeouts(CONNECT_TIMEOUT_SECONDS * 1000L, timeoutSeconds * 1000L);
+        }
+    }
+
+    @Override
+    public void close(){
+        executor.shutdownNow();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException{
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        final byte[] buffer = new byte[8192];
+        int read;
+        while((read = in.read(buffer)) >= 0){
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
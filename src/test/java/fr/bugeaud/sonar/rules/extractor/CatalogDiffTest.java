@@ -0,0 +1,116 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Compare two catalogs of rules
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class CatalogDiffTest {
+
+    private static final List<String> HEADERS = Arrays.asList("id", "key", "name", "severity");
+
+    @Test
+    public void tellsAddedChangedUnchangedAndRemovedRules() throws IOException{
+        final CatalogDiff diff = new CatalogDiff(HEADERS);
+        diff.addBefore(rule(1, "squid:S1", "First", "MAJOR"));
+        diff.addBefore(rule(2, "squid:S2", "Second", "MINOR"));
+        diff.addBefore(rule(3, "squid:S3", "Third", "INFO"));
+
+        assertEquals(CatalogDiff.Status.UNCHANGED, diff.compareAfter(rule(1, "squid:S1", "First", "MAJOR")));
+        assertEquals(CatalogDiff.Status.CHANGED, diff.compareAfter(rule(2, "squid:S2", "Second", "BLOCKER")));
+        assertEquals(CatalogDiff.Status.ADDED, diff.compareAfter(rule(4, "squid:S4", "Fourth", "MAJOR")));
+
+        assertEquals("severity: MINOR -> BLOCKER", diff.getDifferences("squid:S2"));
+        assertNull(diff.getDifferences("squid:S1"));
+        assertEquals(3, diff.getBeforeCount());
+        assertEquals(1, diff.getAddedCount());
+        assertEquals(1, diff.getChangedCount());
+        assertEquals(1, diff.getUnchangedCount());
+        assertEquals(1, diff.getRemovedCount());
+        assertEquals(Arrays.asList("squid:S3"), keys(diff.getRemoved()));
+    }
+
+    @Test
+    public void ignoresTheInstanceSpecificId() throws IOException{
+        final CatalogDiff diff = new CatalogDiff(HEADERS);
+        diff.addBefore(rule(1, "squid:S1", "First", "MAJOR"));
+        assertEquals(CatalogDiff.Status.UNCHANGED, diff.compareAfter(rule(1001, "squid:S1", "First", "MAJOR")));
+        assertNull(diff.getDifferences("squid:S1"));
+    }
+
+    @Test
+    public void checksTheColumnsWhenTheFingerprintsDiffer() throws IOException{
+        // Every fingerprint differs, the columns still tell the rule has not changed
+        final CatalogDiff diff = new CatalogDiff(HEADERS){
+            private long next = 0;
+
+            @Override
+            long fingerprint(Object[] values){
+                return next++;
+            }
+        };
+        diff.addBefore(rule(1, "squid:S1", "First", "MAJOR"));
+        assertEquals(CatalogDiff.Status.UNCHANGED, diff.compareAfter(rule(1, "squid:S1", "First", "MAJOR")));
+        assertEquals(0, diff.getChangedCount());
+        assertEquals(1, diff.getUnchangedCount());
+        assertNull(diff.getDifferences("squid:S1"));
+    }
+
+    @Test
+    public void fingerprintsSeparateTheColumns(){
+        final CatalogDiff diff = new CatalogDiff(Arrays.asList("key", "name", "severity"));
+        assertEquals(diff.fingerprint(new Object[]{"squid:S1", "ab", "c"}), diff.fingerprint(new Object[]{"squid:S1", "ab", "c"}));
+        assertNotEquals(diff.fingerprint(new Object[]{"squid:S1", "ab", "c"}), diff.fingerprint(new Object[]{"squid:S1", "a", "bc"}));
+        assertNotEquals(diff.fingerprint(new Object[]{"squid:S1", null, "c"}), diff.fingerprint(new Object[]{"squid:S1", "", "c"}));
+    }
+
+    @Test
+    public void removedColumnsReadTheIndexedValues() throws IOException{
+        final CatalogDiff diff = new CatalogDiff(HEADERS);
+        diff.addBefore(rule(7, "squid:S7", "Seventh", "CRITICAL"));
+        final List<SonarRule> removed = new ArrayList<>(diff.getRemoved());
+        assertEquals(1, removed.size());
+        // The removed rule only holds its key, its other values come from the index
+        assertNull(removed.get(0).getName());
+        final List<Object> values = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        for(Bean2Excel.Column<SonarRule> column : diff.getRemovedColumns()){
+            names.add(column.getName());
+            values.add(column.get(removed.get(0)));
+        }
+        assertEquals(HEADERS, names);
+        assertEquals("squid:S7", values.get(1));
+        assertEquals("Seventh", values.get(2));
+        assertEquals("CRITICAL", values.get(3));
+        assertEquals("7", String.valueOf(values.get(0)));
+    }
+
+    private static SonarRule rule(int id, String key, String name, String severity) throws IOException{
+        final ObjectNode tree = RulesPageDecoder.MAPPER.createObjectNode();
+        tree.put("id", id);
+        tree.put("key", key);
+        tree.put("name", name);
+        tree.put("severity", severity);
+        return RulesPageDecoder.MAPPER.treeToValue(tree, SonarRule.class);
+    }
+
+    private static List<String> keys(Iterable<SonarRule> rules){
+        final List<String> keys = new ArrayList<>();
+        for(SonarRule rule : rules){
+            keys.add(rule.getKey());
+        }
+        return keys;
+    }
+}
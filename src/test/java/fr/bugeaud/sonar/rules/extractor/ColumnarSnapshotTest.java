@@ -0,0 +1,181 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.beust.jcommander.ParameterException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Write a columnar snapshot, map it back and query it
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class ColumnarSnapshotTest {
+
+    /**
+     * More than two words of null bitmap
+     */
+    private static final int ROWS = 150;
+
+    private static final String[] SEVERITIES = {"INFO", "MAJOR", "BLOCKER"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ObjectNode> trees = new ArrayList<>();
+    private final List<SonarRule> rules = new ArrayList<>();
+    private ColumnarSnapshot snapshot;
+
+    @Before
+    public void setUp() throws IOException{
+        for(int row = 0; row < ROWS; row++){
+            final ObjectNode tree = RulesPageDecoder.MAPPER.createObjectNode();
+            tree.put("id", row + 1);
+            tree.put("key", "squid:S" + row);
+            tree.put("repo", row % 2 == 0 ? "squid" : "common-java");
+            tree.put("name", "Rule " + row + ", with a comma and éè 🐛");
+            tree.put("createdAt", 1214870400000L + row * 21600000L);
+            // Every seventh rule has neither severity nor type
+            if(row % 7 != 0){
+                tree.put("severity", SEVERITIES[row % SEVERITIES.length]);
+                tree.put("type", row % 5 == 0 ? "VULNERABILITY" : "BUG");
+            }
+            tree.putArray("sysTags").add("cwe").add(row % 3 == 0 ? "cert" : "pitfall");
+            trees.add(tree);
+            rules.add(RulesPageDecoder.MAPPER.treeToValue(tree, SonarRule.class));
+        }
+        final Path path = folder.getRoot().toPath().resolve("catalog" + ColumnarSnapshot.SUFFIX);
+        try(RuleSink writer = RulesSnapshot.create(path)){
+            for(SonarRule rule : rules){
+                writer.accept(rule);
+            }
+        }
+        snapshot = ColumnarSnapshot.open(path);
+    }
+
+    @Test
+    public void everyRowIsReadBack() throws IOException{
+        assertEquals(ROWS, snapshot.getRowCount());
+        for(int row = 0; row < ROWS; row++){
+            final JsonNode written = RulesPageDecoder.MAPPER.valueToTree(rules.get(row));
+            final JsonNode read = RulesPageDecoder.MAPPER.valueToTree(snapshot.read(row));
+            assertEquals("row " + row, written, read);
+        }
+    }
+
+    @Test
+    public void nullValuesStayNull() throws IOException{
+        final JsonNode read = RulesPageDecoder.MAPPER.valueToTree(snapshot.read(70));
+        assertTrue(read.path("severity").isMissingNode() || read.path("severity").isNull());
+        assertTrue(read.path("type").isMissingNode() || read.path("type").isNull());
+        assertEquals("BLOCKER", RulesPageDecoder.MAPPER.valueToTree(snapshot.read(71)).path("severity").asText());
+    }
+
+    @Test
+    public void dictionaryPostingsGiveTheRowsOfEachValue(){
+        for(String severity : SEVERITIES){
+            assertEquals(severity, expected("severity", severity), snapshot.select(filters("severity", severity)));
+        }
+        final BitSet none = new BitSet();
+        assertEquals(none, snapshot.select(filters("severity", "CRITICAL")));
+    }
+
+    @Test
+    public void valuesOfAColumnMatchAnyAndColumnsMatchAll(){
+        final BitSet severe = expected("severity", "MAJOR");
+        severe.or(expected("severity", "BLOCKER"));
+        assertEquals(severe, snapshot.select(filters("severity", "MAJOR", "BLOCKER")));
+
+        final Map<String, Set<String>> both = filters("severity", "MAJOR", "BLOCKER");
+        both.putAll(filters("type", "VULNERABILITY"));
+        severe.and(expected("type", "VULNERABILITY"));
+        assertFalse(severe.isEmpty());
+        assertEquals(severe, snapshot.select(both));
+    }
+
+    @Test
+    public void textAndNumberColumnsAreScanned() throws IOException{
+        final BitSet key = snapshot.select(filters("key", "squid:S42", "squid:S43"));
+        assertEquals(expected("key", "squid:S42", "squid:S43"), key);
+
+        final BitSet id = snapshot.select(filters("id", "1", "150"));
+        final BitSet ends = new BitSet();
+        ends.set(0);
+        ends.set(ROWS - 1);
+        assertEquals(ends, id);
+
+        final List<SonarRule> read = new ArrayList<>();
+        assertEquals(2, snapshot.read(id, read::add));
+        assertEquals("squid:S149", read.get(1).getKey());
+    }
+
+    @Test
+    public void jsonColumnsCanNotBeFiltered(){
+        assertTrue(snapshot.getColumnNames().contains("sysTags"));
+        assertFalse(snapshot.getFilterableColumnNames().contains("sysTags"));
+        assertRejected(filters("sysTags", "cwe"), "sysTags");
+    }
+
+    @Test
+    public void unknownColumnsAreRejected(){
+        assertRejected(filters("severty", "MAJOR"), "severty");
+    }
+
+    @Test
+    public void numberColumnsRejectText(){
+        assertRejected(filters("id", "first"), "first");
+    }
+
+    @Test
+    public void missingRowsAreNotRead() throws IOException{
+        final BitSet beyond = new BitSet();
+        beyond.set(ROWS + 10);
+        assertEquals(0, snapshot.read(beyond, rule -> fail("No rule expected")));
+    }
+
+    private void assertRejected(Map<String, Set<String>> filters, String mentioned){
+        try{
+            snapshot.select(filters);
+            fail("The filter should be rejected");
+        }catch(ParameterException e){
+            assertTrue(e.getMessage(), e.getMessage().contains(mentioned));
+        }
+    }
+
+    private BitSet expected(String field, String... values){
+        final Set<String> accepted = new HashSet<>(Arrays.asList(values));
+        final BitSet rows = new BitSet();
+        for(int row = 0; row < ROWS; row++){
+            final JsonNode value = trees.get(row).get(field);
+            if(value != null && accepted.contains(value.asText())){
+                rows.set(row);
+            }
+        }
+        return rows;
+    }
+
+    private static Map<String, Set<String>> filters(String column, String... values){
+        final Map<String, Set<String>> filters = new LinkedHashMap<>();
+        filters.put(column, new HashSet<>(Arrays.asList(values)));
+        return filters;
+    }
+}
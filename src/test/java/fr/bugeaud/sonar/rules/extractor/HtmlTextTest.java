@@ -0,0 +1,99 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Convert rule descriptions to plain text and truncate them to an Excel cell
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class HtmlTextTest {
+
+    private static final String BUG = "🐛";
+
+    @Test
+    public void nullStaysNull(){
+        assertNull(HtmlText.toText(null));
+        assertNull(HtmlText.truncate(null, 10));
+    }
+
+    @Test
+    public void collapsesWhitespaceOutsidePre(){
+        assertEquals("Avoid this, prefer that.", HtmlText.toText("  <p>Avoid \n\t this,\n   prefer   that.</p>\n"));
+        assertEquals("- one\n- two", HtmlText.toText("<ul>\n  <li>one</li>\n  <li>two</li>\n</ul>"));
+    }
+
+    @Test
+    public void keepsPreAsItIs(){
+        final String html = "<p>Noncompliant code example</p>\n<pre>\nint  a = 1;\n  if (a &lt; 2) {}\n</pre>\n<p>Done</p>";
+        assertEquals("Noncompliant code example\n\nint  a = 1;\n  if (a < 2) {}\n\nDone", HtmlText.toText(html));
+    }
+
+    @Test
+    public void decodesEntities(){
+        assertEquals("a & b <c> \"d\" 'e' fé " + BUG, HtmlText.toText("a &amp; b &lt;c&gt; &quot;d&quot; &apos;e&apos; f&#233; &#x1F41B;"));
+    }
+
+    @Test
+    public void keepsUnknownEntitiesAndAmpersands(){
+        assertEquals("&unknown; & &#xZZ; &#1114112;", HtmlText.toText("&unknown; & &#xZZ; &#1114112;"));
+    }
+
+    @Test
+    public void dropsComments(){
+        assertEquals("Keep this", HtmlText.toText("<p>Keep<!-- <b>dropped</b> a > b --> this</p>"));
+        assertEquals("Keep", HtmlText.toText("Keep<!-- never closed <p>dropped"));
+    }
+
+    @Test
+    public void keepsTextUpToTheCellLength(){
+        final String text = repeat('a', HtmlText.MAX_CELL_LENGTH - 2) + BUG;
+        assertEquals(HtmlText.MAX_CELL_LENGTH, text.length());
+        assertEquals(text, HtmlText.truncate(text, HtmlText.MAX_CELL_LENGTH));
+        assertEquals(text, HtmlText.toText(text, HtmlText.MAX_CELL_LENGTH));
+    }
+
+    @Test
+    public void neverSplitsASurrogatePair(){
+        // The pair straddles the last character kept before the ellipsis
+        final String text = repeat('a', HtmlText.MAX_CELL_LENGTH - 2) + BUG + "tail";
+        final String truncated = HtmlText.truncate(text, HtmlText.MAX_CELL_LENGTH);
+        assertEquals(repeat('a', HtmlText.MAX_CELL_LENGTH - 2) + HtmlText.ELLIPSIS, truncated);
+        assertEquals(truncated, HtmlText.toText(text, HtmlText.MAX_CELL_LENGTH));
+        assertWellFormed(truncated);
+    }
+
+    @Test
+    public void keepsASurrogatePairBeforeTheCut(){
+        final String text = repeat('a', HtmlText.MAX_CELL_LENGTH - 3) + BUG + "tail";
+        final String truncated = HtmlText.truncate(text, HtmlText.MAX_CELL_LENGTH);
+        assertEquals(repeat('a', HtmlText.MAX_CELL_LENGTH - 3) + BUG + HtmlText.ELLIPSIS, truncated);
+        assertEquals(HtmlText.MAX_CELL_LENGTH, truncated.length());
+        assertWellFormed(truncated);
+    }
+
+    private static void assertWellFormed(String text){
+        for(int index = 0; index < text.length(); index++){
+            final char c = text.charAt(index);
+            if(Character.isHighSurrogate(c)){
+                assertTrue(index + 1 < text.length() && Character.isLowSurrogate(text.charAt(index + 1)));
+                index++;
+            }else{
+                assertFalse(Character.isLowSurrogate(c));
+            }
+        }
+    }
+
+    private static String repeat(char c, int count){
+        final StringBuilder text = new StringBuilder(count);
+        for(int index = 0; index < count; index++){
+            text.append(c);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.beust.jcommander.ParameterException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Find the release dates and the releases the rules were introduced in
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class ReleaseIndexTest {
+
+    private final ReleaseIndex sonarQube = ReleaseIndex.sonarQube();
+
+    @Test
+    public void keepsTheMainlineReleasesOnly(){
+        final Map<String, LocalDate> releases = new HashMap<>();
+        releases.put("1.0", LocalDate.of(2020, 1, 1));
+        releases.put("2.0", LocalDate.of(2020, 3, 1));
+        releases.put("1.1", LocalDate.of(2020, 4, 1));
+        releases.put("2.1", LocalDate.of(2020, 5, 1));
+        assertEquals(Arrays.asList("1.0", "2.0", "2.1"), new ReleaseIndex(releases).getMainline());
+    }
+
+    @Test
+    public void leavesOutTheMaintenanceReleasesAfterANewerVersion(){
+        final List<String> mainline = sonarQube.getMainline();
+        assertEquals("1.0.2", mainline.get(0));
+        assertEquals("6.3.1", mainline.get(mainline.size() - 1));
+        assertTrue(mainline.containsAll(Arrays.asList("5.6", "5.6.1", "6.0", "6.1", "6.2", "6.3")));
+        // Shipped after 6.0
+        for(String maintenance : Arrays.asList("5.6.2", "5.6.3", "5.6.4", "5.6.5", "5.6.6", "4.5.7")){
+            assertFalse(maintenance, mainline.contains(maintenance));
+        }
+        // Shipped the same day as a newer version
+        assertFalse(mainline.contains("4.3.3"));
+        assertFalse(mainline.contains("3.6.3"));
+        assertTrue(mainline.contains("4.4"));
+        assertTrue(mainline.contains("3.7"));
+    }
+
+    @Test
+    public void givesTheDateOfEveryVersion(){
+        assertEquals(LocalDate.of(2016, 12, 14), sonarQube.dateOf("6.2"));
+        assertEquals(LocalDate.of(2016, 9, 19), sonarQube.dateOf("5.6.2"));
+        assertNull(sonarQube.dateOf("6.9"));
+    }
+
+    @Test
+    public void introducesARuleInTheFirstReleaseOnOrAfterItsCreation(){
+        assertEquals("6.2", sonarQube.introducedIn(LocalDate.of(2016, 12, 13)));
+        assertEquals("6.2", sonarQube.introducedIn(LocalDate.of(2016, 12, 14)));
+        // 5.6.5 and 5.6.6 were shipped in between, they are not mainline releases
+        assertEquals("6.3", sonarQube.introducedIn(LocalDate.of(2016, 12, 15)));
+        assertEquals("1.0.2", sonarQube.introducedIn(LocalDate.of(2000, 1, 1)));
+        assertEquals("6.3.1", sonarQube.introducedIn(LocalDate.of(2017, 4, 12)));
+        assertNull(sonarQube.introducedIn(LocalDate.of(2017, 4, 13)));
+    }
+
+    @Test
+    public void takesTheCreationDayInUtc(){
+        final Date lastInstant = Date.from(LocalDate.of(2016, 12, 14).atTime(23, 59, 59).toInstant(ZoneOffset.UTC));
+        assertEquals("6.2", sonarQube.introducedIn(lastInstant));
+        final Date nextDay = Date.from(LocalDate.of(2016, 12, 15).atStartOfDay().toInstant(ZoneOffset.UTC));
+        assertEquals("6.3", sonarQube.introducedIn(nextDay));
+        assertNull(sonarQube.introducedIn((Date) null));
+    }
+
+    @Test
+    public void comparesVersionsNumberByNumber(){
+        assertTrue(ReleaseIndex.compareVersions("5.10", "5.9") > 0);
+        assertTrue(ReleaseIndex.compareVersions("5.6.1", "5.6") > 0);
+        assertTrue(ReleaseIndex.compareVersions("4.5.7", "5.0") < 0);
+        assertEquals(0, ReleaseIndex.compareVersions("6.0", "6"));
+    }
+
+    @Test
+    public void convertsAVersionOrADate(){
+        final RulesExtractor.LocalDateConverter converter = new RulesExtractor.LocalDateConverter();
+        assertEquals(LocalDate.of(2016, 12, 14), converter.convert("6.2"));
+        assertEquals(LocalDate.of(2016, 12, 1), converter.convert("2016-12-01"));
+    }
+
+    @Test(expected = ParameterException.class)
+    public void rejectsAnUnknownVersion(){
+        new RulesExtractor.LocalDateConverter().convert("6.9");
+    }
+
+    @Test(expected = ParameterException.class)
+    public void rejectsAMalformedDate(){
+        new RulesExtractor.LocalDateConverter().convert("2016-13-01");
+    }
+}
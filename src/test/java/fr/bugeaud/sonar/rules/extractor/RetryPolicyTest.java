@@ -0,0 +1,115 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decide whether a failed search page is tried again and how long to wait before
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RetryPolicyTest {
+
+    private static final Instant NOW = Instant.parse("2017-04-12T10:00:00Z");
+
+    private static String httpDate(Instant instant){
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(instant.atZone(ZoneOffset.UTC));
+    }
+
+    @Test
+    public void readsARetryAfterInSeconds(){
+        assertEquals(120_000L, RetryPolicy.parseRetryAfter("120", NOW));
+        assertEquals(5_000L, RetryPolicy.parseRetryAfter(" 5 ", NOW));
+        assertEquals(0L, RetryPolicy.parseRetryAfter("-5", NOW));
+        assertEquals(Long.MAX_VALUE, RetryPolicy.parseRetryAfter("99999999999999999", NOW));
+    }
+
+    @Test
+    public void readsARetryAfterAsAnHttpDate(){
+        assertEquals(90_000L, RetryPolicy.parseRetryAfter(httpDate(NOW.plusSeconds(90)), NOW));
+        assertEquals(0L, RetryPolicy.parseRetryAfter(httpDate(NOW.minusSeconds(90)), NOW));
+        assertEquals(30_000L, RetryPolicy.parseRetryAfter("Wed, 12 Apr 2017 10:00:30 GMT", NOW));
+    }
+
+    @Test
+    public void ignoresAMissingOrUnreadableRetryAfter(){
+        assertTrue(RetryPolicy.parseRetryAfter(null, NOW) < 0);
+        assertTrue(RetryPolicy.parseRetryAfter("  ", NOW) < 0);
+        assertTrue(RetryPolicy.parseRetryAfter("soon", NOW) < 0);
+    }
+
+    @Test
+    public void followsTheServerUpToTheCap(){
+        final RetryPolicy policy = new RetryPolicy(3);
+        assertEquals(0L, policy.delayMillis(1, "0"));
+        assertEquals(RetryPolicy.MAX_RETRY_AFTER_MILLIS, policy.delayMillis(1, "300"));
+        assertTrue(policy.delayMillis(1, "301") < 0);
+        assertTrue(policy.delayMillis(1, "99999999999999999") < 0);
+    }
+
+    @Test
+    public void backsOffWithinTheJitterBounds(){
+        final RetryPolicy policy = new RetryPolicy(10, 500L, 4_000L);
+        final long[] ceilings = {500L, 1_000L, 2_000L, 4_000L, 4_000L};
+        for(int attempt = 1; attempt <= ceilings.length; attempt++){
+            final long ceiling = ceilings[attempt - 1];
+            for(int i = 0; i < 1_000; i++){
+                final long delay = policy.delayMillis(attempt, null);
+                assertTrue(attempt + ": " + delay, delay >= ceiling / 2 && delay <= ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void keepsTheCeilingOnLateAttempts(){
+        final RetryPolicy policy = new RetryPolicy(100);
+        for(int i = 0; i < 1_000; i++){
+            final long delay = policy.delayMillis(100, "soon");
+            assertTrue(String.valueOf(delay), delay >= RetryPolicy.DEFAULT_MAX_DELAY_MILLIS / 2 && delay <= RetryPolicy.DEFAULT_MAX_DELAY_MILLIS);
+        }
+    }
+
+    @Test
+    public void countsTheRetries(){
+        final RetryPolicy policy = new RetryPolicy(2);
+        assertTrue(policy.canRetry(1));
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+        assertFalse(RetryPolicy.NONE.canRetry(1));
+        assertEquals(0, new RetryPolicy(-1).getRetries());
+    }
+
+    @Test
+    public void retriesTheTransientStatusesOnly(){
+        for(int status : Arrays.asList(408, 429, 502, 503, 504)){
+            assertTrue(String.valueOf(status), RetryPolicy.isRetryable(status));
+        }
+        for(int status : Arrays.asList(200, 400, 401, 403, 404, 500, 501)){
+            assertFalse(String.valueOf(status), RetryPolicy.isRetryable(status));
+        }
+    }
+
+    @Test
+    public void findsAHeaderWhateverItsCase(){
+        final Map<String, List<String>> headers = new HashMap<>();
+        headers.put(null, Collections.singletonList("HTTP/1.1 503 Service Unavailable"));
+        headers.put("retry-after", Arrays.asList("120", "60"));
+        headers.put("Empty", Collections.emptyList());
+        assertEquals("120", RetryPolicy.header(headers, "Retry-After"));
+        assertNull(RetryPolicy.header(headers, "Empty"));
+        assertNull(RetryPolicy.header(headers, "Missing"));
+        assertNull(RetryPolicy.header(null, "Retry-After"));
+    }
+}
@@ -0,0 +1,117 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pack the rule descriptions and unpack them back
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RuleStoreTest {
+
+    private static final String SENTENCE = "<p>Noncompliant code example : the rule raises an issue here.</p>\n";
+
+    @Test
+    public void keepsNullAndShortDescriptions(){
+        assertNull(RuleStore.pack(null));
+        assertNull(RuleStore.unpack(null));
+        final String shortest = text(RuleStore.MIN_PACKED_LENGTH - 1);
+        assertSame(shortest, RuleStore.pack(shortest));
+    }
+
+    @Test
+    public void packsFromTheMinimumLength(){
+        final String description = text(RuleStore.MIN_PACKED_LENGTH);
+        final String packed = RuleStore.pack(description);
+        assertTrue(RuleStore.isPacked(packed));
+        assertTrue(packed.length() < description.length());
+        assertEquals(description, RuleStore.unpack(packed));
+    }
+
+    @Test
+    public void packsOnce(){
+        final String packed = RuleStore.pack(text(1000));
+        assertSame(packed, RuleStore.pack(packed));
+        assertFalse(RuleStore.isPacked(RuleStore.unpack(packed)));
+    }
+
+    @Test
+    public void unpacksOddAndEvenDeflatedLengths(){
+        final Random random = new Random(42);
+        int odd = 0;
+        int even = 0;
+        for(int length = RuleStore.MIN_PACKED_LENGTH; length < RuleStore.MIN_PACKED_LENGTH + 200; length++){
+            final StringBuilder description = new StringBuilder(text(length - 8));
+            // A few random characters vary the deflated length from one description to the next
+            for(int index = 0; index < 8; index++){
+                description.append((char) ('a' + random.nextInt(26)));
+            }
+            final String packed = RuleStore.pack(description.toString());
+            assertTrue(RuleStore.isPacked(packed));
+            assertEquals(description.toString(), RuleStore.unpack(packed));
+            if(deflatedLength(description.toString()) % 2 == 0){
+                even++;
+            }else{
+                odd++;
+            }
+        }
+        assertTrue(odd > 0);
+        assertTrue(even > 0);
+    }
+
+    @Test
+    public void keepsNonBmpText(){
+        final StringBuilder description = new StringBuilder();
+        while(description.length() < 2 * RuleStore.MIN_PACKED_LENGTH){
+            description.append("<p>🐛 Bug éè 例外 𝔸</p>");
+        }
+        final String packed = RuleStore.pack(description.toString());
+        assertTrue(RuleStore.isPacked(packed));
+        assertEquals(description.toString(), RuleStore.unpack(packed));
+    }
+
+    @Test
+    public void keepsIncompressibleText(){
+        final Random random = new Random(7);
+        final StringBuilder description = new StringBuilder();
+        while(description.length() < 4 * RuleStore.MIN_PACKED_LENGTH){
+            description.appendCodePoint(0x10000 + random.nextInt(0x10000));
+        }
+        // Packed or not, the description comes back as it was
+        assertEquals(description.toString(), RuleStore.unpack(RuleStore.pack(description.toString())));
+    }
+
+    private static String text(int length){
+        final StringBuilder text = new StringBuilder(length);
+        while(text.length() < length){
+            text.append(SENTENCE);
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    private static int deflatedLength(String description){
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try{
+            deflater.setInput(description.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            final byte[] buffer = new byte[4096];
+            int length = 0;
+            while(!deflater.finished()){
+                length += deflater.deflate(buffer);
+            }
+            return length;
+        }finally{
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package fr.bugeaud.sonar.rules.extractor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import fr.bugeaud.tools.sonar.rules.client.SonarRule;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Spool rules beyond a memory budget and read them back
+ * @author bugeaud at gmail dot com
+ * @licence CeCILL 2.1
+ */
+public class RulesSpoolTest {
+
+    /**
+     * Two chunks kept in memory, then three full chunks and a partial one spilled
+     */
+    private static final int ROWS = 5 * RulesSpool.CHUNK_SIZE + 123;
+
+    private static final int KEPT_CHUNKS = 2;
+
+    private final List<SonarRule> rules = new ArrayList<>();
+    private final List<JsonNode> trees = new ArrayList<>();
+    private long kept;
+    private RulesSpool.Budget budget;
+    private RulesSpool spool;
+
+    @Before
+    public void setUp() throws IOException{
+        final StringBuilder description = new StringBuilder();
+        while(description.length() < 2 * RuleStore.MIN_PACKED_LENGTH){
+            description.append("<p>Noncompliant code example 🐛 éè</p>\n");
+        }
+        for(int row = 0; row < ROWS; row++){
+            final ObjectNode tree = RulesPageDecoder.MAPPER.createObjectNode();
+            tree.put("id", row + 1);
+            tree.put("key", "squid:S" + row);
+            tree.put("name", "Rule " + row);
+            tree.put("severity", row % 2 == 0 ? "MAJOR" : "BLOCKER");
+            tree.put("htmlDesc", description.toString() + row);
+            tree.putArray("sysTags").add("cwe");
+            final SonarRule rule = RulesPageDecoder.MAPPER.treeToValue(tree, SonarRule.class);
+            trees.add(RulesPageDecoder.MAPPER.valueToTree(rule));
+            rules.add(rule);
+            if(row < KEPT_CHUNKS * RulesSpool.CHUNK_SIZE){
+                kept += RulesSpool.estimateSize(rule);
+            }
+        }
+        budget = new RulesSpool.Budget(kept);
+        spool = new RulesSpool(budget);
+    }
+
+    @After
+    public void tearDown(){
+        spool.close();
+    }
+
+    @Test
+    public void spillsTheChunksBeyondTheBudget(){
+        rules.forEach(spool::add);
+        assertEquals(ROWS, spool.size());
+        assertEquals(ROWS - KEPT_CHUNKS * RulesSpool.CHUNK_SIZE, spool.getSpilledCount());
+        assertEquals(0, budget.getAvailable());
+    }
+
+    @Test
+    public void chargesTheOpenChunks(){
+        long partial = 0;
+        for(SonarRule rule : rules.subList(0, 10)){
+            partial += RulesSpool.estimateSize(rule);
+        }
+        final RulesSpool.Budget small = new RulesSpool.Budget(partial);
+        final RulesSpool first = new RulesSpool(small);
+        final RulesSpool second = new RulesSpool(small);
+        try{
+            // The partial chunk of the first spool takes the whole budget, the second one spills from its first rule
+            rules.subList(0, 10).forEach(first::add);
+            assertEquals(0, small.getAvailable());
+            rules.subList(0, 5).forEach(second::add);
+            assertEquals(0, first.getSpilledCount());
+            assertEquals(5, second.getSpilledCount());
+            assertEquals(trees.get(4), RulesPageDecoder.MAPPER.valueToTree(second.get(4)));
+        }finally{
+            first.close();
+            second.close();
+        }
+        assertEquals(partial, small.getAvailable());
+    }
+
+    @Test
+    public void readsTheSpilledRulesBack(){
+        rules.forEach(spool::add);
+        int row = 0;
+        for(SonarRule rule : spool){
+            assertEquals("row " + row, trees.get(row), RulesPageDecoder.MAPPER.valueToTree(rule));
+            row++;
+        }
+        assertEquals(ROWS, row);
+    }
+
+    @Test
+    public void expandsTheCompactedRulesItSpills(){
+        // Without any budget, every sealed chunk is spilled
+        final RulesSpool spilled = new RulesSpool(new RulesSpool.Budget(0));
+        try{
+            rules.forEach(rule -> spilled.add(RuleStore.compact(rule)));
+            assertEquals(ROWS, spilled.getSpilledCount());
+            assertFalse(RuleStore.isPacked(spilled.get(0).getHtmlDesc()));
+            assertEquals(trees.get(0), RulesPageDecoder.MAPPER.valueToTree(spilled.get(0)));
+            // Only the spilled copy is inflated, the rule itself stays compact
+            assertTrue(RuleStore.isPacked(rules.get(0).getHtmlDesc()));
+        }finally{
+            spilled.close();
+        }
+    }
+
+    @Test
+    public void getAgreesWithTheIterator(){
+        rules.forEach(spool::add);
+        final Iterator<SonarRule> iterator = spool.iterator();
+        for(int row = 0; row < ROWS; row++){
+            assertTrue(iterator.hasNext());
+            assertEquals("row " + row, RulesPageDecoder.MAPPER.valueToTree(iterator.next()), RulesPageDecoder.MAPPER.valueToTree(spool.get(row)));
+        }
+        assertFalse(iterator.hasNext());
+        // Backwards, every spilled chunk is loaded again
+        for(int row = ROWS - 1; row >= 0; row -= 97){
+            assertEquals("row " + row, trees.get(row), RulesPageDecoder.MAPPER.valueToTree(spool.get(row)));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getChecksTheIndex(){
+        rules.forEach(spool::add);
+        spool.get(ROWS);
+    }
+
+    @Test
+    public void closeGivesTheBudgetBackAndDeletesTheFile() throws IOException{
+        final Set<Path> before = spoolFiles();
+        rules.forEach(spool::add);
+        final Set<Path> created = spoolFiles();
+        created.removeAll(before);
+        assertEquals(1, created.size());
+
+        spool.close();
+        assertEquals(0, spool.size());
+        assertEquals(kept, budget.getAvailable());
+        for(Path file : created){
+            assertFalse(file.toString(), Files.exists(file));
+        }
+
+        // The budget given back keeps the chunks of the next list in memory
+        final RulesSpool next = new RulesSpool(budget);
+        try{
+            rules.subList(0, KEPT_CHUNKS * RulesSpool.CHUNK_SIZE).forEach(next::add);
+            assertEquals(0, next.getSpilledCount());
+        }finally{
+            next.close();
+        }
+    }
+
+    private static Set<Path> spoolFiles() throws IOException{
+        final Set<Path> files = new HashSet<>();
+        try(DirectoryStream<Path> directory = Files.newDirectoryStream(Paths.get(System.getProperty("java.io.tmpdir")), "rules-spool-*.tmp")){
+            directory.forEach(files::add);
+        }
+        return files;
+    }
+}